@@ -0,0 +1,96 @@
+/**
+ * 延迟直方图（纳秒）
+ *
+ * 对数-线性分桶：小于 16ns 的值每纳秒一个桶；更大的值按 2 的幂分段，每段再均分为 16 个桶，相对误差不超过 1/16。
+ * 一共 1024 个桶，记录一个值只是一次数组自增，不分配对象，可以在消费者线程的热点路径上使用。
+ * 不是线程安全的：每个线程使用自己的直方图，测量结束后再用 add 合并。
+ * Created by osys on 2022/08/28 21:48.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long totalCount;
+    private long sum;
+    private long max;
+
+    void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        counts[indexOf(nanos)]++;
+        totalCount++;
+        sum += nanos;
+        max = Math.max(max, nanos);
+    }
+
+    /** 把 other 的记录合并进来 */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    long totalCount() {
+        return totalCount;
+    }
+
+    double mean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+
+    long max() {
+        return max;
+    }
+
+    /**
+     * 百分位数
+     * @param percentile 0 ~ 100
+     * @return 该百分位所在桶的中间值
+     */
+    double percentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        if (percentile >= 100) {
+            return max;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(lowerBound(i) + (bucketWidth(i) - 1) / 2.0, max);
+            }
+        }
+        return max;
+    }
+
+    private static int indexOf(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    private static long bucketWidth(int index) {
+        if (index < SUB_BUCKETS) {
+            return 1;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return 1L << (exponent - SUB_BUCKET_BITS);
+    }
+}
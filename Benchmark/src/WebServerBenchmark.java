@@ -0,0 +1,445 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Unit6 中各个 Web 服务器的负载测试：连接数（请求数）/秒和延迟
+ *
+ * 每个服务器（线程模型）在单独 fork 出的 JVM 中运行，负载生成器在当前 JVM 中：
+ * clients 个客户端线程，每个线程循环地建立连接、发送 GET /sleep/[delay]、读完响应（服务器响应后关闭连接），
+ * 记录从建立连接到读完响应的时间。-k 时客户端保持连接，在同一个连接上依次发送请求（服务器响应 Connection: close 时重新连接），
+ * 测量的是请求数/秒，NioLifecycleWebServer 可以用很少的线程保持大量的连接。服务器处理请求时 sleep delay 毫秒，模拟阻塞的后端调用，
+ * 所以吞吐量的上限大约是 并发处理的连接数 / delay：
+ * SingleThreadWebServer 一次一个连接；线程池的服务器受线程数限制，队列满了以后连接被拒绝（计入 errors）；
+ * 每个连接一个平台线程的服务器受线程的内存、调度开销限制；虚拟线程、NIO 只受 CPU 和 delay 限制。
+ * 每个客户端数先预热 warmup 毫秒，再测量 measure 毫秒。
+ * LifecycleWebServer、NioLifecycleWebServer 通过 /shutdown 请求关闭，检查它们能正常退出。
+ *
+ * Unit6 按 JDK 21 的语言级别编译（虚拟线程）：用 -java 指定运行服务器的 JDK 21（默认和当前 JVM 相同）。
+ * 运行前先用 IDEA 编译整个项目（输出到 out/production/[Unit 名]），然后在项目根目录运行：
+ * java -cp out/production/Benchmark WebServerBenchmark [选项]
+ * -c 16,256             客户端数（并发连接数）
+ * -d 10                 服务器处理每个请求时 sleep 的毫秒数
+ * -k true               客户端保持连接
+ * -w 2000 -r 5000       预热、测量的时间（ms）
+ * -b 正则表达式           只运行名字匹配的服务器，如 -b ".*virtual"
+ * -out out/production   各个 Unit 的编译输出目录
+ * -java /path/to/jdk-21 运行服务器的 JDK
+ * -jvmArgs "-Xmx1g"     传给服务器 JVM 的参数
+ * -l                    列出所有服务器
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class WebServerBenchmark {
+    /** 被测试的服务器：[Unit 名]:[类名]:[线程模式] */
+    static final String[] TARGETS = {
+            "Unit6:SingleThreadWebServer",
+            "Unit6:ThreadPerTaskWebServer:platform",
+            "Unit6:ThreadPerTaskWebServer:virtual",
+            "Unit6:ThreadPerTaskWebServer2",
+            "Unit6:TaskExecutionWebServer:pool",
+            "Unit6:TaskExecutionWebServer:virtual",
+            "Unit6:LifecycleWebServer:pool",
+            "Unit6:LifecycleWebServer:virtual",
+            "Unit6:NioLifecycleWebServer:pool",
+            "Unit6:NioLifecycleWebServer:virtual",
+    };
+    private static final long STARTUP_MILLIS = 10_000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final int READ_TIMEOUT_MILLIS = 30_000;
+
+    private int[] clients = {16, 256};
+    private long delayMillis = 10;
+    private boolean keepAlive;
+    private long warmupMillis = 2000;
+    private long measureMillis = 5000;
+    private Pattern include = Pattern.compile(".*");
+    private File outputDir = new File("out/production");
+    private File javaHome = new File(System.getProperty("java.home"));
+    private List<String> jvmArgs = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        WebServerBenchmark benchmark = new WebServerBenchmark();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("-l")) {
+                for (String target : TARGETS) {
+                    System.out.println(target);
+                }
+                return;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "-c":
+                    benchmark.clients = parseInts(value);
+                    break;
+                case "-d":
+                    benchmark.delayMillis = Long.parseLong(value);
+                    break;
+                case "-k":
+                    benchmark.keepAlive = Boolean.parseBoolean(value);
+                    break;
+                case "-w":
+                    benchmark.warmupMillis = Long.parseLong(value);
+                    break;
+                case "-r":
+                    benchmark.measureMillis = Long.parseLong(value);
+                    break;
+                case "-b":
+                    benchmark.include = Pattern.compile(value);
+                    break;
+                case "-out":
+                    benchmark.outputDir = new File(value);
+                    break;
+                case "-java":
+                    benchmark.javaHome = new File(value);
+                    break;
+                case "-jvmArgs":
+                    benchmark.jvmArgs = Arrays.asList(value.trim().split("\\s+"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+        benchmark.run();
+    }
+
+    private static int[] parseInts(String s) {
+        String[] parts = s.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private void run() throws IOException, InterruptedException {
+        List<Result> results = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        for (String target : TARGETS) {
+            if (!include.matcher(target).matches()) {
+                continue;
+            }
+            String failure = runTarget(target, results);
+            if (failure != null) {
+                failures.add(target + ": " + failure);
+            }
+        }
+        printSummary(results, failures);
+    }
+
+    /**
+     * 启动服务器，依次用各个客户端数测试，关闭服务器
+     * @return 失败原因，成功时返回 null
+     */
+    private String runTarget(String target, List<Result> results) throws IOException, InterruptedException {
+        String[] parts = target.split(":");
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(new File(javaHome, "bin/java").getPath());
+        command.addAll(jvmArgs);
+        command.add("-cp");
+        command.add(new File(outputDir, parts[0]).getPath());
+        command.add(parts[1]);
+        command.add(String.valueOf(port));
+        if (parts.length > 2) {
+            command.add(parts[2]);
+        }
+        System.out.printf("# %s, port %d%n", target, port);
+        Process server = new ProcessBuilder(command).redirectErrorStream(true).start();
+        OutputPump output = new OutputPump(server.getInputStream());
+        output.start();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+        try {
+            if (!awaitStartup(server, address)) {
+                server.waitFor(1, TimeUnit.SECONDS);
+                return "server did not start: " + output.firstLine();
+            }
+            for (int n : clients) {
+                new Load(address, n, delayMillis, keepAlive).run(warmupMillis);
+                Result result = new Load(address, n, delayMillis, keepAlive).run(measureMillis);
+                result.target = target;
+                results.add(result);
+                System.out.printf(Locale.ROOT, "clients %d: %.1f req/s, p99 %.2f ms, %d errors%n",
+                        n, result.requestsPerSecond(), millis(result.latency.percentile(99)), result.errors);
+            }
+            if (parts[1].endsWith("LifecycleWebServer")) {
+                // 关闭请求：不再接受连接，处理完已经接受的连接后退出
+                request(address, "/shutdown");
+                if (!server.waitFor(STARTUP_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return "server did not exit after /shutdown";
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            return e.toString();
+        } finally {
+            server.destroy();
+            if (!server.waitFor(STARTUP_MILLIS, TimeUnit.MILLISECONDS)) {
+                server.destroyForcibly();
+            }
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket s = new ServerSocket(0)) {
+            return s.getLocalPort();
+        }
+    }
+
+    /** 等待服务器开始接受连接 */
+    private static boolean awaitStartup(Process server, InetSocketAddress address) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STARTUP_MILLIS);
+        while (System.nanoTime() < deadline && server.isAlive()) {
+            try (Socket s = new Socket()) {
+                s.connect(address, CONNECT_TIMEOUT_MILLIS);
+                return true;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        return false;
+    }
+
+    /** 发送一个请求，读完响应，返回响应的状态行 */
+    static String request(InetSocketAddress address, String path) throws IOException {
+        try (Socket s = new Socket()) {
+            s.connect(address, CONNECT_TIMEOUT_MILLIS);
+            s.setSoTimeout(READ_TIMEOUT_MILLIS);
+            OutputStream out = s.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            InputStream in = s.getInputStream();
+            byte[] buf = new byte[1024];
+            StringBuilder status = new StringBuilder();
+            boolean statusDone = false;
+            for (int n; (n = in.read(buf)) > 0; ) {
+                for (int i = 0; i < n && !statusDone; i++) {
+                    if (buf[i] == '\r' || buf[i] == '\n') {
+                        statusDone = true;
+                    } else {
+                        status.append((char) buf[i]);
+                    }
+                }
+            }
+            return status.toString();
+        }
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1e6;
+    }
+
+    private void printSummary(List<Result> results, List<String> failures) {
+        System.out.println();
+        System.out.printf("%-40s %7s %12s %10s %10s %10s %10s %8s%n",
+                "Server", "Clients", "Req/s", "Mean ms", "p50 ms", "p99 ms", "Max ms", "Errors");
+        for (Result r : results) {
+            System.out.printf(Locale.ROOT, "%-40s %7d %12.1f %10.2f %10.2f %10.2f %10.2f %8d%n",
+                    r.target, r.clients, r.requestsPerSecond(), millis(r.latency.mean()),
+                    millis(r.latency.percentile(50)), millis(r.latency.percentile(99)),
+                    millis(r.latency.max()), r.errors);
+        }
+        for (String failure : failures) {
+            System.out.println("FAILED " + failure);
+        }
+    }
+
+    /** 一个服务器在一个客户端数下的结果 */
+    private static final class Result {
+        String target;
+        final int clients;
+        final long nanos;
+        final LatencyHistogram latency = new LatencyHistogram();
+        long errors;
+
+        Result(int clients, long nanos) {
+            this.clients = clients;
+            this.nanos = nanos;
+        }
+
+        /** 不保持连接时也是连接数/秒 */
+        double requestsPerSecond() {
+            return latency.totalCount() * 1e9 / nanos;
+        }
+    }
+
+    /** clients 个客户端线程，在一段时间内不停地发送请求 */
+    private static final class Load {
+        private final InetSocketAddress address;
+        private final int clients;
+        private final String path;
+        private final boolean keepAlive;
+
+        Load(InetSocketAddress address, int clients, long delayMillis, boolean keepAlive) {
+            this.address = address;
+            this.clients = clients;
+            this.path = "/sleep/" + delayMillis;
+            this.keepAlive = keepAlive;
+        }
+
+        Result run(long millis) throws InterruptedException {
+            final long start = System.nanoTime();
+            final long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+            Client[] threads = new Client[clients];
+            for (int i = 0; i < clients; i++) {
+                threads[i] = new Client(deadline);
+                threads[i].start();
+            }
+            for (Client c : threads) {
+                c.join();
+            }
+            Result result = new Result(clients, System.nanoTime() - start);
+            for (Client c : threads) {
+                result.latency.add(c.latency);
+                result.errors += c.errors;
+            }
+            return result;
+        }
+
+        /** 一个客户端：每个请求一个新的连接（或者保持连接），每个线程用自己的直方图 */
+        private final class Client extends Thread {
+            private final long deadline;
+            final LatencyHistogram latency = new LatencyHistogram();
+            long errors;
+            /** 保持的连接，没有时为 null */
+            private Socket socket;
+            private InputStream in;
+
+            Client(long deadline) {
+                this.deadline = deadline;
+                setDaemon(true);
+            }
+
+            @Override
+            public void run() {
+                long now;
+                while ((now = System.nanoTime()) < deadline) {
+                    try {
+                        String status = keepAlive ? keepAliveRequest() : request(address, path);
+                        if (status.startsWith("HTTP/1.1 200")) {
+                            latency.record(System.nanoTime() - now);
+                        } else {
+                            errors++;
+                        }
+                    } catch (IOException e) {
+                        // 连接被拒绝、被服务器关闭、超时
+                        errors++;
+                    }
+                }
+                closeSocket();
+            }
+
+            /** 在保持的连接上发送请求，读完响应，返回状态行 */
+            private String keepAliveRequest() throws IOException {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                    socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    in = new BufferedInputStream(socket.getInputStream());
+                }
+                try {
+                    socket.getOutputStream().write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                    String status = readLine(in);
+                    long contentLength = 0;
+                    boolean close = false;
+                    for (String line; !(line = readLine(in)).isEmpty(); ) {
+                        String header = line.toLowerCase(Locale.ROOT);
+                        if (header.startsWith("content-length:")) {
+                            contentLength = Long.parseLong(header.substring("content-length:".length()).trim());
+                        } else if (header.startsWith("connection:") && header.contains("close")) {
+                            close = true;
+                        }
+                    }
+                    for (long i = 0; i < contentLength; i++) {
+                        if (in.read() < 0) {
+                            throw new EOFException();
+                        }
+                    }
+                    if (close) {
+                        closeSocket();
+                    }
+                    return status;
+                } catch (IOException | NumberFormatException e) {
+                    closeSocket();
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+            }
+
+            private void closeSocket() {
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                    socket = null;
+                    in = null;
+                }
+            }
+        }
+
+        /** 读一行（去掉行尾的 CRLF） */
+        private String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int b; (b = in.read()) != '\n'; ) {
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+    }
+
+    /** 读服务器的输出，打印出来，保留第一行作为失败原因（通常是异常信息） */
+    private static final class OutputPump extends Thread {
+        private final BufferedReader in;
+        private volatile String firstLine = "";
+
+        OutputPump(InputStream in) {
+            this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            setDaemon(true);
+        }
+
+        String firstLine() {
+            return firstLine;
+        }
+
+        @Override
+        public void run() {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    System.out.println("[server] " + line);
+                    if (firstLine.isEmpty()) {
+                        firstLine = line.trim();
+                    }
+                }
+            } catch (IOException ignored) {
+                // 服务器退出
+            }
+        }
+    }
+}
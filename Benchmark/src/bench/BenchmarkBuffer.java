@@ -0,0 +1,164 @@
+package bench;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 被测试的缓存/队列
+ *
+ * 不同 Unit 中有同名的类（如 Unit12、Unit14 都有 BoundedBuffer），不能放在同一个 classpath 中编译、运行。
+ * 所以 Benchmark 模块不依赖被测试的 Unit，而是为每个 Unit 创建一个 URLClassLoader，按类名反射加载：
+ * 1. 目标的格式为 [Unit 名]:[类名]，JDK 的类用 jdk:ArrayBlockingQueue 这样的写法
+ * 2. Unit 的类从 [bench.out 系统属性，默认 out/production]/[Unit 名] 和 [Unit 名]/resources/libs 中的 jar 加载
+ * 3. 添加元素依次尝试 put、offer、putTail 方法；拿取元素优先用阻塞的 take，没有 take 时用 poll 自旋
+ * 4. 构造器优先用 (int capacity)，没有时用无参构造器（无界队列，容量参数被忽略，isBounded() 返回 false）
+ * 自旋等待时检查中断状态，和阻塞的 put、take 一样可以用中断结束。
+ * Created by osys on 2022/08/28 21:48.
+ */
+final class BenchmarkBuffer {
+    static final String OUTPUT_DIR_PROPERTY = "bench.out";
+
+    /** Unit 名 -> 加载这个 Unit 的类的 ClassLoader */
+    private static final Map<String, ClassLoader> LOADERS = new HashMap<>();
+
+    private final MethodHandle newBounded;
+    private final MethodHandle newUnbounded;
+    /** (Object buffer, Object x) boolean */
+    private final MethodHandle put;
+    /** (Object buffer) Object */
+    private final MethodHandle take;
+    /** take 是非阻塞的 poll，缓存为空时返回 null */
+    private final boolean polling;
+
+    private BenchmarkBuffer(Class<?> type) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle bounded = null;
+        MethodHandle unbounded = null;
+        try {
+            bounded = lookup.findConstructor(type, MethodType.methodType(void.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class));
+        } catch (NoSuchMethodException e) {
+            unbounded = lookup.findConstructor(type, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+        }
+        newBounded = bounded;
+        newUnbounded = unbounded;
+
+        MethodHandle p = lookup.unreflect(findMethod(type, 1, "put", "offer", "putTail"));
+        if (p.type().returnType() == void.class) {
+            // 没有返回值的 put 总是成功：先调用 put，再返回常量 true
+            MethodHandle alwaysTrue = MethodHandles.dropArguments(
+                    MethodHandles.constant(boolean.class, true), 0, type, p.type().parameterType(1));
+            p = MethodHandles.foldArguments(alwaysTrue, p);
+        }
+        put = p.asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+
+        Method t = findMethod(type, 0, "take", "poll");
+        polling = !t.getName().equals("take");
+        take = lookup.unreflect(t).asType(MethodType.methodType(Object.class, Object.class));
+    }
+
+    /** 加载目标，如 Unit14:ConditionBoundedBuffer */
+    static BenchmarkBuffer load(String target) {
+        try {
+            return new BenchmarkBuffer(Class.forName(className(target), true, loaderOf(target)));
+        } catch (ReflectiveOperationException | MalformedURLException e) {
+            throw new IllegalStateException(target + " can not be benchmarked: " + e, e);
+        }
+    }
+
+    /** 构造器有容量参数 */
+    boolean isBounded() {
+        return newBounded != null;
+    }
+
+    /** 新建一个被测试的缓存 */
+    Object create(int capacity) throws Throwable {
+        return newBounded != null ? (Object) newBounded.invokeExact(capacity) : (Object) newUnbounded.invokeExact();
+    }
+
+    /** 添加一个元素，必要时阻塞（或自旋）直到成功 */
+    void put(Object buffer, Object x) throws Throwable {
+        while (!(boolean) put.invokeExact(buffer, x)) {
+            spinWait();
+        }
+    }
+
+    /** 拿出一个元素，必要时阻塞（或自旋）直到成功 */
+    Object take(Object buffer) throws Throwable {
+        Object x = (Object) take.invokeExact(buffer);
+        if (polling) {
+            while (x == null) {
+                spinWait();
+                x = (Object) take.invokeExact(buffer);
+            }
+        }
+        return x;
+    }
+
+    private static void spinWait() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        Thread.yield();
+    }
+
+    private static synchronized ClassLoader loaderOf(String target) throws MalformedURLException {
+        int i = target.indexOf(':');
+        String unit = i < 0 ? "jdk" : target.substring(0, i);
+        if (unit.equals("jdk")) {
+            return BenchmarkBuffer.class.getClassLoader();
+        }
+        ClassLoader loader = LOADERS.get(unit);
+        if (loader == null) {
+            List<URL> urls = new ArrayList<>();
+            File classes = new File(System.getProperty(OUTPUT_DIR_PROPERTY, "out/production"), unit);
+            if (!classes.isDirectory()) {
+                throw new IllegalStateException(classes + " not found, compile " + unit + " first");
+            }
+            urls.add(classes.toURI().toURL());
+            File[] jars = new File(unit, "resources/libs").listFiles();
+            if (jars != null) {
+                for (File jar : jars) {
+                    urls.add(jar.toURI().toURL());
+                }
+            }
+            loader = new URLClassLoader(urls.toArray(new URL[0]), BenchmarkBuffer.class.getClassLoader());
+            LOADERS.put(unit, loader);
+        }
+        return loader;
+    }
+
+    /** 目标的完整类名 */
+    private static String className(String target) {
+        int i = target.indexOf(':');
+        String name = target.substring(i + 1);
+        if (i >= 0 && target.substring(0, i).equals("jdk") && name.indexOf('.') < 0) {
+            return "java.util.concurrent." + name;
+        }
+        return name;
+    }
+
+    /** 按名字的优先顺序查找有 parameterCount 个参数的 public 方法 */
+    private static Method findMethod(Class<?> type, int parameterCount, String... names)
+            throws NoSuchMethodException {
+        for (String name : names) {
+            for (Method method : type.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterTypes().length == parameterCount) {
+                    return method;
+                }
+            }
+        }
+        throw new NoSuchMethodException(type.getName() + " has none of " + String.join("/", names));
+    }
+}
@@ -0,0 +1,133 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 有界缓存/队列在负载下的延迟（JMH，SampleTime 模式给出百分位）
+ *
+ * setUp 中启动 pairs 个生产者不停地 put 填充元素，pairs 个消费者不停地 take，缓存基本上一直是满的。
+ * roundTrip() 放入一个标记元素，等消费者拿到它（消费者通过 SynchronousQueue 交还），
+ * 测到的是元素排在 capacity 个元素之后、从放入到被拿走的时间，包括放入时等待空位的时间。
+ * 只测试有界的实现：无界队列会被生产者越填越长，延迟没有上限，和有界的实现没有可比性。
+ *
+ * 运行（见 BufferThroughputBenchmark）：
+ * java -cp "out/production/Benchmark:Benchmark/resources/libs/*" org.openjdk.jmh.Main bench.BufferLatencyBenchmark \
+ *      -rf json -rff bench-result.json
+ * Created by osys on 2022/08/28 21:48.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BufferLatencyBenchmark {
+    /** 填充元素 */
+    private static final Object FILLER = 1;
+
+    @Param({
+            "Unit12:SemaphoreBoundedBuffer",
+            "Unit12:BoundedBuffer",
+            "Unit12:LockFreeBoundedBuffer",
+            "Unit14:BoundedBuffer",
+            "Unit14:ConditionBoundedBuffer",
+            "Unit14:SleepyBoundedBuffer",
+            "jdk:ArrayBlockingQueue",
+            "jdk:LinkedBlockingQueue",
+    })
+    public String target;
+
+    @Param({"1", "10", "100", "1000"})
+    public int capacity;
+
+    /** 后台的生产者/消费者对数 */
+    @Param({"1", "4"})
+    public int pairs;
+
+    private final Object token = new Object();
+    private final SynchronousQueue<Object> replies = new SynchronousQueue<>();
+    private BenchmarkBuffer impl;
+    private Object buffer;
+    private Thread[] workers;
+    private volatile Throwable failure;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        impl = BenchmarkBuffer.load(target);
+        if (!impl.isBounded()) {
+            throw new IllegalArgumentException(target + " is unbounded");
+        }
+        buffer = impl.create(capacity);
+        workers = new Thread[2 * pairs];
+        for (int i = 0; i < pairs; i++) {
+            workers[2 * i] = worker("producer-" + i, true);
+            workers[2 * i + 1] = worker("consumer-" + i, false);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Benchmark
+    public Object roundTrip() throws Throwable {
+        impl.put(buffer, token);
+        Object x = replies.poll(1, TimeUnit.MINUTES);
+        if (x == null) {
+            throw failure != null ? failure : new IllegalStateException(target + " lost an element");
+        }
+        return x;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            // 是守护线程：忽略中断的实现不会让 fork 的 JVM 无法退出
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private Thread worker(String name, final boolean producer) {
+        Thread t = new Thread(name) {
+            @Override
+            public void run() {
+                try {
+                    if (producer) {
+                        while (true) {
+                            impl.put(buffer, FILLER);
+                        }
+                    }
+                    while (true) {
+                        Object x = impl.take(buffer);
+                        if (x == token) {
+                            replies.put(x);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // tearDown
+                } catch (Throwable e) {
+                    failure = e;
+                }
+            }
+        };
+        t.setDaemon(true);
+        return t;
+    }
+}
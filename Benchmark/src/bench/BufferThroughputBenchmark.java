@@ -0,0 +1,153 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 有界缓存/队列的生产者-消费者吞吐量（JMH）
+ *
+ * TimedPutTakeTest 只运行一次、没有预热控制、所有实现在同一个 JVM 中先后运行，也没有误差估计；
+ * 这里由 JMH 负责 fork、预热、迭代和统计。
+ * 被测试的缓存的 put、take 会阻塞，不能直接由 JMH 的线程调用（迭代结束时，阻塞在 take 上的线程等不到元素）。
+ * 所以生产者、消费者是 setUp 中启动的 pairs 对线程，每次调用 transfer() 让它们一起传递 ITEMS 个元素，全部取完才返回，
+ * 分数是每秒传递的元素个数。
+ * 无界的 LinkedQueue、ConcurrentLinkedQueue 忽略 capacity，只作为无锁队列的参照，BufferLatencyBenchmark 中没有它们。
+ *
+ * JMH 不支持默认包中的基准测试类，所以这几个类放在 bench 包中，被测试的类仍然在各个 Unit 的默认包中。
+ * 运行前先用 IDEA 编译整个项目（输出到 out/production/[Unit 名]，Benchmark 模块需要启用注解处理），然后在项目根目录运行：
+ * java -cp "out/production/Benchmark:Benchmark/resources/libs/*" org.openjdk.jmh.Main bench.BufferThroughputBenchmark \
+ *      -rf json -rff bench-result.json
+ * 常用的 JMH 选项：-p target=Unit14:ConditionBoundedBuffer -p capacity=10,100 -p pairs=1,4 -f 1 -wi 3 -i 5
+ * Created by osys on 2022/08/28 21:48.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BufferThroughputBenchmark {
+    /**
+     * 每次调用传递的元素个数。不能太多：SleepyBoundedBuffer 每次等待都 sleep 60ms，容量为 1 时一次调用就要一两分钟
+     */
+    static final int ITEMS = 1024;
+    /** 放入的元素，预先装箱，避免测量到分配的开销 */
+    private static final Object ITEM = 1;
+
+    @Param({
+            "Unit12:SemaphoreBoundedBuffer",
+            "Unit12:BoundedBuffer",
+            "Unit12:LockFreeBoundedBuffer",
+            "Unit14:BoundedBuffer",
+            "Unit14:ConditionBoundedBuffer",
+            "Unit14:SleepyBoundedBuffer",
+            "Unit15:LinkedQueue",
+            "jdk:ArrayBlockingQueue",
+            "jdk:LinkedBlockingQueue",
+            "jdk:ConcurrentLinkedQueue",
+    })
+    public String target;
+
+    @Param({"1", "10", "100", "1000"})
+    public int capacity;
+
+    /** 生产者/消费者对数 */
+    @Param({"1", "4", "16"})
+    public int pairs;
+
+    private BenchmarkBuffer impl;
+    private Object buffer;
+    /** transfer() 和所有生产者、消费者在开始、结束时会合 */
+    private CyclicBarrier startGate;
+    private CyclicBarrier endGate;
+    private Thread[] workers;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        impl = BenchmarkBuffer.load(target);
+        buffer = impl.create(capacity);
+        startGate = new CyclicBarrier(2 * pairs + 1);
+        endGate = new CyclicBarrier(2 * pairs + 1);
+        workers = new Thread[2 * pairs];
+        for (int i = 0; i < pairs; i++) {
+            // 元素平均分给每一对，除不尽的部分分给前几对
+            int share = ITEMS / pairs + (i < ITEMS % pairs ? 1 : 0);
+            workers[2 * i] = worker("producer-" + i, share, true);
+            workers[2 * i + 1] = worker("consumer-" + i, share, false);
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ITEMS)
+    public void transfer() throws Throwable {
+        try {
+            // 实现有问题（例如丢失了唤醒）时不会一直卡住
+            startGate.await(1, TimeUnit.MINUTES);
+            endGate.await(10, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            Throwable cause = failure.get();
+            throw cause != null ? cause : e;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            // 是守护线程：忽略中断的实现不会让 fork 的 JVM 无法退出
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private Thread worker(String name, final int share, final boolean producer) {
+        Thread t = new Thread(name) {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        startGate.await();
+                        if (producer) {
+                            for (int n = 0; n < share; n++) {
+                                impl.put(buffer, ITEM);
+                            }
+                        } else {
+                            for (int n = 0; n < share; n++) {
+                                impl.take(buffer);
+                            }
+                        }
+                        endGate.await();
+                    }
+                } catch (InterruptedException e) {
+                    // tearDown
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                    endGate.reset();
+                }
+            }
+        };
+        t.setDaemon(true);
+        return t;
+    }
+}
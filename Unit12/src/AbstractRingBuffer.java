@@ -0,0 +1,222 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 无锁环形缓存（Vyukov MPMC 环形队列）的序号协议和阻塞等待，不包含存放元素的数组
+ *
+ * 子类用自己的数组（E[]、int[]、long[]）存放元素：
+ * 1. 写入：claimPut() 抢到位置 pos 后，写入 array[index(pos)]，再 publishPut(pos)
+ * 2. 读取：claimTake() 抢到位置 pos 后，读出 array[index(pos)]，再 releaseTake(pos)
+ * 槽位序号的 volatile 写、读保证了元素的可见性，存放元素的数组本身不需要 volatile。
+ * 缓存已满（或为空）时，调用 waitForSpace（或 waitForItem）先自旋，再 park 等待另一端唤醒。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+abstract class AbstractRingBuffer extends RingBufferHeadPad {
+    /** park 之前自旋重试的次数 */
+    private static final int SPIN_TRIES = 64;
+
+    private static final AtomicLongFieldUpdater<RingBufferTail> TAIL =
+            AtomicLongFieldUpdater.newUpdater(RingBufferTail.class, "tail");
+    private static final AtomicLongFieldUpdater<RingBufferHead> HEAD =
+            AtomicLongFieldUpdater.newUpdater(RingBufferHead.class, "head");
+
+    final int capacity;
+    private final AtomicLongArray sequences;
+
+    /** 等待空间的生产者、等待元素的消费者 */
+    private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+    private final Queue<Thread> waitingConsumers = new ConcurrentLinkedQueue<>();
+
+    AbstractRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, 2L * i);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** 当前元素个数（并发修改时是近似值） */
+    public int size() {
+        long h = head;
+        long t = tail;
+        return (int) Math.max(0, Math.min(t - h, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean isFull() {
+        return size() == capacity;
+    }
+
+    /** 位置 pos 对应的数组下标 */
+    final int index(long pos) {
+        return (int) (pos % capacity);
+    }
+
+    /**
+     * 抢占一个可写入的位置
+     * @return 缓存已满时返回 -1
+     */
+    final long claimPut() {
+        long pos = tail;
+        while (true) {
+            long dif = sequences.get(index(pos)) - 2 * pos;
+            if (dif == 0) {
+                if (TAIL.compareAndSet(this, pos, pos + 1)) {
+                    return pos;
+                }
+                pos = tail;
+            } else if (dif < 0) {
+                // 上一圈的元素还没被取走：已满
+                return -1;
+            } else {
+                // 其它生产者已经抢到了 pos
+                pos = tail;
+            }
+        }
+    }
+
+    /** 元素已写入位置 pos，发布给消费者 */
+    final void publishPut(long pos) {
+        sequences.set(index(pos), 2 * pos + 1);
+        signal(waitingConsumers);
+    }
+
+    /**
+     * 抢占一个可读取的位置
+     * @return 缓存为空时返回 -1
+     */
+    final long claimTake() {
+        long pos = head;
+        while (true) {
+            long dif = sequences.get(index(pos)) - (2 * pos + 1);
+            if (dif == 0) {
+                if (HEAD.compareAndSet(this, pos, pos + 1)) {
+                    return pos;
+                }
+                pos = head;
+            } else if (dif < 0) {
+                // 槽位还没有写入元素：为空
+                return -1;
+            } else {
+                pos = head;
+            }
+        }
+    }
+
+    /** 元素已从位置 pos 读出，槽位留给下一圈的生产者 */
+    final void releaseTake(long pos) {
+        sequences.set(index(pos), 2 * (pos + capacity));
+        signal(waitingProducers);
+    }
+
+    /**
+     * 缓存已满时，第 tries 次等待空间
+     */
+    final void waitForSpace(int tries) throws InterruptedException {
+        if (tries < SPIN_TRIES) {
+            Thread.yield();
+        } else {
+            await(waitingProducers, true);
+        }
+    }
+
+    /**
+     * 缓存为空时，第 tries 次等待元素
+     */
+    final void waitForItem(int tries) throws InterruptedException {
+        if (tries < SPIN_TRIES) {
+            Thread.yield();
+        } else {
+            await(waitingConsumers, false);
+        }
+    }
+
+    /** 阻塞的 put 完成后，还有剩余空间，唤醒下一个等待的生产者 */
+    final void putCompleted() {
+        if (!waitingProducers.isEmpty() && !isFull()) {
+            signal(waitingProducers);
+        }
+    }
+
+    /** 阻塞的 take 完成后，还有剩余元素，唤醒下一个等待的消费者 */
+    final void takeCompleted() {
+        if (!waitingConsumers.isEmpty() && !isEmpty()) {
+            signal(waitingConsumers);
+        }
+    }
+
+    /**
+     * 登记到等待队列后再检查一次条件，避免错过登记之前发出的 unpark
+     * 被中断而退出时，发给自己的唤醒可能已经被 signal 从队列中取走，条件成立的话再唤醒下一个等待线程，
+     * 否则其它等待线程会一直 park（同 AQS 的 cancelAcquire）
+     * @param waiters 等待队列
+     * @param forSpace true：等待空间；false：等待元素
+     */
+    private void await(Queue<Thread> waiters, boolean forSpace) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        boolean interrupted = false;
+        try {
+            if (forSpace ? isFull() : isEmpty()) {
+                LockSupport.park(this);
+            }
+            if (Thread.interrupted()) {
+                interrupted = true;
+                throw new InterruptedException();
+            }
+        } finally {
+            waiters.remove(current);
+            if (interrupted && !(forSpace ? isFull() : isEmpty())) {
+                signal(waiters);
+            }
+        }
+    }
+
+    /** 唤醒一个等待线程 */
+    private static void signal(Queue<Thread> waiters) {
+        if (!waiters.isEmpty()) {
+            Thread waiter = waiters.poll();
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+}
+
+/* 用填充字段把 tail、head 隔开，各自独占一个缓存行（64 字节） */
+
+abstract class RingBufferTailPad {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class RingBufferTail extends RingBufferTailPad {
+    volatile long tail;
+}
+
+abstract class RingBufferMiddlePad extends RingBufferTail {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class RingBufferHead extends RingBufferMiddlePad {
+    volatile long head;
+}
+
+abstract class RingBufferHeadPad extends RingBufferHead {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+}
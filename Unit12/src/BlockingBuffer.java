@@ -0,0 +1,28 @@
+import java.util.Collection;
+
+/**
+ * 有界阻塞缓存：PutTakeTest、TimedPutTakeTest 通过该接口测试不同的实现
+ * Created by osys on 2022/08/28 21:48.
+ */
+public interface BlockingBuffer<E> {
+    /** 添加一个元素，缓存已满时阻塞 */
+    void put(E x) throws InterruptedException;
+
+    /** 拿出一个元素，缓存为空时阻塞 */
+    E take() throws InterruptedException;
+
+    /** 批量添加，缓存已满时阻塞，直到所有元素都添加完 */
+    void putAll(E[] xs) throws InterruptedException;
+
+    /**
+     * 批量拿取，缓存为空时阻塞，直到至少拿到一个元素
+     * @param c 拿出的元素添加到 c 中
+     * @param maxElements 最多拿取的元素个数
+     * @return 实际拿取的元素个数
+     */
+    int drainTo(Collection<? super E> c, int maxElements) throws InterruptedException;
+
+    boolean isEmpty();
+
+    boolean isFull();
+}
@@ -1,10 +1,12 @@
 import net.jcip.annotations.ThreadSafe;
 
+import java.util.Collection;
+
 /**
  * Created by osys on 2022/08/28 21:48.
  */
 @ThreadSafe
-public class BoundedBuffer<V> extends BaseBoundedBuffer<V> {
+public class BoundedBuffer<V> extends BaseBoundedBuffer<V> implements BlockingBuffer<V> {
     public BoundedBuffer() {
         this(100);
     }
@@ -13,6 +15,7 @@ public class BoundedBuffer<V> extends BaseBoundedBuffer<V> {
         super(size);
     }
 
+    @Override
     public synchronized void put(V v) throws InterruptedException {
         while (isFull()) {
             wait();
@@ -21,6 +24,7 @@ public class BoundedBuffer<V> extends BaseBoundedBuffer<V> {
         notifyAll();
     }
 
+    @Override
     public synchronized V take() throws InterruptedException {
         while (isEmpty()) {
             wait();
@@ -40,4 +44,44 @@ public class BoundedBuffer<V> extends BaseBoundedBuffer<V> {
             notifyAll();
         }
     }
+
+    /**
+     * 批量添加，缓存满时阻塞，直到所有元素都添加完
+     * 每次获得锁后尽可能多地添加，只唤醒一次等待线程
+     */
+    @Override
+    public synchronized void putAll(V[] items) throws InterruptedException {
+        int offset = 0;
+        while (offset < items.length) {
+            while (isFull()) {
+                wait();
+            }
+            offset += doPutAll(items, offset, items.length - offset);
+            notifyAll();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void putAll(Collection<? extends V> items) throws InterruptedException {
+        putAll((V[]) items.toArray());
+    }
+
+    /**
+     * 批量拿取，缓存为空时阻塞，直到至少有一个元素
+     * @param c 拿出的元素添加到 c 中
+     * @param maxElements 最多拿取的元素个数
+     * @return 实际拿取的元素个数
+     */
+    @Override
+    public synchronized int drainTo(Collection<? super V> c, int maxElements) throws InterruptedException {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        while (isEmpty()) {
+            wait();
+        }
+        int n = doDrainTo(c, maxElements);
+        notifyAll();
+        return n;
+    }
 }
@@ -0,0 +1,73 @@
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * 存放 int 的无锁有界缓存
+ *
+ * 和 LockFreeBoundedBuffer 使用相同的环形队列（AbstractRingBuffer），元素直接存放在 int[] 中：
+ * put/take 不装箱成 Integer，每次操作不分配任何对象（只有缓存满/空、线程需要 park 时，才会向等待队列添加节点）。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class IntBoundedBuffer extends AbstractRingBuffer {
+    /** 元素的可见性由槽位序号的 volatile 读写保证 */
+    private final int[] items;
+
+    public IntBoundedBuffer(int capacity) {
+        super(capacity);
+        this.items = new int[capacity];
+    }
+
+    /**
+     * 非阻塞添加
+     * @return 缓存已满时返回 false
+     */
+    public boolean offer(int x) {
+        long pos = claimPut();
+        if (pos < 0) {
+            return false;
+        }
+        items[index(pos)] = x;
+        publishPut(pos);
+        return true;
+    }
+
+    /**
+     * 非阻塞拿取
+     * @param valueIfEmpty 缓存为空时的返回值
+     */
+    public int poll(int valueIfEmpty) {
+        long pos = claimTake();
+        if (pos < 0) {
+            return valueIfEmpty;
+        }
+        int x = items[index(pos)];
+        releaseTake(pos);
+        return x;
+    }
+
+    /** 添加一个元素，缓存已满时阻塞 */
+    public void put(int x) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        for (int tries = 0; !offer(x); tries++) {
+            waitForSpace(tries);
+        }
+        putCompleted();
+    }
+
+    /** 拿出一个元素，缓存为空时阻塞 */
+    public int take() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long pos;
+        for (int tries = 0; (pos = claimTake()) < 0; tries++) {
+            waitForItem(tries);
+        }
+        int x = items[index(pos)];
+        releaseTake(pos);
+        takeCompleted();
+        return x;
+    }
+}
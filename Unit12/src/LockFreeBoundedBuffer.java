@@ -0,0 +1,116 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Collection;
+
+/**
+ * 基于数组的无锁多生产者/多消费者有界缓存（Vyukov MPMC 环形队列）
+ *
+ * SemaphoreBoundedBuffer 每存取一个元素，都要获取、释放两个信号量，再进入一次 synchronized 的 doInsert/doExtract。
+ * 这里每个槽位带一个序号（sequence），生产者/消费者只需要对 tail/head 做一次 CAS：
+ * 1. 槽位序号 == 2 * pos：槽位空闲，生产者 CAS tail 抢到 pos 后写入元素，再把序号设为 2 * pos + 1
+ * 2. 槽位序号 == 2 * pos + 1：槽位有元素，消费者 CAS head 抢到 pos 后取出元素，再把序号设为 2 * (pos + capacity)（下一圈的空闲位置）
+ *    序号用 2 倍的位置，是为了 capacity = 1 时，“有元素”和“下一圈空闲”两种状态也不会混淆
+ * 3. tail 和 head 用填充字段隔开，避免位于同一缓存行产生伪共享
+ *
+ * 只有缓存已满（或为空）时，put（或 take）才会在短暂自旋后 park；另一端成功存取元素后 unpark 一个等待线程。
+ * 序号协议和等待/唤醒在 AbstractRingBuffer 中，IntBoundedBuffer、LongBoundedBuffer 共用同一套实现。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class LockFreeBoundedBuffer<E> extends AbstractRingBuffer implements BlockingBuffer<E> {
+    /** 元素的可见性由槽位序号的 volatile 读写保证 */
+    private final E[] items;
+
+    @SuppressWarnings("unchecked")
+    public LockFreeBoundedBuffer(int capacity) {
+        super(capacity);
+        this.items = (E[]) new Object[capacity];
+    }
+
+    /**
+     * 非阻塞添加
+     * @return 缓存已满时返回 false
+     */
+    public boolean offer(E x) {
+        if (x == null) {
+            throw new NullPointerException();
+        }
+        long pos = claimPut();
+        if (pos < 0) {
+            return false;
+        }
+        items[index(pos)] = x;
+        publishPut(pos);
+        return true;
+    }
+
+    /**
+     * 非阻塞拿取
+     * @return 缓存为空时返回 null
+     */
+    public E poll() {
+        long pos = claimTake();
+        if (pos < 0) {
+            return null;
+        }
+        int index = index(pos);
+        E x = items[index];
+        items[index] = null;
+        releaseTake(pos);
+        return x;
+    }
+
+    @Override
+    public void put(E x) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        for (int tries = 0; !offer(x); tries++) {
+            waitForSpace(tries);
+        }
+        putCompleted();
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        E x;
+        for (int tries = 0; (x = poll()) == null; tries++) {
+            waitForItem(tries);
+        }
+        takeCompleted();
+        return x;
+    }
+
+    /**
+     * 批量添加
+     * 无锁实现中每个元素本来就只需要一次 CAS，这里逐个添加，只在缓存已满时阻塞
+     */
+    @Override
+    public void putAll(E[] xs) throws InterruptedException {
+        for (E x : xs) {
+            put(x);
+        }
+    }
+
+    /**
+     * 批量拿取
+     * 阻塞拿到第一个元素后，其余元素用非阻塞的 poll 拿取
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) throws InterruptedException {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        c.add(take());
+        int n = 1;
+        E x;
+        while (n < maxElements && (x = poll()) != null) {
+            c.add(x);
+            n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,119 @@
+import junit.framework.TestCase;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PutTakeTest 的 int/long 版本：测试 IntBoundedBuffer、LongBoundedBuffer
+ *
+ * PutTakeTest 每 put 一个 xorShift 种子都要装箱成 Integer，测到的很大一部分是分配和 GC 的开销。
+ * 这里生产者、消费者直接存取 int/long，整个测试过程中不分配对象。
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class PrimitivePutTakeTest extends TestCase {
+    protected static final ExecutorService pool = Executors.newCachedThreadPool();
+    protected CyclicBarrier barrier;
+    /** 两者只有一个不为 null */
+    protected final IntBoundedBuffer intBuffer;
+    protected final LongBoundedBuffer longBuffer;
+    protected final int nTrials, nPairs;
+    protected final AtomicLong putSum = new AtomicLong(0);
+    protected final AtomicLong takeSum = new AtomicLong(0);
+
+    public static void main(String[] args) throws Exception {
+        new PrimitivePutTakeTest(new IntBoundedBuffer(10), 10, 100000).test(); // sample parameters
+        new PrimitivePutTakeTest(new LongBoundedBuffer(10), 10, 100000).test();
+        pool.shutdown();
+    }
+
+    public PrimitivePutTakeTest(IntBoundedBuffer bb, int npairs, int ntrials) {
+        this(bb, null, npairs, ntrials);
+    }
+
+    public PrimitivePutTakeTest(LongBoundedBuffer bb, int npairs, int ntrials) {
+        this(null, bb, npairs, ntrials);
+    }
+
+    private PrimitivePutTakeTest(IntBoundedBuffer intBuffer, LongBoundedBuffer longBuffer, int npairs, int ntrials) {
+        this.intBuffer = intBuffer;
+        this.longBuffer = longBuffer;
+        this.nTrials = ntrials;
+        this.nPairs = npairs;
+        this.barrier = new CyclicBarrier(npairs * 2 + 1);
+    }
+
+    void test() {
+        try {
+            for (int i = 0; i < nPairs; i++) {
+                pool.execute(new Producer());
+                pool.execute(new Consumer());
+            }
+            barrier.await(); // wait for all threads to be ready
+            barrier.await(); // wait for all threads to finish
+            assertEquals(putSum.get(), takeSum.get());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static long xorShift(long y) {
+        y ^= (y << 13);
+        y ^= (y >>> 7);
+        y ^= (y << 17);
+        return y;
+    }
+
+    /** 生产者 */
+    class Producer implements Runnable {
+        public void run() {
+            try {
+                long seed = (this.hashCode() ^ System.nanoTime()) | 1;
+                long sum = 0;
+                barrier.await();
+                if (intBuffer != null) {
+                    for (int i = nTrials; i > 0; --i) {
+                        int x = (int) seed;
+                        intBuffer.put(x);
+                        sum += x;
+                        seed = xorShift(seed);
+                    }
+                } else {
+                    for (int i = nTrials; i > 0; --i) {
+                        longBuffer.put(seed);
+                        sum += seed;
+                        seed = xorShift(seed);
+                    }
+                }
+                putSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** 消费者 */
+    class Consumer implements Runnable {
+        public void run() {
+            try {
+                barrier.await();
+                long sum = 0;
+                if (intBuffer != null) {
+                    for (int i = nTrials; i > 0; --i) {
+                        sum += intBuffer.take();
+                    }
+                } else {
+                    for (int i = nTrials; i > 0; --i) {
+                        sum += longBuffer.take();
+                    }
+                }
+                takeSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
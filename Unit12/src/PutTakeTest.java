@@ -11,18 +11,24 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class PutTakeTest extends TestCase {
     protected static final ExecutorService pool = Executors.newCachedThreadPool();
     protected CyclicBarrier barrier;
-    protected final SemaphoreBoundedBuffer<Integer> bb;
+    protected final BlockingBuffer<Integer> bb;
     protected final int nTrials, nPairs;
     protected final AtomicInteger putSum = new AtomicInteger(0);
     protected final AtomicInteger takeSum = new AtomicInteger(0);
 
     public static void main(String[] args) throws Exception {
         new PutTakeTest(10, 10, 100000).test(); // sample parameters
+        new PutTakeTest(new LockFreeBoundedBuffer<Integer>(10), 10, 100000).test();
         pool.shutdown();
     }
 
     public PutTakeTest(int capacity, int npairs, int ntrials) {
-        this.bb = new SemaphoreBoundedBuffer<Integer>(capacity);
+        this(new SemaphoreBoundedBuffer<Integer>(capacity), npairs, ntrials);
+    }
+
+    /** 测试指定的缓存实现 */
+    public PutTakeTest(BlockingBuffer<Integer> bb, int npairs, int ntrials) {
+        this.bb = bb;
         this.nTrials = ntrials;
         this.nPairs = npairs;
         this.barrier = new CyclicBarrier(npairs * 2 + 1);
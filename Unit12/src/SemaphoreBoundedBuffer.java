@@ -1,13 +1,14 @@
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
+import java.util.Collection;
 import java.util.concurrent.Semaphore;
 
 /**
  * Created by osys on 2022/08/28 21:48.
  */
 @ThreadSafe
-public class SemaphoreBoundedBuffer<E> {
+public class SemaphoreBoundedBuffer<E> implements BlockingBuffer<E> {
 
     /**
      * Semaphore ---- 计数信号量
@@ -37,10 +38,12 @@ public class SemaphoreBoundedBuffer<E> {
         items = (E[]) new Object[capacity];
     }
 
+    @Override
     public boolean isEmpty() {
         return availableItems.availablePermits() == 0;
     }
 
+    @Override
     public boolean isFull() {
         return availableSpaces.availablePermits() == 0;
     }
@@ -50,6 +53,7 @@ public class SemaphoreBoundedBuffer<E> {
      * 可用空间 - 1
      * 可用元素 + 1
      */
+    @Override
     public void put(E x) throws InterruptedException {
         availableSpaces.acquire();
         doInsert(x);
@@ -61,6 +65,7 @@ public class SemaphoreBoundedBuffer<E> {
      * 可用空间 + 1
      * 可用元素 - 1
      */
+    @Override
     public E take() throws InterruptedException {
         availableItems.acquire();
         E item = doExtract();
@@ -68,6 +73,64 @@ public class SemaphoreBoundedBuffer<E> {
         return item;
     }
 
+    /**
+     * 批量添加
+     * 先阻塞获取一个可用空间，再把其余可用空间（不超过剩余元素个数）一次性拿走，一次 synchronized 写入 k 个元素，
+     * 再释放 k 个可用元素，直到全部写入。
+     * 不用 acquire(k) 一次等齐 k 个空间：消费者一个一个地腾出空间时，单个元素的 put 总能抢先，批量的 putAll 会一直饿死
+     */
+    @Override
+    public void putAll(E[] xs) throws InterruptedException {
+        int offset = 0;
+        while (offset < xs.length) {
+            availableSpaces.acquire();
+            int k = 1;
+            int remaining = xs.length - offset;
+            if (remaining > 1) {
+                int extra = availableSpaces.drainPermits();
+                if (extra > remaining - 1) {
+                    // 多拿的许可还回去
+                    availableSpaces.release(extra - (remaining - 1));
+                    extra = remaining - 1;
+                }
+                k += extra;
+            }
+            doInsertAll(xs, offset, k);
+            availableItems.release(k);
+            offset += k;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void putAll(Collection<? extends E> xs) throws InterruptedException {
+        putAll((E[]) xs.toArray());
+    }
+
+    /**
+     * 批量拿取
+     * 先阻塞获取一个可用元素，再把其余可用元素（不超过 maxElements）一次性拿走
+     */
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) throws InterruptedException {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        availableItems.acquire();
+        int n = 1;
+        if (maxElements > 1) {
+            int extra = availableItems.drainPermits();
+            if (extra > maxElements - 1) {
+                // 多拿的许可还回去
+                availableItems.release(extra - (maxElements - 1));
+                extra = maxElements - 1;
+            }
+            n += extra;
+        }
+        doExtractAll(c, n);
+        availableSpaces.release(n);
+        return n;
+    }
+
     /**
      * 添加一个元素
      * @param x 元素
@@ -97,4 +160,27 @@ public class SemaphoreBoundedBuffer<E> {
         }
         return x;
     }
-}
\ No newline at end of file
+
+    private synchronized void doInsertAll(E[] xs, int offset, int n) {
+        int i = putPosition;
+        for (int j = 0; j < n; j++) {
+            items[i] = xs[offset + j];
+            if (++i == items.length) {
+                i = 0;
+            }
+        }
+        putPosition = i;
+    }
+
+    private synchronized void doExtractAll(Collection<? super E> c, int n) {
+        int i = takePosition;
+        for (int j = 0; j < n; j++) {
+            c.add(items[i]);
+            items[i] = null;
+            if (++i == items.length) {
+                i = 0;
+            }
+        }
+        takePosition = i;
+    }
+}
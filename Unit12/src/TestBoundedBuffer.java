@@ -1,6 +1,10 @@
 import junit.framework.TestCase;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Created by osys on 2022/08/28 21:48.
  */
@@ -26,6 +30,83 @@ public class TestBoundedBuffer extends TestCase {
         assertFalse(bb.isEmpty());
     }
 
+    @Test
+    public void testPutAllThenDrainTo() throws InterruptedException {
+        List<BlockingBuffer<Integer>> buffers = Arrays.<BlockingBuffer<Integer>>asList(
+                new SemaphoreBoundedBuffer<Integer>(10),
+                new BoundedBuffer<Integer>(10),
+                new LockFreeBoundedBuffer<Integer>(10));
+        for (BlockingBuffer<Integer> bb : buffers) {
+            bb.putAll(new Integer[]{0, 1, 2, 3, 4, 5, 6});
+            List<Integer> taken = new ArrayList<>();
+            assertEquals(4, bb.drainTo(taken, 4));
+            assertEquals(3, bb.drainTo(taken, 100));
+            assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6), taken);
+            assertTrue(bb.isEmpty());
+        }
+    }
+
+    @Test
+    public void testPutAllLargerThanCapacity() throws InterruptedException {
+        final SemaphoreBoundedBuffer<Integer> bb = new SemaphoreBoundedBuffer<Integer>(3);
+        final Integer[] xs = new Integer[10];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = i;
+        }
+        Thread putter = new Thread() {
+            public void run() {
+                try {
+                    bb.putAll(xs);
+                } catch (InterruptedException unexpected) {
+                    fail();
+                }
+            }
+        };
+        putter.start();
+        List<Integer> taken = new ArrayList<>();
+        while (taken.size() < xs.length) {
+            bb.drainTo(taken, xs.length - taken.size());
+        }
+        putter.join(LOCKUP_DETECT_TIMEOUT);
+        assertFalse(putter.isAlive());
+        assertEquals(Arrays.asList(xs), taken);
+    }
+
+    /**
+     * 只腾出一个空间时，putAll 也要先写入一个元素，而不是等齐整批的空间：
+     * 否则消费者一个一个地腾出空间、其它线程 put 单个元素抢先时，putAll 会一直饿死
+     */
+    @Test
+    public void testPutAllUsesPartialSpace() throws InterruptedException {
+        final SemaphoreBoundedBuffer<Integer> bb = new SemaphoreBoundedBuffer<Integer>(4);
+        for (int i = 0; i < 4; i++) {
+            bb.put(-1);
+        }
+        Thread putter = new Thread() {
+            public void run() {
+                try {
+                    bb.putAll(new Integer[]{0, 1, 2, 3});
+                } catch (InterruptedException unexpected) {
+                    fail();
+                }
+            }
+        };
+        putter.start();
+        assertEquals(Integer.valueOf(-1), bb.take());
+        long deadline = System.currentTimeMillis() + LOCKUP_DETECT_TIMEOUT;
+        while (!bb.isFull() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(bb.isFull());
+        List<Integer> taken = new ArrayList<>();
+        while (taken.size() < 7) {
+            bb.drainTo(taken, 7 - taken.size());
+        }
+        putter.join(LOCKUP_DETECT_TIMEOUT);
+        assertFalse(putter.isAlive());
+        assertEquals(Arrays.asList(-1, -1, -1, 0, 1, 2, 3), taken);
+    }
+
     @Test
     public void testTakeBlocksWhenEmpty() {
         final SemaphoreBoundedBuffer<Integer> bb = new SemaphoreBoundedBuffer<Integer>(10);
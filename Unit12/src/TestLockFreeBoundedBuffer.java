@@ -0,0 +1,138 @@
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class TestLockFreeBoundedBuffer extends TestCase {
+    private static final long LOCKUP_DETECT_TIMEOUT = 1000;
+
+    @Test
+    public void testIsEmptyWhenConstructed() {
+        LockFreeBoundedBuffer<Integer> bb = new LockFreeBoundedBuffer<Integer>(10);
+        assertTrue(bb.isEmpty());
+        assertFalse(bb.isFull());
+    }
+
+    @Test
+    public void testIsFullAfterPuts() throws InterruptedException {
+        LockFreeBoundedBuffer<Integer> bb = new LockFreeBoundedBuffer<Integer>(10);
+        for (int i = 0; i < 10; i++) {
+            bb.put(i);
+        }
+        assertTrue(bb.isFull());
+        assertFalse(bb.isEmpty());
+        assertFalse(bb.offer(10));
+    }
+
+    @Test
+    public void testFifoOrder() throws InterruptedException {
+        LockFreeBoundedBuffer<Integer> bb = new LockFreeBoundedBuffer<Integer>(3);
+        // 多绕几圈，检查槽位序号的回绕
+        for (int i = 0; i < 10; i++) {
+            bb.put(i);
+            bb.put(i + 100);
+            assertEquals(Integer.valueOf(i), bb.take());
+            assertEquals(Integer.valueOf(i + 100), bb.take());
+        }
+        assertTrue(bb.isEmpty());
+        assertNull(bb.poll());
+    }
+
+    @Test
+    public void testTakeBlocksWhenEmpty() {
+        final LockFreeBoundedBuffer<Integer> bb = new LockFreeBoundedBuffer<Integer>(10);
+        Thread taker = new Thread() {
+            public void run() {
+                try {
+                    int unused = bb.take();
+                    fail(); // 如果运行到这里，说明有错误
+                } catch (InterruptedException success) { }
+            }
+        };
+        try {
+            taker.start();
+            Thread.sleep(LOCKUP_DETECT_TIMEOUT);
+            taker.interrupt();
+            taker.join(LOCKUP_DETECT_TIMEOUT);
+            assertFalse(taker.isAlive());
+        } catch (Exception unexpected) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testPutUnblocksAfterTake() throws InterruptedException {
+        final LockFreeBoundedBuffer<Integer> bb = new LockFreeBoundedBuffer<Integer>(1);
+        bb.put(1);
+        Thread putter = new Thread() {
+            public void run() {
+                try {
+                    bb.put(2);
+                } catch (InterruptedException unexpected) {
+                    fail();
+                }
+            }
+        };
+        putter.start();
+        Thread.sleep(LOCKUP_DETECT_TIMEOUT / 10);
+        assertTrue(putter.isAlive());
+        assertEquals(Integer.valueOf(1), bb.take());
+        putter.join(LOCKUP_DETECT_TIMEOUT);
+        assertFalse(putter.isAlive());
+        assertEquals(Integer.valueOf(2), bb.take());
+    }
+
+    /** 被唤醒的生产者同时被中断、抛出 InterruptedException 时，唤醒要传给下一个等待的生产者 */
+    @Test
+    public void testWakeupNotLostWhenWokenPutterInterrupted() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            final LockFreeBoundedBuffer<Integer> bb = new LockFreeBoundedBuffer<Integer>(1);
+            bb.put(0);
+            Thread interrupted = new Thread() {
+                public void run() {
+                    try {
+                        bb.put(1);
+                    } catch (InterruptedException expected) {
+                    }
+                }
+            };
+            Thread waiting = new Thread() {
+                public void run() {
+                    try {
+                        bb.put(2);
+                    } catch (InterruptedException unexpected) {
+                        fail();
+                    }
+                }
+            };
+            interrupted.start();
+            awaitParked(interrupted);
+            waiting.start();
+            awaitParked(waiting);
+            // take 唤醒排在前面的 interrupted，它在检查中断时退出
+            assertEquals(Integer.valueOf(0), bb.take());
+            interrupted.interrupt();
+            interrupted.join(LOCKUP_DETECT_TIMEOUT);
+            waiting.join(LOCKUP_DETECT_TIMEOUT);
+            if (waiting.isAlive()) {
+                // interrupted 在中断之前就放入了 1，waiting 等待的是下一个空位
+                assertEquals(Integer.valueOf(1), bb.poll());
+                waiting.join(LOCKUP_DETECT_TIMEOUT);
+            }
+            assertFalse(waiting.isAlive());
+            assertEquals(Integer.valueOf(2), bb.poll());
+        }
+    }
+
+    private static void awaitParked(Thread t) throws InterruptedException {
+        while (t.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testPutTake() {
+        new PutTakeTest(new LockFreeBoundedBuffer<Integer>(10), 10, 100000).test();
+    }
+}
@@ -0,0 +1,62 @@
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class TestPrimitiveBoundedBuffer extends TestCase {
+    private static final long LOCKUP_DETECT_TIMEOUT = 1000;
+
+    @Test
+    public void testIsFullAfterPuts() throws InterruptedException {
+        IntBoundedBuffer bb = new IntBoundedBuffer(10);
+        assertTrue(bb.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            bb.put(i);
+        }
+        assertTrue(bb.isFull());
+        assertFalse(bb.offer(10));
+    }
+
+    @Test
+    public void testFifoOrder() throws InterruptedException {
+        LongBoundedBuffer bb = new LongBoundedBuffer(3);
+        // 多绕几圈，检查槽位序号的回绕
+        for (long i = 0; i < 10; i++) {
+            bb.put(Long.MAX_VALUE - i);
+            bb.put(i);
+            assertEquals(Long.MAX_VALUE - i, bb.take());
+            assertEquals(i, bb.take());
+        }
+        assertTrue(bb.isEmpty());
+        assertEquals(-1L, bb.poll(-1L));
+    }
+
+    @Test
+    public void testTakeBlocksWhenEmpty() {
+        final IntBoundedBuffer bb = new IntBoundedBuffer(10);
+        Thread taker = new Thread() {
+            public void run() {
+                try {
+                    int unused = bb.take();
+                    fail(); // 如果运行到这里，说明有错误
+                } catch (InterruptedException success) { }
+            }
+        };
+        try {
+            taker.start();
+            Thread.sleep(LOCKUP_DETECT_TIMEOUT);
+            taker.interrupt();
+            taker.join(LOCKUP_DETECT_TIMEOUT);
+            assertFalse(taker.isAlive());
+        } catch (Exception unexpected) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testPutTake() {
+        new PrimitivePutTakeTest(new IntBoundedBuffer(10), 10, 100000).test();
+        new PrimitivePutTakeTest(new LongBoundedBuffer(1), 10, 100000).test();
+    }
+}
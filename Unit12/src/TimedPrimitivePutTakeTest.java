@@ -0,0 +1,72 @@
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * TimedPutTakeTest 的 int/long 版本
+ *
+ * main 在相同的容量、线程数下依次测试 LockFreeBoundedBuffer<Integer>（装箱）、IntBoundedBuffer、LongBoundedBuffer，
+ * 三者使用同一套环形队列，吞吐量的差别就是装箱、分配和 GC 的开销。
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class TimedPrimitivePutTakeTest extends PrimitivePutTakeTest {
+    private BarrierTimer timer = new BarrierTimer();
+
+    public TimedPrimitivePutTakeTest(IntBoundedBuffer bb, int pairs, int trials) {
+        super(bb, pairs, trials);
+        barrier = new CyclicBarrier(nPairs * 2 + 1, timer);
+    }
+
+    public TimedPrimitivePutTakeTest(LongBoundedBuffer bb, int pairs, int trials) {
+        super(bb, pairs, trials);
+        barrier = new CyclicBarrier(nPairs * 2 + 1, timer);
+    }
+
+    public void test() {
+        try {
+            timer.clear();
+            for (int i = 0; i < nPairs; i++) {
+                pool.execute(new PrimitivePutTakeTest.Producer());
+                pool.execute(new PrimitivePutTakeTest.Consumer());
+            }
+            barrier.await();
+            barrier.await();
+            long nsPerItem = timer.getTime() / (nPairs * (long) nTrials);
+            System.out.print("Throughput: " + nsPerItem + " ns/item");
+            assertEquals(putSum.get(), takeSum.get());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tpt = 100000; // 每个线程尝试的次数
+        for (int cap = 1; cap <= 1000; cap *= 10) {
+            System.out.println("Capacity: " + cap);
+            for (int pairs = 1; pairs <= 128; pairs *= 2) {
+                System.out.print("Pairs: " + pairs + "\t");
+                System.out.print("LockFreeBoundedBuffer<Integer> ");
+                TimedPutTakeTest boxed = new TimedPutTakeTest(new LockFreeBoundedBuffer<Integer>(cap), pairs, tpt);
+                boxed.test();
+                System.out.print("\t");
+                Thread.sleep(1000);
+                boxed.test();
+                System.out.print("\tIntBoundedBuffer ");
+                testTwice(new TimedPrimitivePutTakeTest(new IntBoundedBuffer(cap), pairs, tpt));
+                System.out.print("LongBoundedBuffer ");
+                testTwice(new TimedPrimitivePutTakeTest(new LongBoundedBuffer(cap), pairs, tpt));
+                System.out.println();
+            }
+        }
+        PutTakeTest.pool.shutdown();
+        PrimitivePutTakeTest.pool.shutdown();
+    }
+
+    /** 同一个测试运行两次，第二次的结果不受 JIT 编译的影响 */
+    private static void testTwice(TimedPrimitivePutTakeTest t) throws InterruptedException {
+        t.test();
+        System.out.print("\t");
+        Thread.sleep(1000);
+        t.test();
+        System.out.print("\t");
+        Thread.sleep(1000);
+    }
+}
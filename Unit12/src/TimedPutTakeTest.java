@@ -1,3 +1,5 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CyclicBarrier;
 
 /**
@@ -5,9 +7,22 @@ import java.util.concurrent.CyclicBarrier;
  */
 public class TimedPutTakeTest extends PutTakeTest {
     private BarrierTimer timer = new BarrierTimer();
+    /** 每次 putAll/drainTo 的元素个数，0 表示逐个 put/take */
+    private final int batchSize;
 
     public TimedPutTakeTest(int cap, int pairs, int trials) {
-        super(cap, pairs, trials);
+        this(new SemaphoreBoundedBuffer<Integer>(cap), pairs, trials);
+    }
+
+    /** 测试指定的缓存实现 */
+    public TimedPutTakeTest(BlockingBuffer<Integer> bb, int pairs, int trials) {
+        this(bb, pairs, trials, 0);
+    }
+
+    /** 测试指定的缓存实现，生产者/消费者每次批量存取 batchSize 个元素 */
+    public TimedPutTakeTest(BlockingBuffer<Integer> bb, int pairs, int trials, int batchSize) {
+        super(bb, pairs, trials);
+        this.batchSize = batchSize;
         barrier = new CyclicBarrier(nPairs * 2 + 1, timer);
     }
 
@@ -15,8 +30,13 @@ public class TimedPutTakeTest extends PutTakeTest {
         try {
             timer.clear();
             for (int i = 0; i < nPairs; i++) {
-                pool.execute(new PutTakeTest.Producer());
-                pool.execute(new PutTakeTest.Consumer());
+                if (batchSize > 0) {
+                    pool.execute(new BatchProducer());
+                    pool.execute(new BatchConsumer());
+                } else {
+                    pool.execute(new PutTakeTest.Producer());
+                    pool.execute(new PutTakeTest.Consumer());
+                }
             }
             barrier.await();
             barrier.await();
@@ -28,21 +48,103 @@ public class TimedPutTakeTest extends PutTakeTest {
         }
     }
 
+    /**
+     * 运行：java TimedPutTakeTest [batch]
+     * 带 batch 参数时，比较不同批量大小下 putAll/drainTo 的吞吐量
+     */
     public static void main(String[] args) throws Exception {
         int tpt = 100000; // 每个线程尝试的次数
+        if (args.length > 0 && args[0].equals("batch")) {
+            batchMain(tpt);
+            return;
+        }
         for (int cap = 1; cap <= 1000; cap *= 10) {
             System.out.println("Capacity: " + cap);
             for (int pairs = 1; pairs <= 128; pairs *= 2) {
-                TimedPutTakeTest t = new TimedPutTakeTest(cap, pairs, tpt);
                 System.out.print("Pairs: " + pairs + "\t");
-                t.test();
-                System.out.print("\t");
-                Thread.sleep(1000);
-                t.test();
+                System.out.print("SemaphoreBoundedBuffer ");
+                testTwice(new TimedPutTakeTest(cap, pairs, tpt));
+                System.out.print("LockFreeBoundedBuffer ");
+                testTwice(new TimedPutTakeTest(new LockFreeBoundedBuffer<Integer>(cap), pairs, tpt));
                 System.out.println();
-                Thread.sleep(1000);
             }
         }
         PutTakeTest.pool.shutdown();
     }
+
+    private static void batchMain(int tpt) throws Exception {
+        int cap = 1024;
+        int pairs = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        System.out.println("Capacity: " + cap + "\tPairs: " + pairs);
+        for (int batch = 1; batch <= 1024; batch *= 2) {
+            System.out.print("Batch: " + batch + "\t");
+            System.out.print("SemaphoreBoundedBuffer ");
+            testTwice(new TimedPutTakeTest(new SemaphoreBoundedBuffer<Integer>(cap), pairs, tpt, batch));
+            System.out.print("BoundedBuffer ");
+            testTwice(new TimedPutTakeTest(new BoundedBuffer<Integer>(cap), pairs, tpt, batch));
+            System.out.print("LockFreeBoundedBuffer ");
+            testTwice(new TimedPutTakeTest(new LockFreeBoundedBuffer<Integer>(cap), pairs, tpt, batch));
+            System.out.println();
+        }
+        PutTakeTest.pool.shutdown();
+    }
+
+    /** 批量生产者：每次 putAll 一批元素 */
+    class BatchProducer implements Runnable {
+        public void run() {
+            try {
+                int seed = (this.hashCode() ^ (int) System.nanoTime());
+                int sum = 0;
+                Integer[] batch = new Integer[batchSize];
+                barrier.await();
+                for (int i = nTrials; i > 0; ) {
+                    int n = Math.min(i, batchSize);
+                    Integer[] xs = n == batchSize ? batch : new Integer[n];
+                    for (int j = 0; j < n; j++) {
+                        xs[j] = seed;
+                        sum += seed;
+                        seed = xorShift(seed);
+                    }
+                    bb.putAll(xs);
+                    i -= n;
+                }
+                putSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** 批量消费者：每次 drainTo 最多一批元素 */
+    class BatchConsumer implements Runnable {
+        public void run() {
+            try {
+                List<Integer> batch = new ArrayList<>(batchSize);
+                barrier.await();
+                int sum = 0;
+                for (int i = nTrials; i > 0; ) {
+                    batch.clear();
+                    i -= bb.drainTo(batch, Math.min(i, batchSize));
+                    for (Integer x : batch) {
+                        sum += x;
+                    }
+                }
+                takeSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /** 同一个测试运行两次，第二次的结果不受 JIT 编译的影响 */
+    private static void testTwice(TimedPutTakeTest t) throws InterruptedException {
+        t.test();
+        System.out.print("\t");
+        Thread.sleep(1000);
+        t.test();
+        System.out.print("\t");
+        Thread.sleep(1000);
+    }
 }
@@ -1,6 +1,8 @@
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
+import java.util.Collection;
+
 /**
  * Created by osys on 2022/08/28 21:48.
  */
@@ -41,6 +43,39 @@ public abstract class BaseBoundedBuffer<V> {
         return v;
     }
 
+    /**
+     * 批量添加，最多添加到缓存满为止
+     * @return 实际添加的元素个数
+     */
+    protected synchronized final int doPutAll(V[] items, int offset, int length) {
+        int n = Math.min(length, buf.length - count);
+        for (int i = 0; i < n; i++) {
+            buf[tail] = items[offset + i];
+            if (++tail == buf.length) {
+                tail = 0;
+            }
+        }
+        count += n;
+        return n;
+    }
+
+    /**
+     * 批量拿取，最多拿 maxElements 个
+     * @return 实际拿取的元素个数
+     */
+    protected synchronized final int doDrainTo(Collection<? super V> c, int maxElements) {
+        int n = Math.min(maxElements, count);
+        for (int i = 0; i < n; i++) {
+            c.add(buf[head]);
+            buf[head] = null;
+            if (++head == buf.length) {
+                head = 0;
+            }
+        }
+        count -= n;
+        return n;
+    }
+
     public synchronized final boolean isFull() {
         return count == buf.length;
     }
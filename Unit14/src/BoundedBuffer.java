@@ -1,5 +1,7 @@
 import net.jcip.annotations.ThreadSafe;
 
+import java.util.Collection;
+
 /**
  * Created by osys on 2022/08/28 21:48.
  */
@@ -40,4 +42,42 @@ public class BoundedBuffer<V> extends BaseBoundedBuffer<V> {
             notifyAll();
         }
     }
+
+    /**
+     * 批量添加，缓存满时阻塞，直到所有元素都添加完
+     * 每次获得锁后尽可能多地添加，只唤醒一次等待线程
+     */
+    public synchronized void putAll(V[] items) throws InterruptedException {
+        int offset = 0;
+        while (offset < items.length) {
+            while (isFull()) {
+                wait();
+            }
+            offset += doPutAll(items, offset, items.length - offset);
+            notifyAll();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void putAll(Collection<? extends V> items) throws InterruptedException {
+        putAll((V[]) items.toArray());
+    }
+
+    /**
+     * 批量拿取，缓存为空时阻塞，直到至少有一个元素
+     * @param c 拿出的元素添加到 c 中
+     * @param maxElements 最多拿取的元素个数
+     * @return 实际拿取的元素个数
+     */
+    public synchronized int drainTo(Collection<? super V> c, int maxElements) throws InterruptedException {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        while (isEmpty()) {
+            wait();
+        }
+        int n = doDrainTo(c, maxElements);
+        notifyAll();
+        return n;
+    }
 }
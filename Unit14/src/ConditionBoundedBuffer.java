@@ -1,6 +1,7 @@
 import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 
+import java.util.Collection;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -19,10 +20,18 @@ public class ConditionBoundedBuffer <T> {
 
     private static final int BUFFER_SIZE = 100;
     @GuardedBy("lock")
-    private final T[] items = (T[]) new Object[BUFFER_SIZE];
+    private final T[] items;
     @GuardedBy("lock")
     private int tail, head, count;
 
+    public ConditionBoundedBuffer() {
+        this(BUFFER_SIZE);
+    }
+
+    public ConditionBoundedBuffer(int capacity) {
+        items = (T[]) new Object[capacity];
+    }
+
     // 阻塞，直到: notFull
     public void put(T x) throws InterruptedException {
         lock.lock();
@@ -60,4 +69,76 @@ public class ConditionBoundedBuffer <T> {
             lock.unlock();
         }
     }
+
+    /**
+     * 批量添加，阻塞直到所有元素都添加完
+     * 每次获得锁后尽可能多地添加，只发出一次信号
+     */
+    public void putAll(T[] xs) throws InterruptedException {
+        lock.lock();
+        try {
+            int offset = 0;
+            while (offset < xs.length) {
+                while (count == items.length) {
+                    notFull.await();
+                }
+                int n = Math.min(xs.length - offset, items.length - count);
+                for (int i = 0; i < n; i++) {
+                    items[tail] = xs[offset++];
+                    if (++tail == items.length) {
+                        tail = 0;
+                    }
+                }
+                count += n;
+                signal(notEmpty, n);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void putAll(Collection<? extends T> xs) throws InterruptedException {
+        putAll((T[]) xs.toArray());
+    }
+
+    /**
+     * 批量拿取，阻塞直到: notEmpty
+     * @param c 拿出的元素添加到 c 中
+     * @param maxElements 最多拿取的元素个数
+     * @return 实际拿取的元素个数
+     */
+    public int drainTo(Collection<? super T> c, int maxElements) throws InterruptedException {
+        if (maxElements <= 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            int n = Math.min(maxElements, count);
+            for (int i = 0; i < n; i++) {
+                c.add(items[head]);
+                items[head] = null;
+                if (++head == items.length) {
+                    head = 0;
+                }
+            }
+            count -= n;
+            signal(notFull, n);
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 状态变化了 n 个位置，可能有 n 个线程可以继续执行 */
+    private static void signal(Condition condition, int n) {
+        if (n == 1) {
+            condition.signal();
+        } else {
+            condition.signalAll();
+        }
+    }
 }
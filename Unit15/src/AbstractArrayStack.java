@@ -0,0 +1,103 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于数组的无锁栈的节点管理，不包含存放元素的数组
+ *
+ * ConcurrentStack 每次 push 都要分配一个 Node。这里预先分配 capacity 个节点，用数组下标代替引用：
+ * 1. next[i] 是节点 i 的下一个节点（下标 + 1，0 表示没有）
+ * 2. 栈 top 和空闲节点链表 free 都是 Treiber 栈，push 从 free 中取出一个节点，pop 后把节点还给 free
+ * 3. 节点会被重复使用，只比较下标会有 ABA 问题：线程 A 读到 top = i、next = j 后被挂起，
+ *    其它线程弹出 i、j，再压入 i，A 的 CAS 仍然成功，但 top 被错误地设为已经不在栈中的 j。
+ *    所以 top、free 是一个 long：高 32 位是版本号，每次修改加 1；低 32 位是下标 + 1。
+ *    版本号回绕一圈（2^32 次修改）之前 A 一直没有被调度，ABA 才可能再次发生
+ *
+ * 子类用自己的数组（int[]、long[]）存放元素，元素在 pushNode 之前写入，在 popNode 返回之后读出。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+abstract class AbstractArrayStack {
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+    private final int capacity;
+    /** next[i]：节点 i 的下一个节点的下标 + 1，可见性由 top/free 的 CAS 保证 */
+    private final int[] next;
+    /** 栈顶，(版本号 << 32) | (下标 + 1) */
+    private final AtomicLong top = new AtomicLong();
+    /** 空闲节点链表 */
+    private final AtomicLong free = new AtomicLong();
+
+    AbstractArrayStack(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+        this.next = new int[capacity];
+        // 所有节点都在空闲链表中：0 -> 1 -> ... -> capacity - 1
+        for (int i = 0; i < capacity - 1; i++) {
+            next[i] = i + 2;
+        }
+        free.set(1);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return (int) top.get() == 0;
+    }
+
+    /**
+     * 取出一个空闲节点
+     * @return 节点下标，栈已满时返回 -1
+     */
+    final int allocate() {
+        return popIndex(free);
+    }
+
+    /** 把节点还给空闲链表 */
+    final void release(int node) {
+        pushIndex(free, node);
+    }
+
+    /** 把写好元素的节点压入栈顶 */
+    final void pushNode(int node) {
+        pushIndex(top, node);
+    }
+
+    /**
+     * 弹出栈顶节点
+     * @return 节点下标，栈为空时返回 -1
+     */
+    final int popNode() {
+        return popIndex(top);
+    }
+
+    private int popIndex(AtomicLong head) {
+        while (true) {
+            long h = head.get();
+            int node = (int) h;
+            if (node == 0) {
+                return -1;
+            }
+            // node 可能已经被其它线程弹出并重新使用，next 读到的是旧值也没关系：版本号变了，CAS 会失败
+            long update = (((h >>> 32) + 1) << 32) | (next[node - 1] & INDEX_MASK);
+            if (head.compareAndSet(h, update)) {
+                return node - 1;
+            }
+        }
+    }
+
+    private void pushIndex(AtomicLong head, int node) {
+        while (true) {
+            long h = head.get();
+            next[node] = (int) h;
+            long update = (((h >>> 32) + 1) << 32) | (node + 1);
+            if (head.compareAndSet(h, update)) {
+                return;
+            }
+        }
+    }
+}
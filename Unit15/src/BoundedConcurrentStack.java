@@ -0,0 +1,76 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 有容量上限的消除回退栈
+ *
+ * 用一个计数器预留容量：offer 先把 count 加 1（不超过 capacity），再压栈；pop 拿到元素后把 count 减 1。
+ * 通过消除完成的 push/pop 对也是先预留、后释放，所以计数始终不小于栈中实际的元素个数，栈不会超出容量。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class BoundedConcurrentStack<E> extends EliminationBackoffStack<E> {
+    private final int capacity;
+    /** 已预留的容量 */
+    private final AtomicInteger count = new AtomicInteger();
+
+    public BoundedConcurrentStack(int capacity) {
+        this(capacity, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BoundedConcurrentStack(int capacity, int eliminationWidth) {
+        super(eliminationWidth);
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * 压栈
+     * @return 栈已满时返回 false
+     */
+    public boolean offer(E item) {
+        while (true) {
+            int c = count.get();
+            if (c >= capacity) {
+                return false;
+            }
+            if (count.compareAndSet(c, c + 1)) {
+                break;
+            }
+        }
+        super.push(item);
+        return true;
+    }
+
+    /**
+     * 压栈
+     * @throws IllegalStateException 栈已满
+     */
+    @Override
+    public void push(E item) {
+        if (!offer(item)) {
+            throw new IllegalStateException("Stack full");
+        }
+    }
+
+    @Override
+    public E pop() {
+        E item = super.pop();
+        if (item != null) {
+            count.decrementAndGet();
+        }
+        return item;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** 元素个数，并发修改时可能略大于实际值 */
+    public int size() {
+        return count.get();
+    }
+}
@@ -3,8 +3,9 @@ import net.jcip.annotations.ThreadSafe;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * 使用链表实现栈
+ * 使用链表实现栈（Treiber 栈）
  *
+ * tryPush、tryPop 只尝试一次 CAS，子类 EliminationBackoffStack 在 CAS 失败后改用消除数组，而不是立即重试。
  * Created by osys on 2022/08/28 21:48.
  */
 @ThreadSafe
@@ -13,38 +14,52 @@ public class ConcurrentStack<E> {
 
     public void push(E item) {
         Node<E> newHead = new Node<E>(item);
-        Node<E> oldHead;
         boolean cas = false;
         do {
-            // 当前栈顶
-            oldHead = top.get();
-            // 新栈顶
-            newHead.next = oldHead;
-            // 比较并交换
-            // 如果当前值(top.get()) == 期望值(oldHead)，则自动将值设置为给定的更新值(newHead)。
-            cas = top.compareAndSet(oldHead, newHead);
+            cas = tryPush(newHead);
         } while (!cas);
     }
 
     public E pop() {
         Node<E> oldHead;
-        Node<E> newHead;
         boolean cas = false;
         do {
             oldHead = top.get();
             if (oldHead == null) {
                 return null;
             }
-            newHead = oldHead.next;
-            // 比较并交换
-            // 如果当前值(top.get()) == 期望值(oldHead)，则自动将值设置为给定的更新值(newHead)。
-            cas = top.compareAndSet(oldHead, newHead);
+            cas = tryPop(oldHead);
         } while (!cas);
         return oldHead.item;
     }
 
+    /**
+     * 尝试一次把 newHead 压入栈顶
+     * @return CAS 失败（其它线程修改了栈顶）时返回 false
+     */
+    protected boolean tryPush(Node<E> newHead) {
+        // 当前栈顶
+        Node<E> oldHead = top.get();
+        // 新栈顶
+        newHead.next = oldHead;
+        // 比较并交换
+        // 如果当前值(top.get()) == 期望值(oldHead)，则自动将值设置为给定的更新值(newHead)。
+        return top.compareAndSet(oldHead, newHead);
+    }
+
+    /**
+     * 尝试一次弹出栈顶 oldHead
+     * @return CAS 失败（其它线程修改了栈顶）时返回 false
+     */
+    protected boolean tryPop(Node<E> oldHead) {
+        Node<E> newHead = oldHead.next;
+        // 比较并交换
+        // 如果当前值(top.get()) == 期望值(oldHead)，则自动将值设置为给定的更新值(newHead)。
+        return top.compareAndSet(oldHead, newHead);
+    }
+
     /** 链表 */
-    private static class Node<E> {
+    static class Node<E> {
         public final E item;
         public Node<E> next;
 
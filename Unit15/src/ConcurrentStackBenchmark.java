@@ -0,0 +1,109 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 比较 Treiber 栈（ConcurrentStack）、消除回退栈（EliminationBackoffStack）、有界消除回退栈的 push/pop 吞吐量
+ *
+ * 每个线程随机地 push 或 pop（各占一半），线程数从 1 增加到 64。
+ * 每个测试先运行一次预热，再运行一次测量；测量结束后检查 push 的元素个数 == pop 的元素个数 + 栈中剩余的元素个数。
+ * 运行：java ConcurrentStackBenchmark [每个线程的操作次数] [最大线程数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class ConcurrentStackBenchmark {
+    private static final Integer ITEM = 1;
+    /** 预先放入的元素个数，避免 pop 经常遇到空栈 */
+    private static final int PREFILL = 1000;
+    private static final int BOUNDED_CAPACITY = 4096;
+
+    public static void main(String[] args) throws InterruptedException {
+        int opsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.println("Threads: " + threads);
+            for (int kind = 0; kind < 3; kind++) {
+                run(newStack(kind), threads, opsPerThread);
+                ConcurrentStack<Integer> stack = newStack(kind);
+                long nanos = run(stack, threads, opsPerThread);
+                long totalOps = (long) threads * opsPerThread;
+                System.out.printf("  %-24s %8.2f Mops/s", stack.getClass().getSimpleName(), totalOps * 1e3 / nanos);
+                if (stack instanceof EliminationBackoffStack) {
+                    long eliminated = ((EliminationBackoffStack<Integer>) stack).eliminationCount();
+                    System.out.printf("  eliminated %5.1f%%", eliminated * 2 * 100.0 / totalOps);
+                }
+                System.out.println();
+            }
+        }
+    }
+
+    private static ConcurrentStack<Integer> newStack(int kind) {
+        switch (kind) {
+            case 0:
+                return new ConcurrentStack<>();
+            case 1:
+                return new EliminationBackoffStack<>();
+            default:
+                return new BoundedConcurrentStack<>(BOUNDED_CAPACITY);
+        }
+    }
+
+    /**
+     * @return 运行时间 ns
+     */
+    private static long run(final ConcurrentStack<Integer> stack, int nThreads, final int opsPerThread)
+            throws InterruptedException {
+        for (int i = 0; i < PREFILL; i++) {
+            stack.push(ITEM);
+        }
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(nThreads);
+        final AtomicLong pushed = new AtomicLong(PREFILL);
+        final AtomicLong popped = new AtomicLong();
+        for (int t = 0; t < nThreads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startGate.await();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        long pushes = 0;
+                        long pops = 0;
+                        for (int i = 0; i < opsPerThread; i++) {
+                            if (random.nextBoolean()) {
+                                if (stack instanceof BoundedConcurrentStack) {
+                                    if (((BoundedConcurrentStack<Integer>) stack).offer(ITEM)) {
+                                        pushes++;
+                                    }
+                                } else {
+                                    stack.push(ITEM);
+                                    pushes++;
+                                }
+                            } else if (stack.pop() != null) {
+                                pops++;
+                            }
+                        }
+                        pushed.addAndGet(pushes);
+                        popped.addAndGet(pops);
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            }.start();
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        long elapsed = System.nanoTime() - start;
+
+        long remaining = 0;
+        while (stack.pop() != null) {
+            remaining++;
+        }
+        if (pushed.get() != popped.get() + remaining) {
+            throw new AssertionError(stack.getClass().getSimpleName() + ": pushed " + pushed.get()
+                    + " != popped " + popped.get() + " + remaining " + remaining);
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,188 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 消除回退栈（elimination-backoff stack）
+ *
+ * ConcurrentStack 的所有线程都在同一个 top 上 CAS，线程越多，失败重试越多。
+ * 注意到一对同时发生的 push、pop 可以直接交换元素，效果等同于 push 后立即 pop，根本不需要修改 top：
+ * 1. 先尝试一次 CAS 修改 top，成功就返回
+ * 2. 失败后不立即重试，而是到消除数组中随机选择一个槽位，在那里等待（或找到）一个相反的操作
+ *    push 把元素交给 pop，双方都不再访问 top；等待超时就回到第 1 步
+ * 3. 自适应回退：每个线程记住自己使用的槽位范围和等待时间。消除成功说明竞争激烈，扩大范围、缩短等待；
+ *    超时说明竞争不激烈，缩小范围（更容易碰到对方）、延长等待
+ *
+ * 消除的 push/pop 对在它们交换元素的时刻线性化，所以栈的行为仍然是线性一致的。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class EliminationBackoffStack<E> extends ConcurrentStack<E> {
+    /** 等待时间（自旋次数）的上下限 */
+    private static final int MIN_SPINS = 1 << 4;
+    private static final int MAX_SPINS = 1 << 10;
+
+    /** pop 交给 push 的确认标记 */
+    private static final Object TAKEN = new Object();
+
+    /** 消除数组，槽位中是正在等待的 push/pop 请求 */
+    private final AtomicReferenceArray<Exchange<E>> eliminationArray;
+
+    /** 每个线程的槽位范围和等待时间 */
+    private final ThreadLocal<BackoffPolicy> policy = new ThreadLocal<BackoffPolicy>() {
+        @Override
+        protected BackoffPolicy initialValue() {
+            return new BackoffPolicy();
+        }
+    };
+
+    /** 通过消除完成的 push/pop 对数 */
+    private final LongAdder eliminated = new LongAdder();
+
+    public EliminationBackoffStack() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param eliminationWidth 消除数组的槽位数，通常取 CPU 核数左右
+     */
+    public EliminationBackoffStack(int eliminationWidth) {
+        if (eliminationWidth <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.eliminationArray = new AtomicReferenceArray<>(eliminationWidth);
+    }
+
+    /**
+     * @param item 不能为 null：pop 返回 null 表示栈为空
+     */
+    @Override
+    public void push(E item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        Node<E> newHead = new Node<E>(item);
+        BackoffPolicy backoff = null;
+        while (!tryPush(newHead)) {
+            if (backoff == null) {
+                backoff = policy.get();
+            }
+            // CAS 失败，到消除数组中等待一个 pop
+            if (exchange(new Exchange<E>(item, true), backoff) != null) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E pop() {
+        BackoffPolicy backoff = null;
+        while (true) {
+            Node<E> oldHead = top.get();
+            if (oldHead == null) {
+                return null;
+            }
+            if (tryPop(oldHead)) {
+                return oldHead.item;
+            }
+            if (backoff == null) {
+                backoff = policy.get();
+            }
+            // CAS 失败，到消除数组中等待一个 push
+            Object item = exchange(new Exchange<E>(null, false), backoff);
+            if (item != null) {
+                return (E) item;
+            }
+        }
+    }
+
+    /** 通过消除完成的 push/pop 对数 */
+    public long eliminationCount() {
+        return eliminated.sum();
+    }
+
+    /**
+     * 在消除数组的一个槽位上和相反的操作交换
+     * @param mine 本线程的请求
+     * @return 交换成功时：push 返回 TAKEN，pop 返回拿到的元素；失败（超时或碰到相同的操作）返回 null
+     */
+    private Object exchange(Exchange<E> mine, BackoffPolicy backoff) {
+        int index = ThreadLocalRandom.current().nextInt(backoff.range);
+        Exchange<E> other = eliminationArray.get(index);
+        if (other == null) {
+            // 槽位空闲：放入自己的请求，等待对方
+            if (!eliminationArray.compareAndSet(index, null, mine)) {
+                return null;
+            }
+            for (int i = 0; i < backoff.spins; i++) {
+                if (mine.result != null) {
+                    return matched(mine.result, backoff);
+                }
+            }
+            // 超时，撤回请求
+            if (eliminationArray.compareAndSet(index, mine, null)) {
+                backoff.onTimeout(eliminationArray.length());
+                return null;
+            }
+            // 撤回失败：对方已经取走了请求，正在写入结果
+            while (mine.result == null) {
+                Thread.yield();
+            }
+            return matched(mine.result, backoff);
+        }
+        if (other.push != mine.push && eliminationArray.compareAndSet(index, other, null)) {
+            // 槽位中是相反的操作：取走它的请求，和它交换
+            eliminated.increment();
+            if (mine.push) {
+                other.result = mine.item;
+                return matched(TAKEN, backoff);
+            }
+            other.result = TAKEN;
+            return matched(other.item, backoff);
+        }
+        // 槽位中是相同的操作，或者被其它线程抢先
+        return null;
+    }
+
+    private Object matched(Object result, BackoffPolicy backoff) {
+        backoff.onSuccess(eliminationArray.length());
+        return result;
+    }
+
+    /** 等待在消除数组中的 push 或 pop 请求 */
+    private static final class Exchange<E> {
+        /** push 的元素，pop 请求为 null */
+        final E item;
+        final boolean push;
+        /** 交换结果：push 请求被写入 TAKEN，pop 请求被写入元素 */
+        volatile Object result;
+
+        Exchange(E item, boolean push) {
+            this.item = item;
+            this.push = push;
+        }
+    }
+
+    /** 单个线程的自适应回退参数，只由所属线程访问 */
+    private static final class BackoffPolicy {
+        /** 使用消除数组的前 range 个槽位 */
+        int range = 1;
+        /** 在槽位上等待的自旋次数 */
+        int spins = MIN_SPINS;
+
+        /** 消除成功：竞争激烈，分散到更多的槽位，等待时间可以更短 */
+        void onSuccess(int width) {
+            range = Math.min(width, range + 1);
+            spins = Math.max(MIN_SPINS, spins >> 1);
+        }
+
+        /** 超时：竞争不激烈，集中到更少的槽位，等待更久 */
+        void onTimeout(int width) {
+            range = Math.max(1, Math.min(range, width) - 1);
+            spins = Math.min(MAX_SPINS, spins << 1);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * 存放 int 的有界无锁栈
+ *
+ * 元素存放在 int[] 中，节点预先分配（见 AbstractArrayStack），push/pop 不装箱、不分配任何对象。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class IntConcurrentStack extends AbstractArrayStack {
+    private final int[] items;
+
+    public IntConcurrentStack(int capacity) {
+        super(capacity);
+        this.items = new int[capacity];
+    }
+
+    /**
+     * 压栈
+     * @return 栈已满时返回 false
+     */
+    public boolean push(int item) {
+        int node = allocate();
+        if (node < 0) {
+            return false;
+        }
+        items[node] = item;
+        pushNode(node);
+        return true;
+    }
+
+    /**
+     * 出栈
+     * @param valueIfEmpty 栈为空时的返回值
+     */
+    public int pop(int valueIfEmpty) {
+        int node = popNode();
+        if (node < 0) {
+            return valueIfEmpty;
+        }
+        int item = items[node];
+        release(node);
+        return item;
+    }
+}
@@ -1,40 +1,66 @@
 import net.jcip.annotations.ThreadSafe;
 
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Michael-Scott 非阻塞链表队列
+ *
+ * 链表头部是一个哨兵节点（dummy），head 指向哨兵，哨兵的下一个节点才是队首元素：
+ * 1. offer：CAS 尾节点的 next 指针插入新节点，再 CAS tail 向后移动；tail 落后时，任何线程都可以帮忙把它推进
+ * 2. poll：CAS head 指向哨兵的下一个节点，这个节点成为新的哨兵，它原来保存的元素就是出队的元素
+ * 3. 出队的节点不会被修改 next 指针，迭代器从已出队的节点出发也能走到队尾，所以迭代器是弱一致的：
+ *    不会抛出 ConcurrentModificationException，可能反映、也可能不反映创建迭代器之后的修改
+ * 4. size() 不遍历链表，由入队、出队两个 LongAdder 计数相减得到，并发修改时是近似值
+ *
+ * 节点的 next 指针有两种实现：
+ * AtomicReference ---- 每个节点额外分配一个 AtomicReference 对象（书中的写法）
+ * AtomicReferenceFieldUpdater ---- next 是节点自己的 volatile 字段，通过静态的字段更新器做 CAS，每次入队只分配一个对象
  * Created by osys on 2022/08/28 21:48.
  */
 @ThreadSafe
-public class LinkedQueue <E> {
+public class LinkedQueue<E> extends AbstractQueue<E> {
 
-    private final Node<E> dummy = new Node<E>(null, null);
-    private final AtomicReference<Node<E>> head = new AtomicReference<Node<E>>(dummy);
-    private final AtomicReference<Node<E>> tail = new AtomicReference<Node<E>>(dummy);
+    private final boolean useFieldUpdater;
+    private final AtomicReference<Node<E>> head;
+    private final AtomicReference<Node<E>> tail;
 
-    public boolean putHead(E item) {
-        Node<E> newHead = new Node<E>(item, null);
-        while (true) {
-            // 链表头节点
-            Node<E> curHead = head.get();
-            // 保证 curHead 还是链表头节点
-            if (curHead == head.get()) {
-                // 向头部插入新节点
-                if (newHead.next.compareAndSet(null, curHead)) {
-                    // 头部节点向前移动一位
-                    return head.compareAndSet(curHead, newHead);
-                }
-            }
-        }
+    /** 入队、出队计数，用于估计 size() */
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+
+    public LinkedQueue() {
+        this(false);
+    }
+
+    /**
+     * @param useFieldUpdater true：节点的 next 指针用字段更新器实现，每次入队少分配一个 AtomicReference
+     */
+    public LinkedQueue(boolean useFieldUpdater) {
+        this.useFieldUpdater = useFieldUpdater;
+        Node<E> dummy = newNode(null);
+        this.head = new AtomicReference<Node<E>>(dummy);
+        this.tail = new AtomicReference<Node<E>>(dummy);
     }
 
-    public boolean putTail(E item) {
-        Node<E> newNode = new Node<E>(item, null);
+    /**
+     * 向队尾插入元素，队列无界，总是返回 true
+     */
+    @Override
+    public boolean offer(E item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        Node<E> newNode = newNode(item);
         while (true) {
             // 链表尾节点
             Node<E> curTail = tail.get();
             // 链表尾节点指向下一个节点的指针
-            Node<E> tailNext = curTail.next.get();
+            Node<E> tailNext = curTail.next();
             // 保证前面获取的尾巴后面没有插入新的节点
             if (curTail == tail.get()) {
                 // 前面获取的尾巴后面已经插入了新的节点
@@ -42,21 +68,195 @@ public class LinkedQueue <E> {
                     // 将尾巴向后移动一位
                     tail.compareAndSet(curTail, tailNext);
                 // 前面获取的尾巴后面还未插入了新的节点，向尾巴后面插入新节点
-                } else if (curTail.next.compareAndSet(null, newNode))  {
-                    // 插入成功，将尾巴向后移动一位
-                    return tail.compareAndSet(curTail, newNode);
+                } else if (curTail.casNext(null, newNode)) {
+                    // 插入成功，将尾巴向后移动一位。失败说明其它线程已经帮忙移动了，不需要重试
+                    tail.compareAndSet(curTail, newNode);
+                    enqueued.increment();
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * 移除并返回队首元素
+     * @return 队列为空时返回 null
+     */
+    @Override
+    public E poll() {
+        while (true) {
+            // 哨兵节点
+            Node<E> curHead = head.get();
+            Node<E> curTail = tail.get();
+            // 队首元素所在的节点
+            Node<E> first = curHead.next();
+            // 保证前面获取的 head、tail、first 是一致的
+            if (curHead == head.get()) {
+                if (curHead == curTail) {
+                    if (first == null) {
+                        // 队列为空
+                        return null;
+                    }
+                    // 尾巴落后了：有元素已经插入，但 tail 还没有移动，帮忙移动后重试
+                    tail.compareAndSet(curTail, first);
+                } else {
+                    // 必须在 CAS 之前读取元素：CAS 成功后 first 成为新的哨兵，其它线程出队时会清除它的元素
+                    E item = first.item;
+                    if (head.compareAndSet(curHead, first)) {
+                        // first 成为新的哨兵，不再持有元素的引用
+                        first.item = null;
+                        dequeued.increment();
+                        return item;
+                    }
                 }
             }
         }
     }
 
-    private static class Node <E> {
-        final E item;
-        final AtomicReference<Node<E>> next;
+    /**
+     * 返回但不移除队首元素
+     * @return 队列为空时返回 null
+     */
+    @Override
+    public E peek() {
+        while (true) {
+            Node<E> curHead = head.get();
+            Node<E> first = curHead.next();
+            if (first == null) {
+                return null;
+            }
+            E item = first.item;
+            // head 没有变化，说明读取 item 时 first 还没有出队
+            if (curHead == head.get()) {
+                return item;
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.get().next() == null;
+    }
+
+    /**
+     * 元素个数的估计值，不遍历链表
+     * 入队、出队计数各自累加，并发修改时两次读取之间可能有其它操作完成，结果只是近似值
+     */
+    @Override
+    public int size() {
+        // 先读出队计数，再读入队计数，尽量避免得到负数
+        long removed = dequeued.sum();
+        long size = enqueued.sum() - removed;
+        return (int) Math.max(0, Math.min(size, Integer.MAX_VALUE));
+    }
+
+    /**
+     * 弱一致的迭代器，不支持 remove
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Itr();
+    }
+
+    private Node<E> newNode(E item) {
+        return useFieldUpdater ? new UpdaterNode<E>(item) : new AtomicNode<E>(item);
+    }
 
-        public Node(E item, Node<E> next) {
+    private class Itr implements Iterator<E> {
+        /** 下一个要返回的元素所在的节点 */
+        private Node<E> nextNode;
+        /** 提前读出的元素：即使它随后出队，hasNext 返回 true 后 next 也一定有元素可以返回 */
+        private E nextItem;
+
+        Itr() {
+            advance(head.get());
+        }
+
+        /** 从 node 之后找到第一个还没有出队（元素不为 null）的节点 */
+        private void advance(Node<E> node) {
+            Node<E> p = node.next();
+            while (p != null) {
+                E item = p.item;
+                if (item != null) {
+                    nextNode = p;
+                    nextItem = item;
+                    return;
+                }
+                p = p.next();
+            }
+            nextNode = null;
+            nextItem = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextNode != null;
+        }
+
+        @Override
+        public E next() {
+            if (nextNode == null) {
+                throw new NoSuchElementException();
+            }
+            E item = nextItem;
+            advance(nextNode);
+            return item;
+        }
+    }
+
+    /** 链表节点 */
+    private abstract static class Node<E> {
+        /** 节点出队成为哨兵后置为 null；volatile 保证 peek、迭代器能看到 */
+        volatile E item;
+
+        Node(E item) {
             this.item = item;
-            this.next = new AtomicReference<Node<E>>(next);
+        }
+
+        abstract Node<E> next();
+
+        abstract boolean casNext(Node<E> expect, Node<E> update);
+    }
+
+    /** next 指针是一个 AtomicReference */
+    private static final class AtomicNode<E> extends Node<E> {
+        private final AtomicReference<Node<E>> next = new AtomicReference<Node<E>>();
+
+        AtomicNode(E item) {
+            super(item);
+        }
+
+        @Override
+        Node<E> next() {
+            return next.get();
+        }
+
+        @Override
+        boolean casNext(Node<E> expect, Node<E> update) {
+            return next.compareAndSet(expect, update);
+        }
+    }
+
+    /** next 指针是 volatile 字段，通过字段更新器 CAS */
+    private static final class UpdaterNode<E> extends Node<E> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<UpdaterNode, Node> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(UpdaterNode.class, Node.class, "next");
+
+        private volatile Node<E> next;
+
+        UpdaterNode(E item) {
+            super(item);
+        }
+
+        @Override
+        Node<E> next() {
+            return next;
+        }
+
+        @Override
+        boolean casNext(Node<E> expect, Node<E> update) {
+            return NEXT.compareAndSet(this, expect, update);
         }
     }
 }
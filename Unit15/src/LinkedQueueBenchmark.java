@@ -0,0 +1,110 @@
+import java.lang.management.ManagementFactory;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 比较 LinkedQueue（两种节点实现）和 ConcurrentLinkedQueue 的吞吐量、每次操作分配的内存
+ *
+ * 每个线程交替执行 offer、poll，线程数从 1 增加到 CPU 个数的 2 倍。
+ * 每种队列先运行一次预热，再运行一次测量。
+ * 运行：java LinkedQueueBenchmark [每个线程的 offer/poll 次数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class LinkedQueueBenchmark {
+    private static final Integer ITEM = 1;
+
+    /** 被测试的队列 */
+    interface QueueFactory {
+        String name();
+
+        Queue<Integer> create();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int opsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        QueueFactory[] factories = {
+                new QueueFactory() {
+                    public String name() {
+                        return "LinkedQueue(AtomicReference)";
+                    }
+
+                    public Queue<Integer> create() {
+                        return new LinkedQueue<>(false);
+                    }
+                },
+                new QueueFactory() {
+                    public String name() {
+                        return "LinkedQueue(FieldUpdater)";
+                    }
+
+                    public Queue<Integer> create() {
+                        return new LinkedQueue<>(true);
+                    }
+                },
+                new QueueFactory() {
+                    public String name() {
+                        return "ConcurrentLinkedQueue";
+                    }
+
+                    public Queue<Integer> create() {
+                        return new ConcurrentLinkedQueue<>();
+                    }
+                },
+        };
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.println("Threads: " + threads);
+            for (QueueFactory factory : factories) {
+                run(factory.create(), threads, opsPerThread);
+                long[] result = run(factory.create(), threads, opsPerThread);
+                System.out.printf("  %-30s %6d ns/op %6d bytes/op%n", factory.name(), result[0], result[1]);
+            }
+        }
+    }
+
+    /**
+     * @return {每次 offer + poll 的平均时间 ns，每次 offer + poll 平均分配的字节数}
+     */
+    private static long[] run(final Queue<Integer> queue, int nThreads, final int opsPerThread)
+            throws InterruptedException {
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(nThreads);
+        final AtomicLong allocated = new AtomicLong();
+        for (int t = 0; t < nThreads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startGate.await();
+                        long before = allocatedBytes();
+                        for (int i = 0; i < opsPerThread; i++) {
+                            queue.offer(ITEM);
+                            queue.poll();
+                        }
+                        allocated.addAndGet(allocatedBytes() - before);
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            }.start();
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        long elapsed = System.nanoTime() - start;
+        long totalOps = (long) nThreads * opsPerThread;
+        return new long[]{elapsed * nThreads / totalOps, allocated.get() / totalOps};
+    }
+
+    /** 当前线程累计分配的字节数，JVM 不支持时返回 0 */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,162 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LinkedQueue 的并发正确性压力测试
+ *
+ * 多个生产者各自按顺序放入 (生产者编号, 序号)，多个消费者同时 poll，另有一个线程不停地 peek、size、遍历迭代器。
+ * 检查 FIFO 队列线性一致性的必要条件：
+ * 1. 每个元素正好出队一次，不丢失、不重复
+ * 2. 同一个消费者看到的、来自同一个生产者的元素，序号严格递增（先入队的先出队）
+ * 3. 迭代器看到的、来自同一个生产者的元素，序号也严格递增
+ * 4. 全部出队后队列为空，size() == 0
+ *
+ * 运行：java LinkedQueueStressTest [生产者数] [消费者数] [每个生产者的元素个数] [轮数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class LinkedQueueStressTest {
+    private final LinkedQueue<Long> queue;
+    private final int nProducers;
+    private final int nConsumers;
+    private final int perProducer;
+    /** 每个元素的出队次数 */
+    private final AtomicIntegerArray dequeueCounts;
+    private final AtomicLong consumed = new AtomicLong();
+    private volatile Throwable failure;
+
+    LinkedQueueStressTest(boolean useFieldUpdater, int nProducers, int nConsumers, int perProducer) {
+        this.queue = new LinkedQueue<>(useFieldUpdater);
+        this.nProducers = nProducers;
+        this.nConsumers = nConsumers;
+        this.perProducer = perProducer;
+        this.dequeueCounts = new AtomicIntegerArray(nProducers * perProducer);
+    }
+
+    public static void main(String[] args) throws Throwable {
+        int nCpu = Runtime.getRuntime().availableProcessors();
+        int nProducers = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(2, nCpu / 2);
+        int nConsumers = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(2, nCpu / 2);
+        int perProducer = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        for (int round = 1; round <= rounds; round++) {
+            for (boolean useFieldUpdater : new boolean[]{false, true}) {
+                new LinkedQueueStressTest(useFieldUpdater, nProducers, nConsumers, perProducer).test();
+                System.out.println("Round " + round + (useFieldUpdater ? " field updater" : " AtomicReference")
+                        + ": OK");
+            }
+        }
+    }
+
+    private static long encode(int producer, int seq) {
+        return ((long) producer << 32) | seq;
+    }
+
+    void test() throws Throwable {
+        final CountDownLatch startGate = new CountDownLatch(1);
+        Thread[] threads = new Thread[nProducers + nConsumers + 1];
+        int t = 0;
+        for (int p = 0; p < nProducers; p++) {
+            final int producer = p;
+            threads[t++] = new Thread() {
+                @Override
+                public void run() {
+                    await(startGate);
+                    for (int seq = 0; seq < perProducer; seq++) {
+                        queue.offer(encode(producer, seq));
+                    }
+                }
+            };
+        }
+        final long total = (long) nProducers * perProducer;
+        for (int c = 0; c < nConsumers; c++) {
+            threads[t++] = new Thread() {
+                @Override
+                public void run() {
+                    await(startGate);
+                    int[] lastSeq = newLastSeq();
+                    while (consumed.get() < total && failure == null) {
+                        Long x = queue.poll();
+                        if (x == null) {
+                            continue;
+                        }
+                        consumed.incrementAndGet();
+                        int producer = (int) (x >>> 32);
+                        int seq = (int) (long) x;
+                        check(seq > lastSeq[producer], "out of order: producer " + producer
+                                + " seq " + seq + " after " + lastSeq[producer]);
+                        lastSeq[producer] = seq;
+                        int count = dequeueCounts.incrementAndGet(producer * perProducer + seq);
+                        check(count == 1, "dequeued twice: producer " + producer + " seq " + seq);
+                    }
+                }
+            };
+        }
+        // 观察者：并发的 peek、size、迭代器不能破坏队列，也不能看到乱序的元素
+        threads[t] = new Thread() {
+            @Override
+            public void run() {
+                await(startGate);
+                while (consumed.get() < total && failure == null) {
+                    queue.peek();
+                    check(queue.size() >= 0, "negative size");
+                    int[] lastSeq = newLastSeq();
+                    int n = 0;
+                    for (Iterator<Long> it = queue.iterator(); it.hasNext() && n < 1000; n++) {
+                        long x = it.next();
+                        int producer = (int) (x >>> 32);
+                        int seq = (int) x;
+                        check(seq > lastSeq[producer], "iterator out of order: producer " + producer);
+                        lastSeq[producer] = seq;
+                    }
+                }
+            }
+        };
+
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    failure = e;
+                }
+            });
+            thread.start();
+        }
+        startGate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        for (int i = 0; i < dequeueCounts.length(); i++) {
+            check(dequeueCounts.get(i) == 1, "lost: producer " + i / perProducer + " seq " + i % perProducer);
+        }
+        check(queue.isEmpty() && queue.poll() == null && queue.peek() == null, "queue not empty");
+        check(queue.size() == 0, "size " + queue.size() + " after all elements dequeued");
+    }
+
+    private int[] newLastSeq() {
+        int[] lastSeq = new int[nProducers];
+        Arrays.fill(lastSeq, -1);
+        return lastSeq;
+    }
+
+    private void check(boolean condition, String message) {
+        if (!condition) {
+            AssertionError error = new AssertionError(message);
+            failure = error;
+            throw error;
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * 存放 long 的有界无锁栈
+ *
+ * 元素存放在 long[] 中，节点预先分配（见 AbstractArrayStack），push/pop 不装箱、不分配任何对象。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class LongConcurrentStack extends AbstractArrayStack {
+    private final long[] items;
+
+    public LongConcurrentStack(int capacity) {
+        super(capacity);
+        this.items = new long[capacity];
+    }
+
+    /**
+     * 压栈
+     * @return 栈已满时返回 false
+     */
+    public boolean push(long item) {
+        int node = allocate();
+        if (node < 0) {
+            return false;
+        }
+        items[node] = item;
+        pushNode(node);
+        return true;
+    }
+
+    /**
+     * 出栈
+     * @param valueIfEmpty 栈为空时的返回值
+     */
+    public long pop(long valueIfEmpty) {
+        int node = popNode();
+        if (node < 0) {
+            return valueIfEmpty;
+        }
+        long item = items[node];
+        release(node);
+        return item;
+    }
+}
@@ -0,0 +1,156 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 比较装箱的 ConcurrentStack<Integer> 和 IntConcurrentStack、LongConcurrentStack 的吞吐量、每次操作分配的内存
+ *
+ * 每个线程交替执行 push、pop，压入的是随机数（装箱时超出 Integer 缓存范围，每次都要分配）。
+ * 测量结束后检查：压入元素的和 == 弹出元素的和 + 栈中剩余元素的和。
+ * 运行：java PrimitiveStackBenchmark [每个线程的 push/pop 次数] [最大线程数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class PrimitiveStackBenchmark {
+    private static final int CAPACITY = 4096;
+
+    /** 被测试的栈 */
+    abstract static class StackUnderTest {
+        abstract String name();
+
+        /** 压入 x，返回实际压入的值（栈满时返回 0） */
+        abstract long push(long x);
+
+        /** 弹出一个元素，栈为空时返回 0 */
+        abstract long pop();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int opsPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.println("Threads: " + threads);
+            for (int kind = 0; kind < 3; kind++) {
+                run(newStack(kind), threads, opsPerThread);
+                StackUnderTest stack = newStack(kind);
+                long[] result = run(stack, threads, opsPerThread);
+                System.out.printf("  %-24s %6d ns/op %6d bytes/op%n", stack.name(), result[0], result[1]);
+            }
+        }
+    }
+
+    private static StackUnderTest newStack(int kind) {
+        switch (kind) {
+            case 0:
+                return new StackUnderTest() {
+                    private final ConcurrentStack<Integer> stack = new ConcurrentStack<>();
+
+                    String name() {
+                        return "ConcurrentStack<Integer>";
+                    }
+
+                    long push(long x) {
+                        stack.push((int) x);
+                        return (int) x;
+                    }
+
+                    long pop() {
+                        Integer x = stack.pop();
+                        return x == null ? 0 : x;
+                    }
+                };
+            case 1:
+                return new StackUnderTest() {
+                    private final IntConcurrentStack stack = new IntConcurrentStack(CAPACITY);
+
+                    String name() {
+                        return "IntConcurrentStack";
+                    }
+
+                    long push(long x) {
+                        return stack.push((int) x) ? (int) x : 0;
+                    }
+
+                    long pop() {
+                        return stack.pop(0);
+                    }
+                };
+            default:
+                return new StackUnderTest() {
+                    private final LongConcurrentStack stack = new LongConcurrentStack(CAPACITY);
+
+                    String name() {
+                        return "LongConcurrentStack";
+                    }
+
+                    long push(long x) {
+                        return stack.push(x) ? x : 0;
+                    }
+
+                    long pop() {
+                        return stack.pop(0L);
+                    }
+                };
+        }
+    }
+
+    /**
+     * @return {每次 push 或 pop 的平均时间 ns，每次 push 或 pop 平均分配的字节数}
+     */
+    private static long[] run(final StackUnderTest stack, int nThreads, final int opsPerThread)
+            throws InterruptedException {
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(nThreads);
+        final AtomicLong pushSum = new AtomicLong();
+        final AtomicLong popSum = new AtomicLong();
+        final AtomicLong allocated = new AtomicLong();
+        for (int t = 0; t < nThreads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startGate.await();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        long pushed = 0;
+                        long popped = 0;
+                        long before = allocatedBytes();
+                        for (int i = 0; i < opsPerThread; i++) {
+                            pushed += stack.push(random.nextInt(1 << 20) + 1000);
+                            popped += stack.pop();
+                        }
+                        allocated.addAndGet(allocatedBytes() - before);
+                        pushSum.addAndGet(pushed);
+                        popSum.addAndGet(popped);
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            }.start();
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        long elapsed = System.nanoTime() - start;
+
+        long remaining = 0;
+        for (long x; (x = stack.pop()) != 0; ) {
+            remaining += x;
+        }
+        if (pushSum.get() != popSum.get() + remaining) {
+            throw new AssertionError(stack.name() + ": pushed " + pushSum.get()
+                    + " != popped " + popSum.get() + " + remaining " + remaining);
+        }
+        long totalOps = 2L * nThreads * opsPerThread;
+        return new long[]{elapsed * nThreads / totalOps, allocated.get() / totalOps};
+    }
+
+    /** 当前线程累计分配的字节数，JVM 不支持时返回 0 */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,121 @@
+import net.jcip.annotations.Immutable;
+
+import java.util.Arrays;
+
+/**
+ * 缓存统计数据的不可变快照，由 StatsCounter.snapshot() 创建
+ * Created by osys on 2022/08/28 21:48.
+ */
+@Immutable
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+    private final long[] loadTimeHistogram;
+
+    CacheStats(long hitCount, long missCount,
+               long loadSuccessCount, long loadFailureCount, long totalLoadTime,
+               long evictionCount, long[] loadTimeHistogram) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+        this.loadTimeHistogram = loadTimeHistogram;
+    }
+
+    /** 请求数 = 命中数 + 未命中数 */
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    public long hitCount() {
+        return hitCount;
+    }
+
+    public long missCount() {
+        return missCount;
+    }
+
+    /** 命中率，没有请求时返回 1.0 */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /** 加载总耗时（纳秒） */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /** 平均每次加载的耗时（纳秒） */
+    public double averageLoadPenalty() {
+        long loadCount = loadSuccessCount + loadFailureCount;
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 加载耗时直方图
+     * @return 第 i 个元素是耗时在 [2^(i-1), 2^i) 纳秒之间的加载次数
+     */
+    public long[] loadTimeHistogram() {
+        return Arrays.copyOf(loadTimeHistogram, loadTimeHistogram.length);
+    }
+
+    /**
+     * 加载耗时的百分位数（按直方图估算，返回所在桶的上界）
+     * @param percentile 百分位，范围 (0, 100]
+     * @return 耗时（纳秒），没有加载记录时返回 0
+     */
+    public long loadTimePercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile: " + percentile);
+        }
+        long total = 0;
+        for (long count : loadTimeHistogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < loadTimeHistogram.length; i++) {
+            seen += loadTimeHistogram[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", hitRate=" + String.format("%.4f", hitRate()) +
+                ", loadSuccessCount=" + loadSuccessCount +
+                ", loadFailureCount=" + loadFailureCount +
+                ", averageLoadPenalty=" + String.format("%.1f", averageLoadPenalty()) + "ns" +
+                ", p99LoadTime=" + loadTimePercentile(99) + "ns" +
+                ", evictionCount=" + evictionCount +
+                '}';
+    }
+}
@@ -32,13 +32,23 @@ public class CachedFactories implements Servlet {
     @GuardedBy("this")
     private BigInteger[] lastFactors;
 
-    /** 命中计数器 */
-    @GuardedBy("this")
-    private long hits;
+    /** 请求数、缓存命中数、因数分解耗时等统计。计数器本身是线程安全的，不需要持有 this 锁 */
+    private final StatsCounter stats = new StatsCounter();
 
-    /** 缓存命中计数器 */
-    @GuardedBy("this")
-    private long cacheHits;
+    /** 请求数 */
+    public long getHits() {
+        return stats.snapshot().requestCount();
+    }
+
+    /** 缓存命中率 */
+    public double getCacheHitRatio() {
+        return stats.snapshot().hitRate();
+    }
+
+    /** 缓存统计数据的快照 */
+    public CacheStats getStats() {
+        return stats.snapshot();
+    }
 
     /** 先检查再执行 */
     @Override
@@ -48,21 +58,27 @@ public class CachedFactories implements Servlet {
 
         // 先检查再执行
         synchronized (this) {
-            ++hits;                         // 命中计数器
             if (i.equals(lastNumber)) {
                 // 判断 BigInteger 是否存在
-                ++cacheHits;                // 缓存命中计数器
                 factors = lastFactors.clone();
             }
         }
 
         // 确保对缓存的数值和因数分解进行同步更新（类似一个初始化）
         if (factors == null) {
+            stats.recordMisses(1);          // 缓存未命中计数器
+            long start = System.nanoTime();
             factors = factor(i);
+            stats.recordLoadSuccess(System.nanoTime() - start);
             synchronized (this) {
+                if (lastNumber != null && !i.equals(lastNumber)) {
+                    stats.recordEviction();     // 只缓存一个值，新值会替换旧值（并发的未命中存入同一个值时不算）
+                }
                 lastNumber = i;
                 lastFactors = factors.clone();
             }
+        } else {
+            stats.recordHits(1);            // 缓存命中计数器
         }
 
         // 处理响应
@@ -77,7 +93,8 @@ public class CachedFactories implements Servlet {
         return new BigInteger("7");
     }
 
+    /** 分解质因数 */
     BigInteger[] factor(BigInteger i) {
-        return new BigInteger[]{i};
+        return Factorizer.factor(i);
     }
 }
@@ -28,8 +28,9 @@ public class CountingFactories implements Servlet {
         return new BigInteger("7");
     }
 
+    /** 分解质因数 */
     public BigInteger[] factor(BigInteger i) {
-        return new BigInteger[] { i };
+        return Factorizer.factor(i);
     }
 
     @Override
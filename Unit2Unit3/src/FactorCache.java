@@ -0,0 +1,103 @@
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 多条目、无锁的因数分解缓存（组相联）
+ *
+ * OneValueCache 只记住最后一个数，输入分散时几乎不会命中，而且每次未命中都要创建新的容器对象。
+ * FactorCache 把缓存分成若干组（set），每组有 ways 个槽位：
+ * 1. 数值按 hash 映射到某一组，只在这一组的槽位中查找
+ * 2. 每个槽位保存一个不可变的 Entry，通过 AtomicReferenceArray 的 volatile 写安全发布，读写都不加锁
+ * 3. 组内没有空槽位时，随机替换一个槽位。并发写入同一个槽位时，后写入的覆盖先写入的，只会降低命中率，不影响正确性
+ *
+ * 和 OneValueCache 一样，因数数组在放入缓存时复制一次，之后不再修改；
+ * 命中时返回的是不可修改的 List 视图，不需要每次都做防御性复制。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class FactorCache {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int ways;
+    private final int setMask;
+
+    /**
+     * @param sets 组数，向上取整为 2 的幂
+     * @param ways 每组的槽位数
+     */
+    public FactorCache(int sets, int ways) {
+        if (sets <= 0 || ways <= 0) {
+            throw new IllegalArgumentException();
+        }
+        int n = sets == 1 ? 1 : Integer.highestOneBit(sets - 1) << 1;
+        this.ways = ways;
+        this.setMask = n - 1;
+        this.slots = new AtomicReferenceArray<>(n * ways);
+    }
+
+    /**
+     * 查找缓存
+     * @param i 数值
+     * @return 不可修改的因数列表，未命中时返回 null
+     */
+    public List<BigInteger> getFactors(BigInteger i) {
+        int base = indexOf(i);
+        for (int w = 0; w < ways; w++) {
+            Entry entry = slots.get(base + w);
+            if (entry != null && entry.number.equals(i)) {
+                return entry.factors;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 放入缓存
+     * @param i 数值
+     * @param factors 因数，会被复制一份
+     * @return 缓存中保存的不可修改的因数列表
+     */
+    public List<BigInteger> put(BigInteger i, BigInteger[] factors) {
+        Entry entry = new Entry(i, factors);
+        int base = indexOf(i);
+        int victim = -1;
+        for (int w = 0; w < ways; w++) {
+            Entry current = slots.get(base + w);
+            if (current == null || current.number.equals(i)) {
+                victim = w;
+                break;
+            }
+        }
+        if (victim < 0) {
+            victim = ways == 1 ? 0 : ThreadLocalRandom.current().nextInt(ways);
+        }
+        slots.set(base + victim, entry);
+        return entry.factors;
+    }
+
+    private int indexOf(BigInteger i) {
+        int h = i.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & setMask) * ways;
+    }
+
+    /** 不可变的缓存条目 */
+    @Immutable
+    private static final class Entry {
+        final BigInteger number;
+        final List<BigInteger> factors;
+
+        Entry(BigInteger number, BigInteger[] factors) {
+            this.number = number;
+            this.factors = Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(factors, factors.length)));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 比较 OneValueCache、CachedFactories、FactorCache 的命中率和吞吐量
+ *
+ * 每个线程按偏斜分布（少数数值被频繁请求）生成输入，缓存未命中时用试除法做真正的因数分解。
+ * 运行：java FactorCacheBenchmark [线程数] [每个线程的请求数] [不同数值的个数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class FactorCacheBenchmark {
+    private static final long BASE = 1_000_000_007L;
+
+    /** 被测试的缓存 */
+    interface Strategy {
+        String name();
+
+        void service(BigInteger i) throws Exception;
+
+        /** 因数分解（缓存未命中）的次数 */
+        long misses();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int nRequests = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int distinct = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+
+        for (int round = 0; round < 2; round++) {
+            System.out.println(round == 0 ? "Warm up" : "Measure");
+            List<Strategy> strategies = new ArrayList<>();
+            strategies.add(new OneValueCacheStrategy());
+            strategies.add(new CachedFactoriesStrategy());
+            strategies.add(new FactorCacheStrategy(new FactorCache(256, 4)));
+            for (Strategy strategy : strategies) {
+                long nanos = run(strategy, nThreads, nRequests, distinct);
+                long total = (long) nThreads * nRequests;
+                System.out.printf("%-16s threads=%d  hitRate=%.4f  %d ns/op%n",
+                        strategy.name(), nThreads, 1 - (double) strategy.misses() / total, nanos / total);
+            }
+        }
+    }
+
+    private static long run(final Strategy strategy, int nThreads, final int nRequests, final int distinct)
+            throws InterruptedException {
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch endGate = new CountDownLatch(nThreads);
+        for (int t = 0; t < nThreads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startGate.await();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int n = 0; n < nRequests; n++) {
+                            // 偏斜分布：越小的下标越容易被选中
+                            double r = random.nextDouble();
+                            int index = (int) (r * r * r * distinct);
+                            strategy.service(BigInteger.valueOf(BASE + index));
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            }.start();
+        }
+        long start = System.nanoTime();
+        startGate.countDown();
+        endGate.await();
+        return System.nanoTime() - start;
+    }
+
+    /** 试除法因数分解 */
+    static BigInteger[] factor(BigInteger i) {
+        long n = i.longValue();
+        List<BigInteger> factors = new ArrayList<>();
+        for (long d = 2; d * d <= n; d++) {
+            while (n % d == 0) {
+                factors.add(BigInteger.valueOf(d));
+                n /= d;
+            }
+        }
+        if (n > 1) {
+            factors.add(BigInteger.valueOf(n));
+        }
+        return factors.toArray(new BigInteger[0]);
+    }
+
+    /** 原来的 VolatileCachedFactories：volatile 引用 + 不可变的 OneValueCache */
+    static class OneValueCacheStrategy implements Strategy {
+        private volatile OneValueCache cache = new OneValueCache(null, null);
+        private final AtomicLong misses = new AtomicLong();
+
+        public String name() {
+            return "OneValueCache";
+        }
+
+        public void service(BigInteger i) {
+            BigInteger[] factors = cache.getFactors(i);
+            if (factors == null) {
+                misses.incrementAndGet();
+                factors = factor(i);
+                cache = new OneValueCache(i, factors);
+            }
+        }
+
+        public long misses() {
+            return misses.get();
+        }
+    }
+
+    /** CachedFactories：synchronized 保护的单值缓存 */
+    static class CachedFactoriesStrategy implements Strategy {
+        private final ThreadLocal<BigInteger> input = new ThreadLocal<>();
+        private final CachedFactories servlet = new CachedFactories() {
+            @Override
+            BigInteger extractFromRequest(ServletRequest req) {
+                return input.get();
+            }
+
+            @Override
+            BigInteger[] factor(BigInteger i) {
+                return FactorCacheBenchmark.factor(i);
+            }
+        };
+
+        public String name() {
+            return "CachedFactories";
+        }
+
+        public void service(BigInteger i) throws ServletException, IOException {
+            input.set(i);
+            servlet.service(null, null);
+        }
+
+        public long misses() {
+            return servlet.getStats().missCount();
+        }
+    }
+
+    /** 组相联的 FactorCache */
+    static class FactorCacheStrategy implements Strategy {
+        private final FactorCache cache;
+        private final AtomicLong misses = new AtomicLong();
+
+        FactorCacheStrategy(FactorCache cache) {
+            this.cache = cache;
+        }
+
+        public String name() {
+            return "FactorCache";
+        }
+
+        public void service(BigInteger i) {
+            List<BigInteger> factors = cache.getFactors(i);
+            if (factors == null) {
+                misses.incrementAndGet();
+                cache.put(i, factor(i));
+            }
+        }
+
+        public long misses() {
+            return misses.get();
+        }
+    }
+}
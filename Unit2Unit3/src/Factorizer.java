@@ -0,0 +1,380 @@
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 因数分解引擎，供 StatelessFactories、CachedFactories、CountingFactories、VolatileCachedFactories 使用
+ *
+ * 1. 先用预先筛好的素数表做试除法，去掉所有小因数
+ * 2. 剩下的数如果是合数，用 Pollard's rho（Brent 变种）找出一个因数，再分别分解两个因数
+ * 3. n < 2^63 时走 long 专用路径：蒙哥马利乘法 + 确定性 Miller-Rabin，整个过程不创建 BigInteger
+ * 4. n >= 2^63 时用 BigInteger 计算，rho 找到的两个因数交给 ForkJoinPool 并行分解
+ *
+ * 无状态，线程安全。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+@Immutable
+public final class Factorizer {
+    /** 试除法使用的素数上限 */
+    private static final int TRIAL_DIVISION_LIMIT = 1 << 12;
+    private static final int[] PRIMES = sieve(TRIAL_DIVISION_LIMIT);
+    private static final BigInteger[] BIG_PRIMES = new BigInteger[PRIMES.length];
+    /** 试除之后剩下的数如果小于该值，一定是素数 */
+    private static final long PRIME_BOUND = (long) TRIAL_DIVISION_LIMIT * TRIAL_DIVISION_LIMIT;
+    /** 对于 n < 2^64，用这 7 个底数做 Miller-Rabin 测试结果是确定的 */
+    private static final long[] MILLER_RABIN_BASES = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+    /** BigInteger.isProbablePrime 的参数，误判概率不超过 2^-64 */
+    private static final int PRIME_CERTAINTY = 64;
+    private static final long MASK_32 = 0xffffffffL;
+
+    static {
+        for (int i = 0; i < PRIMES.length; i++) {
+            BIG_PRIMES[i] = BigInteger.valueOf(PRIMES[i]);
+        }
+    }
+
+    private Factorizer() {
+    }
+
+    /**
+     * 分解质因数
+     * @param n 正整数
+     * @return 按从小到大排列的质因数（重复的因数出现多次），n = 1 时返回空数组
+     */
+    public static BigInteger[] factor(BigInteger n) {
+        if (n.signum() <= 0) {
+            throw new IllegalArgumentException("n 必须是正整数: " + n);
+        }
+        if (n.bitLength() < 64) {
+            long[] factors = factor(n.longValue());
+            BigInteger[] result = new BigInteger[factors.length];
+            for (int i = 0; i < factors.length; i++) {
+                result[i] = BigInteger.valueOf(factors[i]);
+            }
+            return result;
+        }
+
+        List<BigInteger> factors = new ArrayList<>();
+        for (int i = 0; i < PRIMES.length; i++) {
+            BigInteger[] qr = n.divideAndRemainder(BIG_PRIMES[i]);
+            while (qr[1].signum() == 0) {
+                factors.add(BIG_PRIMES[i]);
+                n = qr[0];
+                qr = n.divideAndRemainder(BIG_PRIMES[i]);
+            }
+        }
+        if (!n.equals(BigInteger.ONE)) {
+            factors.addAll(ForkJoinPool.commonPool().invoke(new FactorTask(n)));
+        }
+        Collections.sort(factors);
+        return factors.toArray(new BigInteger[0]);
+    }
+
+    /**
+     * 分解质因数（long 专用路径，只分配结果数组）
+     * @param n 正整数
+     * @return 按从小到大排列的质因数，n = 1 时返回空数组
+     */
+    public static long[] factor(long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n 必须是正整数: " + n);
+        }
+        // n < 2^63，最多 62 个质因数
+        long[] buf = new long[63];
+        int size = 0;
+        for (int p : PRIMES) {
+            if ((long) p * p > n) {
+                break;
+            }
+            while (n % p == 0) {
+                buf[size++] = p;
+                n /= p;
+            }
+        }
+        if (n > 1) {
+            size = n < PRIME_BOUND ? append(buf, size, n) : factorOdd(n, buf, size);
+        }
+        Arrays.sort(buf, 0, size);
+        return Arrays.copyOf(buf, size);
+    }
+
+    private static int append(long[] buf, int size, long factor) {
+        buf[size] = factor;
+        return size + 1;
+    }
+
+    /** 分解没有小因数的奇数 n */
+    private static int factorOdd(long n, long[] buf, int size) {
+        if (isPrime(n)) {
+            return append(buf, size, n);
+        }
+        long d = rho(n);
+        size = factorOdd(d, buf, size);
+        return factorOdd(n / d, buf, size);
+    }
+
+    /* ---------------- long：蒙哥马利乘法（R = 2^64，n 为奇数） ---------------- */
+
+    /** 无符号 64 位乘法的高 64 位 */
+    static long multiplyHigh(long a, long b) {
+        long a0 = a & MASK_32, a1 = a >>> 32;
+        long b0 = b & MASK_32, b1 = b >>> 32;
+        long p00 = a0 * b0, p01 = a0 * b1, p10 = a1 * b0, p11 = a1 * b1;
+        long middle = (p00 >>> 32) + (p01 & MASK_32) + (p10 & MASK_32);
+        return p11 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    /** -n^-1 mod 2^64 */
+    private static long negInverse(long n) {
+        // 牛顿迭代，每次正确的位数翻倍：3 -> 6 -> 12 -> 24 -> 48 -> 96
+        long inv = n;
+        for (int i = 0; i < 5; i++) {
+            inv *= 2 - n * inv;
+        }
+        return -inv;
+    }
+
+    /** (hi * 2^64 + lo) * R^-1 mod n，要求 hi < n */
+    private static long reduce(long hi, long lo, long n, long nInv) {
+        long m = lo * nInv;
+        // lo + m * n 的低 64 位为 0，lo != 0 时产生进位
+        long t = hi + multiplyHigh(m, n) + (lo != 0 ? 1 : 0);
+        return Long.compareUnsigned(t, n) >= 0 ? t - n : t;
+    }
+
+    private static long montMul(long a, long b, long n, long nInv) {
+        return reduce(multiplyHigh(a, b), a * b, n, nInv);
+    }
+
+    /** a + b mod n，要求 a、b < n < 2^63 */
+    private static long addMod(long a, long b, long n) {
+        long s = a + b;
+        return Long.compareUnsigned(s, n) >= 0 ? s - n : s;
+    }
+
+    /** R mod n */
+    private static long montOne(long n) {
+        return Long.remainderUnsigned(-n, n);
+    }
+
+    /** R^2 mod n */
+    private static long montR2(long n) {
+        long r = montOne(n);
+        for (int i = 0; i < 64; i++) {
+            r = addMod(r, r, n);
+        }
+        return r;
+    }
+
+    /** 确定性 Miller-Rabin，n 为大于 2 的奇数 */
+    static boolean isPrime(long n) {
+        if (n < PRIME_BOUND) {
+            for (int p : PRIMES) {
+                if ((long) p * p > n) {
+                    return true;
+                }
+                if (n % p == 0) {
+                    return n == p;
+                }
+            }
+            return true;
+        }
+        long nInv = negInverse(n);
+        long one = montOne(n);
+        long minusOne = n - one;
+        long r2 = montR2(n);
+        long d = n - 1;
+        int s = Long.numberOfTrailingZeros(d);
+        d >>>= s;
+        for (long base : MILLER_RABIN_BASES) {
+            long a = base % n;
+            if (a == 0) {
+                continue;
+            }
+            long x = montPow(montMul(a, r2, n, nInv), d, one, n, nInv);
+            if (x == one || x == minusOne) {
+                continue;
+            }
+            boolean composite = true;
+            for (int i = 1; i < s; i++) {
+                x = montMul(x, x, n, nInv);
+                if (x == minusOne) {
+                    composite = false;
+                    break;
+                }
+            }
+            if (composite) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long montPow(long base, long e, long one, long n, long nInv) {
+        long result = one;
+        while (e > 0) {
+            if ((e & 1) != 0) {
+                result = montMul(result, base, n, nInv);
+            }
+            base = montMul(base, base, n, nInv);
+            e >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Pollard's rho（Brent 变种），在蒙哥马利域中计算 f(y) = y^2 + c
+     * gcd 不受蒙哥马利变换影响，因为 R 与 n 互素
+     * @param n 奇合数
+     * @return n 的一个非平凡因数
+     */
+    private static long rho(long n) {
+        long nInv = negInverse(n);
+        final int m = 128;
+        for (long c = 1; ; c++) {
+            long y = 2, x = y, ys = y, q = montOne(n), g = 1;
+            for (int r = 1; g == 1; r <<= 1) {
+                x = y;
+                for (int i = 0; i < r; i++) {
+                    y = addMod(montMul(y, y, n, nInv), c, n);
+                }
+                for (int k = 0; k < r && g == 1; k += m) {
+                    ys = y;
+                    for (int i = 0; i < Math.min(m, r - k); i++) {
+                        y = addMod(montMul(y, y, n, nInv), c, n);
+                        q = montMul(q, Math.abs(x - y), n, nInv);
+                    }
+                    g = gcd(q, n);
+                }
+            }
+            if (g == n) {
+                // 一批乘积中包含了 n 的所有因数，逐步回退
+                do {
+                    ys = addMod(montMul(ys, ys, n, nInv), c, n);
+                    g = gcd(Math.abs(x - ys), n);
+                } while (g == 1);
+            }
+            if (g != n) {
+                return g;
+            }
+            // 失败，换一个 c 重试
+        }
+    }
+
+    /** Stein 二进制 gcd，a、b >= 0 */
+    private static long gcd(long a, long b) {
+        if (a == 0) {
+            return b;
+        }
+        if (b == 0) {
+            return a;
+        }
+        int shift = Long.numberOfTrailingZeros(a | b);
+        a >>>= Long.numberOfTrailingZeros(a);
+        do {
+            b >>>= Long.numberOfTrailingZeros(b);
+            if (a > b) {
+                long t = a;
+                a = b;
+                b = t;
+            }
+            b -= a;
+        } while (b != 0);
+        return a << shift;
+    }
+
+    /* ---------------- BigInteger：fork-join 分解 ---------------- */
+
+    /** 分解没有小因数的 n：rho 找到因数 d 后，d 和 n / d 并行分解 */
+    private static final class FactorTask extends RecursiveTask<List<BigInteger>> {
+        private static final long serialVersionUID = 1L;
+        private final BigInteger n;
+
+        FactorTask(BigInteger n) {
+            this.n = n;
+        }
+
+        @Override
+        protected List<BigInteger> compute() {
+            if (n.bitLength() < 64) {
+                List<BigInteger> factors = new ArrayList<>();
+                for (long f : factor(n.longValue())) {
+                    factors.add(BigInteger.valueOf(f));
+                }
+                return factors;
+            }
+            if (n.isProbablePrime(PRIME_CERTAINTY)) {
+                List<BigInteger> factors = new ArrayList<>();
+                factors.add(n);
+                return factors;
+            }
+            BigInteger d = rho(n);
+            FactorTask left = new FactorTask(d);
+            left.fork();
+            List<BigInteger> factors = new FactorTask(n.divide(d)).compute();
+            factors.addAll(left.join());
+            return factors;
+        }
+
+        /** Pollard's rho（Brent 变种）的 BigInteger 版本 */
+        private static BigInteger rho(BigInteger n) {
+            final int m = 128;
+            for (long c0 = 1; ; c0++) {
+                BigInteger c = BigInteger.valueOf(c0);
+                BigInteger y = BigInteger.valueOf(2), x = y, ys = y, q = BigInteger.ONE, g = BigInteger.ONE;
+                for (int r = 1; g.equals(BigInteger.ONE); r <<= 1) {
+                    x = y;
+                    for (int i = 0; i < r; i++) {
+                        y = y.multiply(y).add(c).mod(n);
+                    }
+                    for (int k = 0; k < r && g.equals(BigInteger.ONE); k += m) {
+                        ys = y;
+                        for (int i = 0; i < Math.min(m, r - k); i++) {
+                            y = y.multiply(y).add(c).mod(n);
+                            q = q.multiply(x.subtract(y).abs()).mod(n);
+                        }
+                        g = q.gcd(n);
+                    }
+                }
+                if (g.equals(n)) {
+                    do {
+                        ys = ys.multiply(ys).add(c).mod(n);
+                        g = x.subtract(ys).abs().gcd(n);
+                    } while (g.equals(BigInteger.ONE));
+                }
+                if (!g.equals(n)) {
+                    return g;
+                }
+            }
+        }
+    }
+
+    /** 埃拉托斯特尼筛法：小于 limit 的所有素数 */
+    private static int[] sieve(int limit) {
+        boolean[] composite = new boolean[limit];
+        int count = 0;
+        for (int i = 2; i < limit; i++) {
+            if (!composite[i]) {
+                count++;
+                for (long j = (long) i * i; j < limit; j += i) {
+                    composite[(int) j] = true;
+                }
+            }
+        }
+        int[] primes = new int[count];
+        for (int i = 2, k = 0; i < limit; i++) {
+            if (!composite[i]) {
+                primes[k++] = i;
+            }
+        }
+        return primes;
+    }
+}
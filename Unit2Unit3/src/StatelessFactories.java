@@ -45,8 +45,9 @@ public class StatelessFactories extends GenericServlet implements Servlet {
         return new BigInteger("7");
     }
 
+    /** 分解质因数 */
     public BigInteger[] factor(BigInteger i) {
-        return new BigInteger[] { i };
+        return Factorizer.factor(i);
     }
 
 }
\ No newline at end of file
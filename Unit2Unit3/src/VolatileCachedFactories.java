@@ -5,35 +5,42 @@ import javax.servlet.Servlet;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import java.math.BigInteger;
+import java.util.List;
 
 /**
  * 使用到不可变容器对象的 volatile 类型引用，缓存最新的结果
+ * OneValueCache 只能缓存最后一个数，这里换成多条目的 FactorCache：每个槽位都是不可变条目的 volatile 引用
  * Created by osys on 2022/08/28 21:48.
  */
 @ThreadSafe
 public class VolatileCachedFactories extends GenericServlet implements Servlet {
-    private volatile OneValueCache cache = new OneValueCache(null, null);
+    /** 组数 */
+    private static final int CACHE_SETS = 256;
+    /** 每组的槽位数 */
+    private static final int CACHE_WAYS = 4;
+
+    private final FactorCache cache = new FactorCache(CACHE_SETS, CACHE_WAYS);
 
     @Override
     public void service(ServletRequest req, ServletResponse resp) {
         BigInteger i = extractFromRequest(req);
-        BigInteger[] factors = cache.getFactors(i);
+        List<BigInteger> factors = cache.getFactors(i);
         if (factors == null) {
-            factors = factor(i);
-            cache = new OneValueCache(i, factors);
+            factors = cache.put(i, factor(i));
         }
         encodeIntoResponse(resp, factors);
     }
 
-    void encodeIntoResponse(ServletResponse resp, BigInteger[] factors) {
+    void encodeIntoResponse(ServletResponse resp, List<BigInteger> factors) {
     }
 
     BigInteger extractFromRequest(ServletRequest req) {
         return new BigInteger("7");
     }
 
+    /** 分解质因数 */
     BigInteger[] factor(BigInteger i) {
-        return new BigInteger[]{i};
+        return Factorizer.factor(i);
     }
 }
 
@@ -0,0 +1,94 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * 异步的 Memoizer：ConcurrentHashMap + CompletableFuture
+ *
+ * Memoizer 在调用线程中执行 task.run()，其它线程在 Future.get() 中阻塞等待；
+ * AsyncMemoizer 把计算交给 executor 执行，compute 立即返回 CompletableFuture，调用线程永远不会阻塞。
+ * 同一个 key 的并发调用共享缓存中同一个 CompletableFuture，只计算一次；计算失败的会自动从缓存中移除，下一次调用重新计算。
+ *
+ * 缓存中的 CompletableFuture 不交给调用者，compute 每次返回一个依赖它的新阶段（thenApply(identity)）：
+ * 调用者 complete、obtrudeValue、cancel 返回的 CompletableFuture 只影响自己拿到的这一个，
+ * 计算照常进行，结果照常缓存，其它调用者不受影响。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class AsyncMemoizer<A, V> {
+    private final ConcurrentMap<A, CompletableFuture<V>> cache = new ConcurrentHashMap<>();
+    private final Computable<A, V> computer;
+    private final Executor executor;
+
+    public AsyncMemoizer(Computable<A, V> computer) {
+        this(computer, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param computer 计算
+     * @param executor 执行计算的 Executor
+     */
+    public AsyncMemoizer(Computable<A, V> computer, Executor executor) {
+        if (computer == null || executor == null) {
+            throw new NullPointerException();
+        }
+        this.computer = computer;
+        this.executor = executor;
+    }
+
+    /**
+     * @return 依赖缓存中计算结果的新 CompletableFuture；取消它只是调用者不再关心结果，不会取消计算
+     */
+    public CompletableFuture<V> compute(final A arg) {
+        // 从缓存中获取，查看缓存中是否存在该值
+        CompletableFuture<V> cacheFuture = cache.get(arg);
+        if (cacheFuture != null) {
+            return view(cacheFuture);
+        }
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        cacheFuture = cache.putIfAbsent(arg, future);
+        // 其它线程已经开始计算
+        if (cacheFuture != null) {
+            return view(cacheFuture);
+        }
+        // 计算失败时，从缓存中移除
+        future.whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V value, Throwable throwable) {
+                if (throwable != null) {
+                    cache.remove(arg, future);
+                }
+            }
+        });
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(computer.compute(arg));
+                    } catch (InterruptedException e) {
+                        future.completeExceptionally(e);
+                        Thread.currentThread().interrupt();
+                    } catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return view(future);
+    }
+
+    /** 调用者拿到的阶段，和缓存中的 future 同时完成 */
+    private static <V> CompletableFuture<V> view(CompletableFuture<V> future) {
+        return future.thenApply(Function.<V>identity());
+    }
+}
@@ -0,0 +1,18 @@
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 支持批量计算的 Computable
+ *
+ * Memoizer.computeAll 会把一次调用中所有未命中的 key 一起交给 computeAll，
+ * 让代价高的计算（因式分解、数据库查询等）可以分摊准备工作的开销。
+ * Created by osys on 2022/08/28 21:48.
+ */
+interface BatchComputable<A, V> extends Computable<A, V> {
+    /**
+     * 批量计算
+     * @param args 需要计算的 key，不包含重复元素
+     * @return key 到计算结果的映射；缺少的 key 会再调用 compute 单独计算
+     */
+    Map<A, V> computeAll(Collection<? extends A> args) throws InterruptedException;
+}
@@ -0,0 +1,502 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 有界的 Memoizer：限制缓存的条目数（或总权重），支持可插拔的淘汰策略和存活时间（TTL）
+ *
+ * 和 Memoizer 一样，同一个 key 的并发调用共享同一个 FutureTask，只计算一次。
+ * 淘汰相关的簿记不会串行化 compute 的读路径：
+ * 1. 命中时只把访问记录写入按线程分段的【有损】读缓冲区，缓冲区满了就丢弃这次记录
+ * 2. 新条目计算完成、条目被移除时，把事件写入无锁的写缓冲区
+ * 3. 由 tryLock 成功拿到 evictionLock 的线程，批量把缓冲区中的事件应用到淘汰策略上，并淘汰超出容量的条目；
+ *    拿不到锁的线程直接返回，不会阻塞
+ *
+ * 与 Memoizer 不同的是：计算失败的条目也会被移除，避免异常结果一直占用缓存。
+ *
+ * 刷新（refreshAfterWrite）：读到写入时间超过刷新时间的条目时，立即返回当前的值，
+ * 同时在 refreshExecutor 中发起一次（且只有一次）后台重新计算；重新计算失败时保留旧值。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class BoundedMemoizer<A, V> implements Computable<A, V> {
+    /** 读缓冲区的段数 */
+    private static final int NUMBER_OF_READ_BUFFERS =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+    /** 每段读缓冲区的大小（2 的幂） */
+    private static final int READ_BUFFER_SIZE = 32;
+    /** 一段读缓冲区中积累了这么多条访问记录后，尝试进行一次清理 */
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 16;
+
+    private final ConcurrentMap<A, Node<A, V>> cache = new ConcurrentHashMap<>();
+    private final Computable<A, V> computer;
+
+    /** 最大总权重 */
+    private final long maximumWeight;
+    private final Weigher<? super A, ? super V> weigher;
+    /** 写入后的存活时间，0 表示永不过期 */
+    private final long expireAfterWriteNanos;
+    /** 写入后多久开始后台刷新，0 表示不刷新 */
+    private final long refreshAfterWriteNanos;
+    private final Executor refreshExecutor;
+
+    /** 淘汰策略、以及策略相关的状态，都由 evictionLock 保护 */
+    private final Lock evictionLock = new ReentrantLock();
+    @GuardedBy("evictionLock")
+    private final EvictionPolicy<A> policy;
+    /** 已经加入淘汰策略的条目 */
+    @GuardedBy("evictionLock")
+    private final Map<A, Node<A, V>> tracked = new HashMap<>();
+    @GuardedBy("evictionLock")
+    private long weightedSize;
+
+    private final ReadBuffer<A, V>[] readBuffers;
+    private final Queue<Runnable> writeBuffer = new ConcurrentLinkedQueue<>();
+
+    /** 命中、未命中、加载耗时、淘汰数等统计 */
+    private final StatsCounter stats = new StatsCounter();
+
+    /**
+     * 按条目数限制缓存，使用 TinyLFU 淘汰策略，条目永不过期
+     * @param computer 计算
+     * @param maximumSize 最大条目数
+     */
+    public BoundedMemoizer(Computable<A, V> computer, long maximumSize) {
+        this(computer, maximumSize, Weigher.SingletonWeigher.INSTANCE, new TinyLfuPolicy<A>(maximumSize), 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 不刷新条目
+     * @param computer 计算
+     * @param maximumWeight 最大总权重
+     * @param weigher 条目权重
+     * @param policy 淘汰策略，每个 BoundedMemoizer 需要独占一个实例
+     * @param expireAfterWrite 写入后的存活时间，0 表示永不过期
+     * @param unit expireAfterWrite 的时间单位
+     */
+    public BoundedMemoizer(Computable<A, V> computer,
+                           long maximumWeight,
+                           Weigher<? super A, ? super V> weigher,
+                           EvictionPolicy<A> policy,
+                           long expireAfterWrite,
+                           TimeUnit unit) {
+        this(computer, maximumWeight, weigher, policy, expireAfterWrite, 0, unit, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param computer 计算
+     * @param maximumWeight 最大总权重
+     * @param weigher 条目权重
+     * @param policy 淘汰策略，每个 BoundedMemoizer 需要独占一个实例
+     * @param expireAfterWrite 写入后的存活时间，0 表示永不过期
+     * @param refreshAfterWrite 写入后多久开始后台刷新，0 表示不刷新
+     * @param unit expireAfterWrite、refreshAfterWrite 的时间单位
+     * @param refreshExecutor 执行后台刷新的 Executor
+     */
+    public BoundedMemoizer(Computable<A, V> computer,
+                           long maximumWeight,
+                           Weigher<? super A, ? super V> weigher,
+                           EvictionPolicy<A> policy,
+                           long expireAfterWrite,
+                           long refreshAfterWrite,
+                           TimeUnit unit,
+                           Executor refreshExecutor) {
+        if (maximumWeight <= 0 || expireAfterWrite < 0 || refreshAfterWrite < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (computer == null || weigher == null || policy == null || refreshExecutor == null) {
+            throw new NullPointerException();
+        }
+        this.computer = computer;
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+        this.policy = policy;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.refreshAfterWriteNanos = unit.toNanos(refreshAfterWrite);
+        this.refreshExecutor = refreshExecutor;
+        @SuppressWarnings("unchecked")
+        ReadBuffer<A, V>[] buffers = (ReadBuffer<A, V>[]) new ReadBuffer<?, ?>[NUMBER_OF_READ_BUFFERS];
+        this.readBuffers = buffers;
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer<>();
+        }
+    }
+
+    @Override
+    public V compute(final A arg) throws InterruptedException {
+        while (true) {
+            // 从缓存中获取，查看缓存中是否存在该值
+            Node<A, V> node = cache.get(arg);
+            if (node == null) {
+                Callable<V> eval = new Callable<V>() {
+                    @Override
+                    public V call() throws InterruptedException {
+                        // 缓存中不存在该值，计算并返回
+                        return load(arg);
+                    }
+                };
+                Node<A, V> newNode = new Node<>(arg, eval);
+                node = cache.putIfAbsent(arg, newNode);
+                // 当前线程负责计算
+                if (node == null) {
+                    stats.recordMisses(1);
+                    node = newNode;
+                    newNode.run();
+                    afterComputed(newNode);
+                } else {
+                    stats.recordHits(1);
+                    afterRead(node);
+                }
+            } else {
+                long now = System.nanoTime();
+                if (isExpired(node, now)) {
+                    // 已过期，移除后重新计算
+                    remove(node);
+                    continue;
+                }
+                stats.recordHits(1);
+                afterRead(node);
+                if (needsRefresh(node, now)) {
+                    // 返回旧值，后台刷新
+                    refresh(node);
+                }
+            }
+            try {
+                // 获取结果并返回
+                return node.get();
+            } catch (CancellationException e) {
+                remove(node);
+            } catch (ExecutionException e) {
+                remove(node);
+                throw LaunderThrowable.launderThrowable(e.getCause());
+            }
+        }
+    }
+
+    /** 缓存统计数据的快照 */
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
+    /** 缓存中的条目数（包括正在计算的条目） */
+    public int size() {
+        return cache.size();
+    }
+
+    /** 移除所有已过期的条目，并处理所有待处理的淘汰事件 */
+    public void cleanUp() {
+        if (expireAfterWriteNanos > 0) {
+            long now = System.nanoTime();
+            for (Node<A, V> node : cache.values()) {
+                if (isExpired(node, now)) {
+                    remove(node);
+                }
+            }
+        }
+        evictionLock.lock();
+        try {
+            drainBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean isExpired(Node<A, V> node, long now) {
+        return expireAfterWriteNanos > 0
+                && node.writeTime != 0
+                && now - node.writeTime >= expireAfterWriteNanos;
+    }
+
+    /** 调用 computer 计算，并记录加载耗时 */
+    private V load(A arg) throws InterruptedException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            V value = computer.compute(arg);
+            success = true;
+            return value;
+        } finally {
+            long loadTime = System.nanoTime() - start;
+            if (success) {
+                stats.recordLoadSuccess(loadTime);
+            } else {
+                stats.recordLoadFailure(loadTime);
+            }
+        }
+    }
+
+    private boolean needsRefresh(Node<A, V> node, long now) {
+        return refreshAfterWriteNanos > 0
+                && node.writeTime != 0
+                && !node.removed
+                && now - node.writeTime >= refreshAfterWriteNanos;
+    }
+
+    /**
+     * 后台重新计算条目，每个条目同时只会有一次刷新
+     * 计算成功后用新条目替换旧条目；计算失败、或者旧条目已经被移除时，丢弃刷新的结果
+     */
+    private void refresh(final Node<A, V> node) {
+        if (!Node.REFRESHING.compareAndSet(node, 0, 1)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean replaced = false;
+                    try {
+                        final V value = load(node.key);
+                        Node<A, V> newNode = new Node<>(node.key, new Callable<V>() {
+                            @Override
+                            public V call() {
+                                return value;
+                            }
+                        });
+                        newNode.run();
+                        newNode.weight = weigher.weigh(newNode.key, value);
+                        newNode.writeTime = System.nanoTime();
+                        if (cache.replace(node.key, node, newNode)) {
+                            replaced = true;
+                            afterReplaced(node, newNode);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException e) {
+                        // 刷新失败，保留旧值
+                    } finally {
+                        if (!replaced) {
+                            // 允许下一次读取再次发起刷新（计算抛出 Error 时也要复位）
+                            node.refreshing = 0;
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            node.refreshing = 0;
+        }
+    }
+
+    /** 刷新成功：旧条目移出淘汰策略，新条目加入 */
+    private void afterReplaced(final Node<A, V> oldNode, final Node<A, V> newNode) {
+        oldNode.removed = true;
+        writeBuffer.add(new Runnable() {
+            @Override
+            public void run() {
+                onRemove(oldNode);
+                onAdd(newNode);
+            }
+        });
+        tryDrainBuffers();
+    }
+
+    /** 计算完成：记录权重和写入时间，把条目加入淘汰策略 */
+    private void afterComputed(final Node<A, V> node) throws InterruptedException {
+        V value;
+        try {
+            value = node.get();
+        } catch (CancellationException | ExecutionException e) {
+            // 由 compute 负责移除
+            return;
+        }
+        node.weight = weigher.weigh(node.key, value);
+        node.writeTime = System.nanoTime();
+        writeBuffer.add(new Runnable() {
+            @Override
+            public void run() {
+                onAdd(node);
+            }
+        });
+        tryDrainBuffers();
+    }
+
+    /** 从缓存中移除条目，并通知淘汰策略 */
+    private void remove(final Node<A, V> node) {
+        if (cache.remove(node.key, node)) {
+            node.removed = true;
+            writeBuffer.add(new Runnable() {
+                @Override
+                public void run() {
+                    onRemove(node);
+                }
+            });
+            tryDrainBuffers();
+        }
+    }
+
+    /** 命中：把访问记录写入当前线程对应的读缓冲区，缓冲区积累到一定数量时尝试清理 */
+    private void afterRead(Node<A, V> node) {
+        int index = (int) Thread.currentThread().getId() & (readBuffers.length - 1);
+        int pending = readBuffers[index].offer(node);
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD) {
+            tryDrainBuffers();
+        }
+    }
+
+    /** 拿不到锁说明其它线程正在清理，直接返回 */
+    private void tryDrainBuffers() {
+        do {
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+            try {
+                drainBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+            // 释放锁之前其它线程写入的事件，可能因为 tryLock 失败而没人处理
+        } while (!writeBuffer.isEmpty());
+    }
+
+    @GuardedBy("evictionLock")
+    private void drainBuffers() {
+        for (ReadBuffer<A, V> buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+        Runnable task;
+        while ((task = writeBuffer.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void onAccess(Node<A, V> node) {
+        if (tracked.get(node.key) == node) {
+            policy.recordAccess(node.key);
+        }
+    }
+
+    @GuardedBy("evictionLock")
+    private void onAdd(Node<A, V> node) {
+        if (node.removed) {
+            return;
+        }
+        Node<A, V> old = tracked.put(node.key, node);
+        if (old != null) {
+            // 同一个 key 的旧条目，移除事件还没被处理
+            weightedSize -= old.weight;
+            policy.recordAccess(node.key);
+        } else {
+            policy.recordInsert(node.key);
+        }
+        weightedSize += node.weight;
+        evict(node.key);
+    }
+
+    @GuardedBy("evictionLock")
+    private void onRemove(Node<A, V> node) {
+        if (tracked.get(node.key) == node) {
+            tracked.remove(node.key);
+            policy.recordRemoval(node.key);
+            weightedSize -= node.weight;
+        }
+    }
+
+    /** 淘汰条目，直到总权重不超过 maximumWeight */
+    @GuardedBy("evictionLock")
+    private void evict(A candidate) {
+        while (weightedSize > maximumWeight) {
+            A victimKey = policy.selectVictim(candidate);
+            candidate = null;
+            if (victimKey == null) {
+                break;
+            }
+            Node<A, V> victim = tracked.remove(victimKey);
+            policy.recordRemoval(victimKey);
+            if (victim != null) {
+                weightedSize -= victim.weight;
+                victim.removed = true;
+                if (cache.remove(victimKey, victim)) {
+                    stats.recordEviction();
+                }
+            }
+        }
+    }
+
+    /** 缓存条目：FutureTask + 淘汰相关的元数据 */
+    private static final class Node<A, V> extends FutureTask<V> {
+        final A key;
+        /** 在计算完成、加入写缓冲区之前设置，之后只读 */
+        volatile int weight;
+        volatile long writeTime;
+        /** 已经从缓存中移除 */
+        volatile boolean removed;
+        /** 1 表示正在后台刷新 */
+        volatile int refreshing;
+
+        @SuppressWarnings("rawtypes")
+        static final AtomicIntegerFieldUpdater<Node> REFRESHING =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "refreshing");
+
+        Node(A key, Callable<V> callable) {
+            super(callable);
+            this.key = key;
+        }
+    }
+
+    /**
+     * 有损的读缓冲区：多个线程写入，持有 evictionLock 的线程读出
+     * 缓冲区满时直接丢弃访问记录，淘汰策略只需要近似的访问顺序
+     */
+    private static final class ReadBuffer<A, V> {
+        private final AtomicReferenceArray<Node<A, V>> buffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCount = new AtomicLong();
+        /** 只由持有 evictionLock 的线程修改 */
+        private volatile long readCount;
+
+        /**
+         * 写入一条访问记录
+         * @return 缓冲区中待处理的记录数
+         */
+        int offer(Node<A, V> node) {
+            long head = readCount;
+            long tail = writeCount.get();
+            int size = (int) (tail - head);
+            if (size >= READ_BUFFER_SIZE) {
+                return size;
+            }
+            if (writeCount.compareAndSet(tail, tail + 1)) {
+                buffer.lazySet((int) tail & (READ_BUFFER_SIZE - 1), node);
+                return size + 1;
+            }
+            // 竞争失败，丢弃这次访问记录
+            return size;
+        }
+
+        @GuardedBy("evictionLock")
+        void drainTo(BoundedMemoizer<A, V> memoizer) {
+            long head = readCount;
+            long tail = writeCount.get();
+            for (; head != tail; head++) {
+                int index = (int) head & (READ_BUFFER_SIZE - 1);
+                Node<A, V> node = buffer.get(index);
+                if (node == null) {
+                    // 写线程已经占位，但还没写入
+                    break;
+                }
+                buffer.lazySet(index, null);
+                memoizer.onAccess(node);
+            }
+            readCount = head;
+        }
+    }
+}
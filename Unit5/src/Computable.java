@@ -0,0 +1,8 @@
+/**
+ * 计算：输入 A，输出 V
+ * Memoizer1、Memoizer2、Memoizer3、Memoizer、BoundedMemoizer、AsyncMemoizer 都为它缓存计算结果
+ * Created by osys on 2022/08/28 21:48.
+ */
+public interface Computable<A, V> {
+    V compute(A arg) throws InterruptedException;
+}
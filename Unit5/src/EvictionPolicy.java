@@ -0,0 +1,23 @@
+/**
+ * 缓存淘汰策略
+ *
+ * 所有方法都只会在 BoundedMemoizer 持有 evictionLock 时被调用，实现类不需要自己做同步。
+ * Created by osys on 2022/08/28 21:48.
+ */
+public interface EvictionPolicy<K> {
+    /** 新条目加入缓存 */
+    void recordInsert(K key);
+
+    /** 条目被访问（缓存命中） */
+    void recordAccess(K key);
+
+    /** 条目被移除（过期、取消、计算失败或被淘汰） */
+    void recordRemoval(K key);
+
+    /**
+     * 缓存超出容量时，选出要淘汰的 key
+     * @param candidate 刚加入缓存的 key（可能为 null）。带准入过滤的策略可以选择淘汰它本身
+     * @return 要淘汰的 key，策略中没有条目时返回 null
+     */
+    K selectVictim(K candidate);
+}
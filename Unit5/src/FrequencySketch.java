@@ -0,0 +1,89 @@
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * 访问频率估算（Count-Min Sketch，4 位计数器）
+ *
+ * 每个 key 映射到 4 个计数器，频率取其中的最小值；计数器最大为 15。
+ * 累计记录的次数达到 sampleSize 时，所有计数器减半，使旧的访问记录逐渐“老化”。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@NotThreadSafe
+public class FrequencySketch {
+    private static final long[] SEED = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    /** 每个计数器减半时用的掩码：去掉从高位移下来的 1 */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** 每个 long 存放 16 个 4 位计数器 */
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * @param maximumSize 缓存最大条目数，用来确定计数器个数
+     */
+    public FrequencySketch(long maximumSize) {
+        int capacity = (int) Math.min(Math.max(maximumSize, 16), 1 << 24);
+        int length = Integer.highestOneBit(capacity - 1) << 1;
+        this.table = new long[length];
+        this.counterMask = (length << 4) - 1;
+        this.sampleSize = 10 * capacity;
+    }
+
+    /** 估算 key 的访问频率 */
+    public int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /** 记录一次访问 */
+    public void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i));
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    /** 计数器未满（< 15）时加 1 */
+    private boolean incrementAt(int index) {
+        int i = index >>> 4;
+        int offset = (index & 15) << 2;
+        long mask = 0xfL << offset;
+        if ((table[i] & mask) != mask) {
+            table[i] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /** 所有计数器减半 */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+}
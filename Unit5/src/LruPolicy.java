@@ -0,0 +1,41 @@
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU 淘汰策略：淘汰最久未被访问的条目
+ * Created by osys on 2022/08/28 21:48.
+ */
+@NotThreadSafe
+public class LruPolicy<K> implements EvictionPolicy<K> {
+    /** accessOrder = true：按访问顺序排列，头部是最久未被访问的 key */
+    private final LinkedHashMap<K, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Override
+    public void recordInsert(K key) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        // accessOrder 模式下，get() 会把 key 移到尾部
+        order.get(key);
+    }
+
+    @Override
+    public void recordRemoval(K key) {
+        order.remove(key);
+    }
+
+    @Override
+    public K selectVictim(K candidate) {
+        return eldest();
+    }
+
+    /** 最久未被访问的 key */
+    K eldest() {
+        Iterator<K> it = order.keySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+}
@@ -1,5 +1,9 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
@@ -13,11 +17,18 @@ import java.util.concurrent.FutureTask;
 public class Memoizer<A, V> implements Computable<A, V> {
     private final ConcurrentMap<A, Future<V>> cache = new ConcurrentHashMap<>();
     private final Computable<A, V> computer;
+    /** 命中、未命中、加载耗时等统计 */
+    private final StatsCounter stats = new StatsCounter();
 
     public Memoizer(Computable<A, V> computer) {
         this.computer = computer;
     }
 
+    /** 缓存统计数据的快照 */
+    public CacheStats stats() {
+        return stats.snapshot();
+    }
+
     @Override
     public V compute(final A arg) throws InterruptedException {
         while (true) {
@@ -28,7 +39,7 @@ public class Memoizer<A, V> implements Computable<A, V> {
                     @Override
                     public V call() throws InterruptedException {
                         // 缓存中不存在该值，计算并返回
-                        return computer.compute(arg);
+                        return load(arg);
                     }
                 };
                 // 将就算返回的值，存入 map（如果存在，就将返回值存入map）
@@ -36,9 +47,14 @@ public class Memoizer<A, V> implements Computable<A, V> {
                 cacheFuture = cache.putIfAbsent(arg, task);
                 // 查看是否存在该 FutureTask，如果存在，那么计算结果
                 if (cacheFuture == null) {
+                    stats.recordMisses(1);
                     cacheFuture = task;
                     task.run();
+                } else {
+                    stats.recordHits(1);
                 }
+            } else {
+                stats.recordHits(1);
             }
             try {
                 // 获取结果并返回
@@ -50,4 +66,127 @@ public class Memoizer<A, V> implements Computable<A, V> {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量获取
+     *
+     * 其它线程正在计算的 key，共享它们的 Future；
+     * 剩下未命中的 key，如果 computer 是 BatchComputable，一次性交给 computeAll 计算，否则逐个计算。
+     * @param args key 集合
+     * @return key 到计算结果的映射，按 args 的迭代顺序排列
+     */
+    public Map<A, V> computeAll(Collection<? extends A> args) throws InterruptedException {
+        Map<A, Future<V>> futures = new LinkedHashMap<>();
+        // 由当前线程负责计算的 key
+        Map<A, CompletableFuture<V>> misses = new LinkedHashMap<>();
+        for (A arg : args) {
+            if (futures.containsKey(arg)) {
+                continue;
+            }
+            Future<V> cacheFuture = cache.get(arg);
+            if (cacheFuture == null) {
+                CompletableFuture<V> future = new CompletableFuture<>();
+                cacheFuture = cache.putIfAbsent(arg, future);
+                if (cacheFuture == null) {
+                    cacheFuture = future;
+                    misses.put(arg, future);
+                }
+            }
+            futures.put(arg, cacheFuture);
+        }
+        stats.recordHits(futures.size() - misses.size());
+        stats.recordMisses(misses.size());
+
+        if (!misses.isEmpty()) {
+            computeMisses(misses);
+        }
+
+        Map<A, V> result = new LinkedHashMap<>();
+        for (Map.Entry<A, Future<V>> entry : futures.entrySet()) {
+            A arg = entry.getKey();
+            Future<V> cacheFuture = entry.getValue();
+            try {
+                result.put(arg, cacheFuture.get());
+            } catch (CancellationException e) {
+                cache.remove(arg, cacheFuture);
+                result.put(arg, compute(arg));
+            } catch (ExecutionException e) {
+                throw LaunderThrowable.launderThrowable(e.getCause());
+            }
+        }
+        return result;
+    }
+
+    /** 计算未命中的 key，并完成对应的 Future */
+    private void computeMisses(Map<A, CompletableFuture<V>> misses) throws InterruptedException {
+        try {
+            if (computer instanceof BatchComputable) {
+                Map<A, V> values = loadAll(misses.keySet());
+                for (Map.Entry<A, CompletableFuture<V>> entry : misses.entrySet()) {
+                    A arg = entry.getKey();
+                    if (values.containsKey(arg)) {
+                        entry.getValue().complete(values.get(arg));
+                    } else {
+                        entry.getValue().complete(load(arg));
+                    }
+                }
+            } else {
+                // 逐个计算，每完成一个，等待它的线程就可以先返回
+                for (Map.Entry<A, CompletableFuture<V>> entry : misses.entrySet()) {
+                    try {
+                        entry.getValue().complete(load(entry.getKey()));
+                    } catch (RuntimeException e) {
+                        entry.getValue().completeExceptionally(e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // 取消还未完成的 Future，等待它们的线程会移除缓存并重新计算
+            for (Map.Entry<A, CompletableFuture<V>> entry : misses.entrySet()) {
+                if (entry.getValue().cancel(false)) {
+                    cache.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            throw e;
+        } catch (Throwable t) {
+            // 和 compute 一样，计算失败的结果也会留在缓存中
+            for (CompletableFuture<V> future : misses.values()) {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /** 调用 computer 计算，并记录加载耗时 */
+    private V load(A arg) throws InterruptedException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            V value = computer.compute(arg);
+            success = true;
+            return value;
+        } finally {
+            recordLoad(success, System.nanoTime() - start);
+        }
+    }
+
+    /** 调用 BatchComputable 批量计算，整批记为一次加载 */
+    private Map<A, V> loadAll(Collection<A> args) throws InterruptedException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Map<A, V> values = ((BatchComputable<A, V>) computer).computeAll(args);
+            success = true;
+            return values;
+        } finally {
+            recordLoad(success, System.nanoTime() - start);
+        }
+    }
+
+    private void recordLoad(boolean success, long loadTime) {
+        if (success) {
+            stats.recordLoadSuccess(loadTime);
+        } else {
+            stats.recordLoadFailure(loadTime);
+        }
+    }
+}
@@ -1,5 +1,14 @@
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -17,7 +26,7 @@ public class ProducerConsumer {
     static class FileCrawler implements Runnable {
         /** 文件阻塞队列 */
         private final BlockingQueue<File> fileQueue;
-        /** 文件过滤器 */
+        /** 文件过滤器（只用于文件，目录总是会被检索） */
         private final FileFilter fileFilter;
         /** 文件 */
         private final File root;
@@ -27,17 +36,7 @@ public class ProducerConsumer {
                            File root) {
             this.fileQueue = fileQueue;
             this.root = root;
-            this.fileFilter = new FileFilter() {
-                /**
-                 * 测试指定的抽象路径名是否应包含在路径名列表中
-                 * @param pathname 路径名
-                 * @return true/false
-                 */
-                @Override
-                public boolean accept(File pathname) {
-                    return pathname.isDirectory() || fileFilter.accept(pathname);
-                }
-            };
+            this.fileFilter = fileFilter;
         }
 
         /**
@@ -61,18 +60,34 @@ public class ProducerConsumer {
 
         /**
          * 文件检索(将文件添加到队列，文件夹忽略掉)
+         * DirectoryStream 逐个读取目录项，边读边放入队列，不会把整个目录读成数组；
+         * 每个目录项只读一次属性，就知道是不是目录；待检索的目录放在显式的栈中，目录再深也不会栈溢出
          * @param root 要被检索的文件
          */
         private void crawl(File root) throws InterruptedException {
-            // 获取一个抽象路径名数组(该路径对应可能是文件，也可能是文件夹)
-            File[] entries = root.listFiles(fileFilter);
-            if (entries != null) {
-                for (File entry : entries) {
-                    if (entry.isDirectory()) {              // 如果是路径，继续检索
-                        crawl(entry);
-                    } else if (!alreadyIndexed(entry)) {    // 文件未加入队列。将文件加入阻塞队列
-                        fileQueue.put(entry);
+            Deque<Path> dirs = new ArrayDeque<Path>();
+            dirs.push(root.toPath());
+            while (!dirs.isEmpty()) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dirs.pop())) {
+                    for (Path entry : entries) {
+                        BasicFileAttributes attrs;
+                        try {
+                            // 不跟随符号链接，避免目录循环
+                            attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException e) {
+                            continue;
+                        }
+                        if (attrs.isDirectory()) {                  // 如果是路径，稍后检索
+                            dirs.push(entry);
+                        } else {
+                            File file = entry.toFile();
+                            if (fileFilter.accept(file) && !alreadyIndexed(file)) {    // 文件未加入队列。将文件加入阻塞队列
+                                fileQueue.put(file);
+                            }
+                        }
                     }
+                } catch (IOException | DirectoryIteratorException e) {
+                    // 无法读取的目录，跳过
                 }
             }
         }
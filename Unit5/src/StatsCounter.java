@@ -0,0 +1,77 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存统计计数器
+ *
+ * 所有计数器都是 LongAdder：多个线程同时累加时分散到不同的 Cell 上，不会在热点路径上引入锁或 CAS 竞争。
+ * snapshot() 得到的是不可变的 CacheStats 快照；快照期间如果还有线程在累加，各个计数之间只保证近似一致。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class StatsCounter {
+    /** 加载耗时直方图的桶数：第 i 个桶统计耗时在 [2^(i-1), 2^i) 纳秒之间的加载 */
+    static final int HISTOGRAM_BUCKETS = 64;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder[] loadTimeHistogram = new LongAdder[HISTOGRAM_BUCKETS];
+
+    public StatsCounter() {
+        for (int i = 0; i < loadTimeHistogram.length; i++) {
+            loadTimeHistogram[i] = new LongAdder();
+        }
+    }
+
+    public void recordHits(int count) {
+        hitCount.add(count);
+    }
+
+    public void recordMisses(int count) {
+        missCount.add(count);
+    }
+
+    /** 加载成功 */
+    public void recordLoadSuccess(long loadTimeNanos) {
+        loadSuccessCount.increment();
+        recordLoadTime(loadTimeNanos);
+    }
+
+    /** 加载失败（抛出异常或被中断） */
+    public void recordLoadFailure(long loadTimeNanos) {
+        loadFailureCount.increment();
+        recordLoadTime(loadTimeNanos);
+    }
+
+    public void recordEviction() {
+        evictionCount.increment();
+    }
+
+    private void recordLoadTime(long nanos) {
+        nanos = Math.max(nanos, 0);
+        totalLoadTime.add(nanos);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(nanos), HISTOGRAM_BUCKETS - 1);
+        loadTimeHistogram[bucket].increment();
+    }
+
+    /** 当前统计数据的快照 */
+    public CacheStats snapshot() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = loadTimeHistogram[i].sum();
+        }
+        return new CacheStats(
+                hitCount.sum(),
+                missCount.sum(),
+                loadSuccessCount.sum(),
+                loadFailureCount.sum(),
+                totalLoadTime.sum(),
+                evictionCount.sum(),
+                histogram);
+    }
+}
@@ -0,0 +1,49 @@
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * LRU + TinyLFU 准入过滤
+ *
+ * 超出容量时，先按 LRU 找到候选淘汰者（victim），再比较新加入条目（candidate）和 victim 的访问频率：
+ * candidate 的频率更低时淘汰 candidate 本身，避免一次性的访问把热点数据挤出缓存。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@NotThreadSafe
+public class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+    private final LruPolicy<K> lru = new LruPolicy<>();
+    private final FrequencySketch sketch;
+
+    /**
+     * @param maximumSize 缓存最大条目数，用来确定频率统计的精度
+     */
+    public TinyLfuPolicy(long maximumSize) {
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public void recordInsert(K key) {
+        sketch.increment(key);
+        lru.recordInsert(key);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        sketch.increment(key);
+        lru.recordAccess(key);
+    }
+
+    @Override
+    public void recordRemoval(K key) {
+        // 频率信息保留在 sketch 中，key 再次加入时仍然有效
+        lru.recordRemoval(key);
+    }
+
+    @Override
+    public K selectVictim(K candidate) {
+        K victim = lru.eldest();
+        if (candidate == null || victim == null || candidate.equals(victim)) {
+            return victim;
+        }
+        // 新条目不比 victim 更“热”，拒绝准入
+        return sketch.frequency(candidate) < sketch.frequency(victim) ? candidate : victim;
+    }
+}
@@ -0,0 +1,26 @@
+/**
+ * 计算缓存条目的权重，用于按【总权重】限制缓存大小
+ * Created by osys on 2022/08/28 21:48.
+ */
+public interface Weigher<K, V> {
+    /**
+     * 计算条目的权重
+     * @param key 键
+     * @param value 计算结果
+     * @return 权重，必须 >= 0
+     */
+    int weigh(K key, V value);
+
+    /** 每个条目权重都为 1，此时【总权重】就是【条目数】 */
+    final class SingletonWeigher implements Weigher<Object, Object> {
+        static final SingletonWeigher INSTANCE = new SingletonWeigher();
+
+        private SingletonWeigher() {
+        }
+
+        @Override
+        public int weigh(Object key, Object value) {
+            return 1;
+        }
+    }
+}
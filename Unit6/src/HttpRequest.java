@@ -0,0 +1,222 @@
+import net.jcip.annotations.Immutable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 一个 HTTP/1.1 请求，以及在 ByteBuffer（通常是直接缓冲区）上解析请求的 parse 方法
+ *
+ * parse 只用绝对位置的 get(i) 读取字节，不把缓冲区复制到堆上，只有方法、路径会创建字符串。
+ * 解析的内容：请求行、Connection（决定是否保持连接）、Content-Length（跳过请求体，流水线中的下一个请求紧接在后面）。
+ * 不支持 Transfer-Encoding（分块的请求体），返回 501。
+ * 请求格式不对时，返回 error 不为 0 的请求，服务器用这个状态码响应并关闭连接。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@Immutable
+public final class HttpRequest {
+    /** 请求格式正确时为 0，否则为响应的状态码 */
+    public final int error;
+    public final String method;
+    public final String path;
+    /** HTTP/1.0 时为 false */
+    public final boolean http11;
+    /** 响应之后是否保持连接 */
+    public final boolean keepAlive;
+    public final int contentLength;
+
+    private HttpRequest(int error, String method, String path, boolean http11, boolean keepAlive, int contentLength) {
+        this.error = error;
+        this.method = method;
+        this.path = path;
+        this.http11 = http11;
+        this.keepAlive = keepAlive;
+        this.contentLength = contentLength;
+    }
+
+    static HttpRequest error(int status) {
+        return new HttpRequest(status, null, null, true, false, 0);
+    }
+
+    /**
+     * 从 buf 的 position 开始解析一个请求
+     * @param maxLength 请求（包括请求体）的最大长度
+     * @return 请求还不完整时返回 null，position 不变；否则 position 移到请求之后
+     */
+    public static HttpRequest parse(ByteBuffer buf, int maxLength) {
+        int start = buf.position();
+        int limit = buf.limit();
+        // 请求之间可以有空行
+        while (start < limit && (buf.get(start) == '\r' || buf.get(start) == '\n')) {
+            start++;
+        }
+        int headerEnd = headerEnd(buf, start, limit);
+        if (headerEnd < 0) {
+            if (limit - start >= maxLength) {
+                buf.position(limit);
+                return error(431);
+            }
+            // 跳过的空行不需要再看
+            buf.position(start);
+            return null;
+        }
+
+        // 请求行：方法 SP 路径 SP 版本
+        int lineEnd = indexOf(buf, start, headerEnd, '\n');
+        int sp1 = indexOf(buf, start, lineEnd, ' ');
+        int sp2 = indexOf(buf, sp1 + 1, lineEnd, ' ');
+        if (sp1 == start || sp2 >= lineEnd || sp2 == sp1 + 1) {
+            buf.position(headerEnd);
+            return error(400);
+        }
+        int versionEnd = trimEnd(buf, sp2 + 1, lineEnd);
+        boolean http11;
+        if (equalsAscii(buf, sp2 + 1, versionEnd, "HTTP/1.1")) {
+            http11 = true;
+        } else if (equalsAscii(buf, sp2 + 1, versionEnd, "HTTP/1.0")) {
+            http11 = false;
+        } else {
+            buf.position(headerEnd);
+            return error(505);
+        }
+
+        // 请求头
+        boolean close = false;
+        boolean keepAlive = false;
+        long contentLength = 0;
+        for (int line = lineEnd + 1; line < headerEnd; ) {
+            int end = indexOf(buf, line, headerEnd, '\n');
+            int colon = indexOf(buf, line, end, ':');
+            if (colon > line && colon < end) {
+                int valueStart = colon + 1;
+                while (valueStart < end && (buf.get(valueStart) == ' ' || buf.get(valueStart) == '\t')) {
+                    valueStart++;
+                }
+                int valueEnd = trimEnd(buf, valueStart, end);
+                if (equalsIgnoreCase(buf, line, colon, "Connection")) {
+                    close |= containsIgnoreCase(buf, valueStart, valueEnd, "close");
+                    keepAlive |= containsIgnoreCase(buf, valueStart, valueEnd, "keep-alive");
+                } else if (equalsIgnoreCase(buf, line, colon, "Content-Length")) {
+                    contentLength = parseLength(buf, valueStart, valueEnd);
+                    if (contentLength < 0) {
+                        buf.position(headerEnd);
+                        return error(400);
+                    }
+                } else if (equalsIgnoreCase(buf, line, colon, "Transfer-Encoding")) {
+                    buf.position(headerEnd);
+                    return error(501);
+                }
+            }
+            line = end + 1;
+        }
+        if (headerEnd - start + contentLength > maxLength) {
+            buf.position(limit);
+            return error(413);
+        }
+        if (headerEnd + contentLength > limit) {
+            // 请求体还没有收完
+            buf.position(start);
+            return null;
+        }
+        buf.position(headerEnd + (int) contentLength);
+        return new HttpRequest(0, ascii(buf, start, sp1), ascii(buf, sp1 + 1, sp2), http11,
+                http11 ? !close : keepAlive && !close, (int) contentLength);
+    }
+
+    /** 请求头结束（空行）之后的位置，没有找到时返回 -1；行尾可以是 CRLF 或者 LF */
+    private static int headerEnd(ByteBuffer buf, int start, int limit) {
+        for (int i = start; i < limit; i++) {
+            if (buf.get(i) == '\n') {
+                if (i + 1 < limit && buf.get(i + 1) == '\n') {
+                    return i + 2;
+                }
+                if (i + 2 < limit && buf.get(i + 1) == '\r' && buf.get(i + 2) == '\n') {
+                    return i + 3;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** 没有找到时返回 to */
+    private static int indexOf(ByteBuffer buf, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /** 去掉末尾的 CR、空白 */
+    private static int trimEnd(ByteBuffer buf, int from, int to) {
+        while (to > from && (buf.get(to - 1) == '\r' || buf.get(to - 1) == ' ' || buf.get(to - 1) == '\t')) {
+            to--;
+        }
+        return to;
+    }
+
+    private static boolean equalsAscii(ByteBuffer buf, int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buf.get(from + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean equalsIgnoreCase(ByteBuffer buf, int from, int to, String s) {
+        if (to - from != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (toLower(buf.get(from + i)) != Character.toLowerCase(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** s 是小写的 */
+    private static boolean containsIgnoreCase(ByteBuffer buf, int from, int to, String s) {
+        for (int i = from; i + s.length() <= to; i++) {
+            int j = 0;
+            while (j < s.length() && toLower(buf.get(i + j)) == s.charAt(j)) {
+                j++;
+            }
+            if (j == s.length()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    /** @return 不是数字或者太大时返回 -1 */
+    private static long parseLength(ByteBuffer buf, int from, int to) {
+        if (from == to || to - from > 18) {
+            return -1;
+        }
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            n = n * 10 + (b - '0');
+        }
+        return n;
+    }
+
+    private static String ascii(ByteBuffer buf, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) (buf.get(from + i) & 0xFF);
+        }
+        return new String(chars);
+    }
+}
@@ -2,6 +2,7 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -10,22 +11,65 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * 支持关闭操作的 Web 服务器
+ *
+ * 默认用 THREAD_NUM 个线程、队列长度 100 的线程池处理连接；也可以传入其他的 ExecutorService，
+ * 例如 Executors.newVirtualThreadPerTaskExecutor()，每个连接一个虚拟线程。
+ * 两种方式的生命周期相同：stop()（或者收到 /shutdown 请求）之后不再接受新的连接，
+ * 已经接受的连接继续处理完，awaitTermination() 等待它们结束。
+ * 运行：java LifecycleWebServer [端口，默认 80] [pool|virtual]
  * Created by osys on 2022/08/28 21:48.
  */
 public class LifecycleWebServer {
 
     private  int THREAD_NUM = 10;
     /** 创建执行器 */
-    private final ExecutorService exec = new ThreadPoolExecutor(THREAD_NUM, THREAD_NUM, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(100));
+    private final ExecutorService exec;
+    private volatile ServerSocket socket;
+
+    public LifecycleWebServer() {
+        this.exec = new ThreadPoolExecutor(THREAD_NUM, THREAD_NUM, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(100));
+    }
+
+    /** @param exec 处理连接的执行器，stop() 时关闭 */
+    public LifecycleWebServer(ExecutorService exec) {
+        this.exec = exec;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LifecycleWebServer server = "virtual".equals(SimpleHttp.mode(args, "pool"))
+                ? new LifecycleWebServer(Executors.newVirtualThreadPerTaskExecutor())
+                : new LifecycleWebServer();
+        server.start(new ServerSocket(SimpleHttp.port(args)));
+        server.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
 
     public void start() throws IOException {
         // 创建 socket 连接
-        ServerSocket socket = new ServerSocket(80);
+        start(new ServerSocket(80));
+    }
+
+    /** 在 socket 上接受连接，直到 stop() */
+    public void start(ServerSocket socket) throws IOException {
+        this.socket = socket;
+        if (exec.isShutdown()) {
+            // start 之前已经 stop()
+            socket.close();
+        }
         // ExecutorService 未关闭
         while (!exec.isShutdown()) {
+            final Socket conn;
             try {
                 // 接受Socket连接
-                final Socket conn = socket.accept();
+                conn = socket.accept();
+            } catch (IOException e) {
+                // stop() 关闭了 socket
+                if (exec.isShutdown()) {
+                    break;
+                }
+                throw e;
+            }
+            try {
                 // 向 ExecutorService 提交任务
                 exec.execute(new Runnable() {
                     @Override
@@ -37,12 +81,28 @@ public class LifecycleWebServer {
                 if (!exec.isShutdown()) {
                     log("任务提交被拒绝", e);
                 }
+                SimpleHttp.close(conn);
             }
         }
     }
 
+    /** 不再接受新的连接，已经接受的连接继续处理 */
     public void stop() {
         exec.shutdown();
+        ServerSocket s = socket;
+        if (s != null) {
+            try {
+                // 让 start() 中阻塞的 accept() 返回
+                s.close();
+            } catch (IOException e) {
+                log("关闭 ServerSocket 失败", e);
+            }
+        }
+    }
+
+    /** 等待 stop() 之后已经接受的连接处理完 */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return exec.awaitTermination(timeout, unit);
     }
 
     private void log(String msg, Exception e) {
@@ -51,25 +111,47 @@ public class LifecycleWebServer {
 
     /** 处理逻辑 */
     void handleRequest(Socket connection) {
-        Request req = readRequest(connection);
-        if (isShutdownRequest(req)) {
-            stop();
-        } else {
-            dispatchRequest(req);
+        try {
+            Request req = readRequest(connection);
+            if (isShutdownRequest(req)) {
+                SimpleHttp.respond(connection, 200, "shutting down\n");
+                stop();
+            } else {
+                dispatchRequest(req);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+            // 客户端断开、超时
+        } finally {
+            SimpleHttp.close(connection);
         }
     }
 
-    interface Request {
+    static final class Request {
+        final Socket connection;
+        /** 请求行格式不对时为 null */
+        final SimpleHttp.Request http;
+
+        Request(Socket connection, SimpleHttp.Request http) {
+            this.connection = connection;
+            this.http = http;
+        }
     }
 
-    private Request readRequest(Socket s) {
-        return null;
+    private Request readRequest(Socket s) throws IOException {
+        return new Request(s, SimpleHttp.read(s));
     }
 
-    private void dispatchRequest(Request r) {
+    private void dispatchRequest(Request r) throws IOException, InterruptedException {
+        if (r.http == null) {
+            SimpleHttp.respond(r.connection, 400, "bad request\n");
+        } else {
+            SimpleHttp.respond(r.connection, r.http);
+        }
     }
 
     private boolean isShutdownRequest(Request r) {
-        return false;
+        return r.http != null && r.http.path.equals("/shutdown");
     }
 }
@@ -0,0 +1,628 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 基于 NIO Selector 的 LifecycleWebServer
+ *
+ * LifecycleWebServer 每个连接占用一个线程做阻塞的读写，并发连接数受线程数限制；这里读写都是非阻塞的：
+ * 1. selectorThreads 个 EventLoop 线程，每个线程一个 Selector。第一个 EventLoop 同时接受连接，按轮询分给各个 EventLoop，
+ *    之后这个连接的读、解析、写都只在它所属的 EventLoop 线程中进行，连接的状态不需要同步
+ * 2. 读到的数据放在 EventLoop 共用的直接缓冲区中，由 HttpRequest.parse 直接在缓冲区上解析；
+ *    只有不完整的请求剩下的字节才复制到连接自己的直接缓冲区（从 EventLoop 的缓冲区池中取，用完归还），
+ *    空闲的保持连接不占用缓冲区，上万个连接也只需要几个线程和很少的内存
+ * 3. HTTP/1.1 保持连接（keep-alive）和流水线（pipelining）：一个连接上可以连续发送多个请求，
+ *    解析出的请求排队（最多 MAX_PIPELINED 个，满了就暂停读），按顺序处理，响应的顺序和请求相同
+ * 4. dispatchRequest 可能阻塞（访问数据库、文件），在 workers 线程池中执行，不阻塞 EventLoop；
+ *    一个连接同时只有一个请求在 workers 中，workers 的队列长度不超过连接数
+ * 5. 超时：连接超过 idleTimeout 没有读到、也没有写出数据就关闭，包括空闲的保持连接、请求只发了一半的连接、
+ *    不读响应的客户端，同时释放它们保存不完整请求的缓冲区；请求在 workers 中处理的时间不算。
+ *    EventLoop 用 select(timeout) 定期检查，连接最晚在超时之后再过 idleTimeout / 4 关闭
+ * 生命周期和 LifecycleWebServer 相同：stop()（或者收到 /shutdown 请求）之后不再接受新的连接、不再读新的请求，
+ * 已经收到的请求处理完、响应写完后关闭连接；所有连接都关闭后 EventLoop 退出，workers 关闭。
+ * 运行：java NioLifecycleWebServer [端口，默认 80] [pool|virtual] [selector 线程数，默认 CPU 数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class NioLifecycleWebServer {
+    private static final int THREAD_NUM = 10;
+    private static final int BACKLOG = 1024;
+    /** 请求（请求行 + 请求头 + 请求体）的最大长度，也是读缓冲区的大小 */
+    private static final int MAX_REQUEST = 8 * 1024;
+    /** 每个连接最多排队的流水线请求数，超过时暂停读这个连接 */
+    private static final int MAX_PIPELINED = 16;
+    /** 每个 EventLoop 的缓冲区池最多保留的缓冲区数 */
+    private static final int MAX_POOLED_BUFFERS = 256;
+    /** 默认的连接超时，和 SimpleHttp 读请求的超时相同 */
+    private static final long IDLE_TIMEOUT_MILLIS = 10_000;
+
+    /** 执行 dispatchRequest */
+    private final ExecutorService workers;
+    private final long idleTimeoutNanos;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger runningLoops = new AtomicInteger();
+    private final CountDownLatch loopsExited = new CountDownLatch(1);
+    private volatile ServerSocketChannel server;
+    private volatile boolean stopping;
+
+    /** CPU 数个 EventLoop，THREAD_NUM 个线程执行 dispatchRequest */
+    public NioLifecycleWebServer() {
+        this(Runtime.getRuntime().availableProcessors(), Executors.newFixedThreadPool(THREAD_NUM));
+    }
+
+    /**
+     * @param selectorThreads EventLoop 线程数
+     * @param workers         执行 dispatchRequest 的执行器，所有连接都关闭后关闭
+     */
+    public NioLifecycleWebServer(int selectorThreads, ExecutorService workers) {
+        this(selectorThreads, workers, IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param selectorThreads EventLoop 线程数
+     * @param workers         执行 dispatchRequest 的执行器，所有连接都关闭后关闭
+     * @param idleTimeout     连接多久没有读写就关闭
+     */
+    public NioLifecycleWebServer(int selectorThreads, ExecutorService workers, long idleTimeout, TimeUnit unit) {
+        if (selectorThreads <= 0) {
+            throw new IllegalArgumentException("selectorThreads " + selectorThreads);
+        }
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("idleTimeout " + idleTimeout);
+        }
+        this.workers = workers;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.loops = new EventLoop[selectorThreads];
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ExecutorService workers = "virtual".equals(SimpleHttp.mode(args, "pool"))
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(THREAD_NUM);
+        int selectorThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        NioLifecycleWebServer server = new NioLifecycleWebServer(selectorThreads, workers);
+        server.start(ServerSocketChannel.open().bind(new InetSocketAddress(SimpleHttp.port(args)), BACKLOG));
+        server.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    public void start() throws IOException, InterruptedException {
+        start(ServerSocketChannel.open().bind(new InetSocketAddress(80), BACKLOG));
+    }
+
+    /** 在 channel 上接受连接，直到 stop() 之后所有连接都关闭 */
+    public void start(ServerSocketChannel channel) throws IOException, InterruptedException {
+        channel.configureBlocking(false);
+        synchronized (this) {
+            if (server != null) {
+                throw new IllegalStateException("already started");
+            }
+            server = channel;
+            runningLoops.set(loops.length);
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new EventLoop(i);
+            }
+        }
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+        loopsExited.await();
+    }
+
+    /** 不再接受新的连接，已经收到的请求继续处理 */
+    public void stop() {
+        stopping = true;
+        synchronized (this) {
+            for (EventLoop loop : loops) {
+                if (loop != null) {
+                    loop.selector.wakeup();
+                }
+            }
+        }
+    }
+
+    /** 等待 stop() 之后所有连接关闭、workers 中的任务结束 */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        long start = System.nanoTime();
+        if (!loopsExited.await(nanos, TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        return workers.awaitTermination(nanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+    }
+
+    private void log(String msg, Exception e) {
+        Logger.getAnonymousLogger().log(Level.WARNING, msg, e);
+    }
+
+    /** 处理逻辑，在 workers 中执行 */
+    Response handleRequest(HttpRequest req) {
+        try {
+            if (isShutdownRequest(req)) {
+                stop();
+                return new Response(200, "shutting down\n");
+            }
+            return dispatchRequest(req);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Response(503, "service unavailable\n");
+        } catch (RuntimeException e) {
+            log("处理请求失败", e);
+            return new Response(500, "internal server error\n");
+        }
+    }
+
+    private Response dispatchRequest(HttpRequest r) throws InterruptedException {
+        return SimpleHttp.work(r.path) ? new Response(200, "ok\n") : new Response(400, "bad request\n");
+    }
+
+    private boolean isShutdownRequest(HttpRequest r) {
+        return r.path.equals("/shutdown");
+    }
+
+    /** 响应：状态码和正文（text/plain） */
+    static final class Response {
+        final int status;
+        final byte[] body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        ByteBuffer encode(boolean keepAlive) {
+            byte[] head = ("HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                    + "Content-Type: text/plain; charset=utf-8\r\n"
+                    + "Content-Length: " + body.length + "\r\n"
+                    + (keepAlive ? "" : "Connection: close\r\n") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            ByteBuffer buf = ByteBuffer.allocate(head.length + body.length);
+            buf.put(head).put(body);
+            buf.flip();
+            return buf;
+        }
+
+        private static String reason(int status) {
+            switch (status) {
+                case 200:
+                    return "OK";
+                case 400:
+                    return "Bad Request";
+                case 413:
+                    return "Payload Too Large";
+                case 431:
+                    return "Request Header Fields Too Large";
+                case 500:
+                    return "Internal Server Error";
+                case 501:
+                    return "Not Implemented";
+                case 503:
+                    return "Service Unavailable";
+                case 505:
+                    return "HTTP Version Not Supported";
+                default:
+                    return "Unknown";
+            }
+        }
+    }
+
+    /** 一个 Selector 线程，它的连接只在这个线程中读写 */
+    private final class EventLoop extends Thread {
+        final Selector selector;
+        /** 读缓冲区，这个线程的所有连接共用 */
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(MAX_REQUEST);
+        /** 连接自己的缓冲区（保存不完整的请求）的池 */
+        private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<ByteBuffer>();
+        /** 其他线程交给这个线程执行的任务：注册新的连接、写响应 */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final List<Connection> connections = new ArrayList<Connection>();
+        private SelectionKey serverKey;
+        /** 下一次检查超时的时间（nanoTime） */
+        private long nextSweep;
+
+        EventLoop(int index) throws IOException {
+            super("NioLifecycleWebServer-selector-" + index);
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (this == loops[0]) {
+                    serverKey = server.register(selector, SelectionKey.OP_ACCEPT);
+                }
+                long sweepInterval = Math.max(idleTimeoutNanos / 4, 1);
+                nextSweep = System.nanoTime() + sweepInterval;
+                while (true) {
+                    if (stopping && drain()) {
+                        break;
+                    }
+                    long wait = nextSweep - System.nanoTime();
+                    if (wait > 0) {
+                        // select(0) 是一直等待，至少等 1 毫秒
+                        selector.select(Math.max(TimeUnit.NANOSECONDS.toMillis(wait), 1));
+                    } else {
+                        selector.selectNow();
+                    }
+                    long now = System.nanoTime();
+                    if (now - nextSweep >= 0) {
+                        closeTimedOut(now);
+                        nextSweep = now + sweepInterval;
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key == serverKey) {
+                            accept();
+                        } else {
+                            ((Connection) key.attachment()).ready(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log("EventLoop 失败", e);
+            } finally {
+                for (Connection c : new ArrayList<Connection>(connections)) {
+                    c.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+                if (runningLoops.decrementAndGet() == 0) {
+                    workers.shutdown();
+                    loopsExited.countDown();
+                }
+            }
+        }
+
+        /**
+         * stop() 之后：关闭 ServerSocketChannel、空闲的连接，其他连接不再读
+         * @return 所有连接都已关闭
+         */
+        private boolean drain() throws IOException {
+            if (serverKey != null) {
+                serverKey.cancel();
+                server.close();
+                serverKey = null;
+            }
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+            for (Connection c : new ArrayList<Connection>(connections)) {
+                if (c.isIdle()) {
+                    c.close();
+                } else {
+                    c.updateInterest();
+                }
+            }
+            return connections.isEmpty();
+        }
+
+        /** 关闭超时的连接 */
+        private void closeTimedOut(long now) {
+            // 从后往前：close() 把连接从 connections 中删除
+            for (int i = connections.size() - 1; i >= 0; i--) {
+                Connection c = connections.get(i);
+                if (c.isTimedOut(now)) {
+                    c.close();
+                }
+            }
+        }
+
+        private void accept() {
+            SocketChannel channel;
+            while (true) {
+                try {
+                    channel = server.accept();
+                    if (channel == null) {
+                        return;
+                    }
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                } catch (IOException e) {
+                    // 例如文件描述符用完了，等下一次 select
+                    log("接受连接失败", e);
+                    return;
+                }
+                final SocketChannel accepted = channel;
+                final EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+                if (loop == this) {
+                    register(accepted);
+                } else {
+                    loop.execute(new Runnable() {
+                        public void run() {
+                            loop.register(accepted);
+                        }
+                    });
+                }
+            }
+        }
+
+        void register(SocketChannel channel) {
+            if (stopping) {
+                closeQuietly(channel);
+                return;
+            }
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                Connection c = new Connection(this, channel, key);
+                key.attach(c);
+                connections.add(c);
+            } catch (ClosedChannelException e) {
+                closeQuietly(channel);
+            }
+        }
+
+        ByteBuffer takeBuffer() {
+            ByteBuffer buf = bufferPool.poll();
+            return buf != null ? buf : ByteBuffer.allocateDirect(MAX_REQUEST);
+        }
+
+        void releaseBuffer(ByteBuffer buf) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                buf.clear();
+                bufferPool.push(buf);
+            }
+        }
+
+        void removed(Connection c) {
+            connections.remove(c);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** 一个连接的状态，只由它的 EventLoop 线程访问 */
+    private final class Connection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        /** 还没有解析的字节（写模式），没有时为 null */
+        private ByteBuffer partial;
+        /** 已经解析、还没有响应的请求，队首的请求可能正在 workers 中处理 */
+        private final ArrayDeque<HttpRequest> requests = new ArrayDeque<HttpRequest>();
+        private boolean dispatching;
+        /** 正在写的响应 */
+        private ByteBuffer output;
+        private boolean closeAfterOutput;
+        /** 客户端关闭了连接的写端：不再读，已经收到的请求继续处理 */
+        private boolean eof;
+        /** 请求格式不对、或者请求要求响应后关闭连接：之后收到的字节都丢弃 */
+        private boolean discardInput;
+        private boolean closed;
+        /** 上一次读到、写出数据（或者 workers 返回响应）的时间（nanoTime） */
+        private long lastActivity;
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+            this.lastActivity = System.nanoTime();
+        }
+
+        /** 超过 idleTimeout 没有读写，并且没有请求在 workers 中处理 */
+        boolean isTimedOut(long now) {
+            return !dispatching && now - lastActivity > idleTimeoutNanos;
+        }
+
+        void ready(SelectionKey key) {
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    write();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                // 客户端断开
+                close();
+            }
+        }
+
+        private void read() throws IOException {
+            ByteBuffer data;
+            int n;
+            if (partial != null) {
+                n = channel.read(partial);
+                data = partial;
+            } else {
+                data = loop.readBuffer;
+                data.clear();
+                n = channel.read(data);
+            }
+            if (n < 0) {
+                eof = true;
+            } else if (n > 0) {
+                lastActivity = System.nanoTime();
+            }
+            data.flip();
+            parse(data);
+            keep(data);
+            afterInput();
+        }
+
+        /** 解析 data 中完整的请求，加入队列 */
+        private void parse(ByteBuffer data) {
+            while (requests.size() < MAX_PIPELINED && data.hasRemaining() && !discardInput) {
+                HttpRequest req = HttpRequest.parse(data, MAX_REQUEST);
+                if (req == null) {
+                    break;
+                }
+                requests.add(req);
+                if (req.error != 0 || !req.keepAlive) {
+                    // 之后的字节不再处理
+                    discardInput = true;
+                }
+            }
+        }
+
+        /** data 中还没有解析的字节保存到 partial 中 */
+        private void keep(ByteBuffer data) {
+            if (discardInput || !data.hasRemaining()) {
+                releasePartial();
+                return;
+            }
+            if (data == partial) {
+                partial.compact();
+            } else {
+                partial = loop.takeBuffer();
+                partial.put(data);
+            }
+        }
+
+        private void releasePartial() {
+            if (partial != null) {
+                loop.releaseBuffer(partial);
+                partial = null;
+            }
+        }
+
+        /** 读到新的请求、或者写完一个响应之后：处理下一个请求，更新关注的事件 */
+        private void afterInput() {
+            dispatchNext();
+            if (!closed) {
+                if (isIdle() && (eof || discardInput || stopping)) {
+                    close();
+                } else {
+                    updateInterest();
+                }
+            }
+        }
+
+        boolean isIdle() {
+            return requests.isEmpty() && !dispatching && output == null;
+        }
+
+        void updateInterest() {
+            int ops = 0;
+            if (!eof && !discardInput && !stopping && requests.size() < MAX_PIPELINED) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (output != null) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (key.isValid()) {
+                key.interestOps(ops);
+            }
+        }
+
+        /** 队首的请求交给 workers 处理，处理完后回到 EventLoop 写响应 */
+        private void dispatchNext() {
+            if (closed || dispatching || output != null || requests.isEmpty()) {
+                return;
+            }
+            final HttpRequest req = requests.peek();
+            if (req.error != 0) {
+                respond(new Response(req.error, "error " + req.error + "\n"), false);
+                return;
+            }
+            dispatching = true;
+            try {
+                workers.execute(new Runnable() {
+                    public void run() {
+                        final Response resp = handleRequest(req);
+                        loop.execute(new Runnable() {
+                            public void run() {
+                                dispatching = false;
+                                respond(resp, req.keepAlive);
+                            }
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                dispatching = false;
+                respond(new Response(503, "service unavailable\n"), false);
+            }
+        }
+
+        private void respond(Response resp, boolean keepAlive) {
+            if (closed) {
+                return;
+            }
+            requests.poll();
+            // 从现在开始计算写响应的超时
+            lastActivity = System.nanoTime();
+            // stop() 之后，已经收到的请求处理完就关闭连接
+            boolean last = !keepAlive || (stopping && requests.isEmpty());
+            output = resp.encode(!last);
+            closeAfterOutput = last;
+            try {
+                write();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void write() throws IOException {
+            if (channel.write(output) > 0) {
+                lastActivity = System.nanoTime();
+            }
+            if (output.hasRemaining()) {
+                updateInterest();
+                return;
+            }
+            output = null;
+            if (closeAfterOutput) {
+                close();
+                return;
+            }
+            // 暂停读时缓存的请求
+            if (partial != null && partial.position() > 0 && requests.size() < MAX_PIPELINED) {
+                partial.flip();
+                parse(partial);
+                keep(partial);
+            }
+            afterInput();
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            closeQuietly(channel);
+            releasePartial();
+            loop.removed(this);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 几个 WebServer 共用的最简单的 HTTP 处理：每个连接一个请求，响应之后关闭连接（Connection: close）
+ *
+ * 只读请求行和请求头，不读请求体。请求 /sleep/N 时先 sleep N 毫秒再响应，模拟阻塞的后端调用（数据库、其他服务），
+ * WebServerBenchmark 用它比较各个服务器的线程模型：处理一个请求的大部分时间都阻塞着，并发连接数取决于能有多少个线程在阻塞。
+ * Created by osys on 2022/08/28 21:48.
+ */
+final class SimpleHttp {
+    /** 请求行 + 请求头的最大长度 */
+    private static final int MAX_HEADER = 8 * 1024;
+    /** 读请求的超时时间，客户端不发请求时不会一直占着线程 */
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+    private static final String SLEEP = "/sleep/";
+
+    private SimpleHttp() {
+    }
+
+    /** 一个请求：请求行中的方法和路径 */
+    static final class Request {
+        final String method;
+        final String path;
+
+        Request(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+    }
+
+    /** 读请求、处理、响应、关闭连接，I/O 异常时只关闭连接 */
+    static void serve(Socket connection) {
+        try {
+            Request request = read(connection);
+            if (request != null) {
+                respond(connection, request);
+            } else {
+                respond(connection, 400, "bad request\n");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ignored) {
+            // 客户端断开、超时
+        } finally {
+            close(connection);
+        }
+    }
+
+    /**
+     * 读请求行和请求头
+     * @return 请求行格式不对、请求头太长、或者客户端没发请求就关闭了连接时返回 null
+     */
+    static Request read(Socket connection) throws IOException {
+        connection.setSoTimeout(READ_TIMEOUT_MILLIS);
+        InputStream in = new BufferedInputStream(connection.getInputStream());
+        StringBuilder line = new StringBuilder();
+        String requestLine = null;
+        int total = 0;
+        for (int b; (b = in.read()) != -1; ) {
+            if (++total > MAX_HEADER) {
+                return null;
+            }
+            if (b == '\n') {
+                int end = line.length() > 0 && line.charAt(line.length() - 1) == '\r' ? line.length() - 1 : line.length();
+                if (end == 0) {
+                    // 请求头结束
+                    break;
+                }
+                if (requestLine == null) {
+                    requestLine = line.substring(0, end);
+                }
+                line.setLength(0);
+            } else {
+                line.append((char) b);
+            }
+        }
+        if (requestLine == null) {
+            return null;
+        }
+        String[] parts = requestLine.split(" ");
+        return parts.length == 3 ? new Request(parts[0], parts[1]) : null;
+    }
+
+    /** 处理请求：/sleep/N 先 sleep N 毫秒，然后响应 200 */
+    static void respond(Socket connection, Request request) throws IOException, InterruptedException {
+        if (work(request.path)) {
+            respond(connection, 200, "ok\n");
+        } else {
+            respond(connection, 400, "bad request\n");
+        }
+    }
+
+    /**
+     * 处理请求的工作：路径是 /sleep/N 时 sleep N 毫秒
+     * @return N 不是数字或者是负数时返回 false
+     */
+    static boolean work(String path) throws InterruptedException {
+        if (path.startsWith(SLEEP)) {
+            long millis;
+            try {
+                millis = Long.parseLong(path.substring(SLEEP.length()));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (millis < 0) {
+                return false;
+            }
+            Thread.sleep(millis);
+        }
+        return true;
+    }
+
+    static void respond(Socket connection, int status, String body) throws IOException {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + (status == 200 ? " OK" : " Bad Request") + "\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        OutputStream out = connection.getOutputStream();
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(content);
+        out.flush();
+    }
+
+    static void close(Socket connection) {
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /** 命令行参数中的端口号，没有时用 80 */
+    static int port(String[] args) {
+        return args.length > 0 ? Integer.parseInt(args[0]) : 80;
+    }
+
+    /** 命令行参数中的线程模式，没有时用 defaultMode */
+    static String mode(String[] args, String defaultMode) {
+        return args.length > 1 ? args[1] : defaultMode;
+    }
+}
@@ -3,11 +3,12 @@ import java.net.ServerSocket;
 import java.net.Socket;
 
 /**
+ * 运行：java SingleThreadWebServer [端口，默认 80]
  * Created by osys on 2022/08/28 21:48.
  */
 public class SingleThreadWebServer {
     public static void main(String[] args) throws IOException {
-        ServerSocket socket = new ServerSocket(80);
+        ServerSocket socket = new ServerSocket(SimpleHttp.port(args));
         // 顺序执行，接受连接，处理连接
         while (true) {
             Socket connection = socket.accept();
@@ -17,5 +18,6 @@ public class SingleThreadWebServer {
 
     private static void handleRequest(Socket connection) {
         // 处理逻辑
+        SimpleHttp.serve(connection);
     }
 }
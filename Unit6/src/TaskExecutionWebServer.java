@@ -2,21 +2,28 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * 线程池（默认）：最多 THEAD_NUM 个连接同时处理，再有 100 个在队列中等待，更多的连接被拒绝。
+ * 虚拟线程（virtual，JDK 21）：每个连接一个虚拟线程，没有线程数、队列长度的限制。
+ * 运行：java TaskExecutionWebServer [端口，默认 80] [pool|virtual]
  * Created by osys on 2022/08/28 21:48.
  */
 public class TaskExecutionWebServer {
     /** 线程数 */
     private static final int THEAD_NUM = 100;
-    /** 线程池 */
-    private static final Executor EXEC = new ThreadPoolExecutor(THEAD_NUM, THEAD_NUM, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(100));
 
     public static void main(String[] args) throws IOException {
-        ServerSocket socket = new ServerSocket(80);
+        // 线程池
+        Executor exec = "virtual".equals(SimpleHttp.mode(args, "pool"))
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : new ThreadPoolExecutor(THEAD_NUM, THEAD_NUM, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(100));
+        ServerSocket socket = new ServerSocket(SimpleHttp.port(args));
         while (true) {
             final Socket connection = socket.accept();
             Runnable task = new Runnable() {
@@ -25,7 +32,12 @@ public class TaskExecutionWebServer {
                     handleRequest(connection);
                 }
             };
-            EXEC.execute(task);
+            try {
+                exec.execute(task);
+            } catch (RejectedExecutionException e) {
+                // 线程池的队列满了
+                SimpleHttp.close(connection);
+            }
         }
     }
 
@@ -35,5 +47,6 @@ public class TaskExecutionWebServer {
      */
     private static void handleRequest(Socket connection) {
         // 处理逻辑
+        SimpleHttp.serve(connection);
     }
 }
@@ -3,11 +3,17 @@ import java.net.ServerSocket;
 import java.net.Socket;
 
 /**
+ * 每个连接一个线程
+ *
+ * 平台线程（默认）：每个线程都有自己的栈，线程数多了会耗尽内存、调度开销很大，能同时处理的连接数有限。
+ * 虚拟线程（virtual，JDK 21）：阻塞在 I/O 上时不占用平台线程，每个连接一个线程也可以有大量的并发连接。
+ * 运行：java ThreadPerTaskWebServer [端口，默认 80] [platform|virtual]
  * Created by osys on 2022/08/28 21:48.
  */
 public class ThreadPerTaskWebServer {
     public static void main(String[] args) throws IOException {
-        ServerSocket socket = new ServerSocket(80);
+        boolean virtual = "virtual".equals(SimpleHttp.mode(args, "platform"));
+        ServerSocket socket = new ServerSocket(SimpleHttp.port(args));
         // 并发处理请求
         while (true) {
             final Socket connection = socket.accept();
@@ -17,11 +23,16 @@ public class ThreadPerTaskWebServer {
                     handleRequest(connection);
                 }
             };
-            new Thread(task).start();
+            if (virtual) {
+                Thread.ofVirtual().start(task);
+            } else {
+                new Thread(task).start();
+            }
         }
     }
 
     private static void handleRequest(Socket connection) {
         // 处理逻辑
+        SimpleHttp.serve(connection);
     }
 }
@@ -4,12 +4,13 @@ import java.net.Socket;
 import java.util.concurrent.Executor;
 
 /**
+ * 运行：java ThreadPerTaskWebServer2 [端口，默认 80]
  * Created by osys on 2022/08/28 21:48.
  */
 public class ThreadPerTaskWebServer2 implements Executor {
 
     public static void main(String[] args) throws IOException {
-        ServerSocket socket = new ServerSocket(80);
+        ServerSocket socket = new ServerSocket(SimpleHttp.port(args));
         // 并发处理请求
         while (true) {
             final Socket connection = socket.accept();
@@ -26,6 +27,7 @@ public class ThreadPerTaskWebServer2 implements Executor {
 
     private static void handleRequest(Socket connection) {
         // 处理逻辑
+        SimpleHttp.serve(connection);
     }
 
     @Override
@@ -0,0 +1,501 @@
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * 内存中的倒排索引：词 -> 包含这个词的文件
+ *
+ * 1. 读取：小文件读到线程私有的直接缓冲区，大文件映射到内存，都不需要把内容复制到 Java 堆中
+ * 2. 分词：连续的 ASCII 字母、数字组成词，ASCII 字母转成小写；非 ASCII 的字母、数字（中文等）每个字符单独作为一个词，
+ *    其他字符（标点、空白、不完整的 UTF-8 序列）都是分隔符。中文按字索引，查询"中文"就是同时包含"中"和"文"的文件。
+ *    逐字节扫描，词的字节在线程私有的开放寻址哈希表中查找，不为每个词创建 String
+ * 3. 每个索引线程先把倒排表攒在自己的 Partial 中（不需要同步），攒够了或者 flush() 时才合并到共享的索引，
+ *    合并时每个不同的词才创建一次 String
+ * 4. 查询不加锁：共享索引是 ConcurrentHashMap，每个词的倒排表是写时复制的数组，合并只会追加
+ * 文件在合并之后才能被查询到。重新索引、删除的文件不从倒排表中删除，查询时按文件编号过滤掉。
+ * 文件编号按开始索引的顺序分配，同一个路径编号大的内容优先：合并的顺序和索引的顺序不同时，旧内容不会覆盖新内容；
+ * 删除时记下当时的编号（墓碑），删除之前开始索引、还攒在 Partial 中的内容合并时被丢弃，不会在删除之后又被查询到。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class ContentIndex {
+    /** 超过这个长度的 ASCII 词（大多是二进制内容）不索引 */
+    private static final int MAX_TOKEN = 64;
+    /** 不超过这个大小的文件读到直接缓冲区，更大的文件映射到内存 */
+    private static final int READ_BUFFER = 64 * 1024;
+    private static final int MAP_CHUNK = 1 << 30;
+    /** 线程私有的倒排表攒了这么多项就合并到共享索引 */
+    private static final int FLUSH_POSTINGS = 256 * 1024;
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final ConcurrentHashMap<String, Postings> terms = new ConcurrentHashMap<String, Postings>();
+    /** 路径 -> 最新的文件编号 */
+    private final ConcurrentHashMap<String, Integer> docIds = new ConcurrentHashMap<String, Integer>();
+    /** 可以被查询到的文件编号 -> 路径 */
+    private final ConcurrentHashMap<Integer, String> docPaths = new ConcurrentHashMap<Integer, String>();
+    /** 删除的路径 -> 删除时的 nextDoc，编号比它小的内容都是删除之前的；这个路径再次被索引、合并时去掉 */
+    private final ConcurrentHashMap<String, Integer> removed = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger nextDoc = new AtomicInteger();
+    private final ThreadLocal<Partial> partials = new ThreadLocal<Partial>() {
+        @Override
+        protected Partial initialValue() {
+            return new Partial(1024);
+        }
+    };
+
+    /**
+     * 索引文件的内容（放入当前线程的 Partial 中）；同一个路径再次索引时，合并之后代替之前的内容
+     */
+    public void add(File file) throws IOException {
+        Partial p = partials.get();
+        int doc = nextDoc.getAndIncrement();
+        p.startDocument(doc);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size <= READ_BUFFER) {
+                ByteBuffer buf = p.readBuffer();
+                buf.clear();
+                while (buf.hasRemaining() && channel.read(buf) >= 0) {
+                }
+                buf.flip();
+                p.scan(buf);
+            } else {
+                for (long offset = 0; offset < size; offset += MAP_CHUNK) {
+                    // 词可以跨过两次映射的边界，Partial 记着扫描到一半的词
+                    p.scan(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAP_CHUNK, size - offset)));
+                }
+            }
+            p.endToken();
+        } finally {
+            channel.close();
+        }
+        p.endDocument(file.getPath());
+        if (p.postingCount >= FLUSH_POSTINGS) {
+            merge(p);
+        }
+    }
+
+    /** 把当前线程攒下的倒排表合并到共享索引，之后这些文件才能被查询到 */
+    public void flush() {
+        Partial p = partials.get();
+        if (p.pendingCount > 0) {
+            merge(p);
+        }
+    }
+
+    /** 删除文件：之后的查询不再返回它，删除之前开始的 add 合并之后也不会 */
+    public void remove(File file) {
+        final Integer watermark = nextDoc.get();
+        // 和 merge 一样在 docIds 的 compute 中修改，同一个路径的删除、合并不会交错
+        docIds.compute(file.getPath(), new BiFunction<String, Integer, Integer>() {
+            @Override
+            public Integer apply(String path, Integer old) {
+                removed.put(path, watermark);
+                if (old != null) {
+                    docPaths.remove(old);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 查询同时包含所有词的文件，可以和索引同时进行
+     * @param query 按和文件内容相同的规则分词
+     */
+    public List<String> search(String query) {
+        List<String> words = tokenize(query);
+        if (words.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<int[]> lists = new ArrayList<int[]>(words.size());
+        for (String word : words) {
+            Postings postings = terms.get(word);
+            if (postings == null) {
+                return Collections.emptyList();
+            }
+            lists.add(postings.snapshot());
+        }
+        // 从最短的倒排表开始求交集
+        Collections.sort(lists, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a.length, b.length);
+            }
+        });
+        int[] result = lists.get(0);
+        int n = result.length;
+        Arrays.sort(result);
+        for (int i = 1; i < lists.size() && n > 0; i++) {
+            int[] docs = lists.get(i);
+            Arrays.sort(docs);
+            n = intersect(result, n, docs);
+        }
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            String path = docPaths.get(result[i]);
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /** 可以被查询到的文件数 */
+    public int documentCount() {
+        return docPaths.size();
+    }
+
+    /** 不同的词数 */
+    public int termCount() {
+        return terms.size();
+    }
+
+    /** 按索引时的规则分词 */
+    static List<String> tokenize(String text) {
+        Partial p = new Partial(16);
+        p.startDocument(0);
+        p.scan(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        p.endToken();
+        List<String> words = new ArrayList<String>(p.terms);
+        for (int id = 0; id < p.terms; id++) {
+            words.add(p.term(id));
+        }
+        return words;
+    }
+
+    /** 有序数组 a[0, n) 和 b 的交集放回 a 的开头，返回交集的大小 */
+    private static int intersect(int[] a, int n, int[] b) {
+        int i = 0, j = 0, k = 0;
+        while (i < n && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[k++] = a[i++];
+                j++;
+            }
+        }
+        return k;
+    }
+
+    /** 先合并倒排表，再让文件可以被查询到 */
+    private void merge(Partial p) {
+        for (int id = 0; id < p.terms; id++) {
+            if (p.counts[id] == 0) {
+                continue;
+            }
+            String term = p.term(id);
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                Postings created = new Postings();
+                postings = terms.putIfAbsent(term, created);
+                if (postings == null) {
+                    postings = created;
+                }
+            }
+            postings.append(p.postings[id], p.counts[id]);
+        }
+        for (int i = 0; i < p.pendingCount; i++) {
+            publish(p.pendingDocs[i], p.pendingPaths[i]);
+        }
+        p.reset();
+    }
+
+    /** 让文件编号 doc 可以被查询到，除非这个路径已经有更新的内容，或者在开始索引 doc 之后被删除了 */
+    private void publish(final int doc, String path) {
+        docIds.compute(path, new BiFunction<String, Integer, Integer>() {
+            @Override
+            public Integer apply(String path, Integer old) {
+                Integer watermark = removed.get(path);
+                if (watermark != null) {
+                    if (doc < watermark) {
+                        return old;
+                    }
+                    // 比墓碑更早的内容即使还没合并，也会因为编号比 doc 小而被丢弃
+                    removed.remove(path);
+                }
+                if (old != null && old > doc) {
+                    return old;
+                }
+                docPaths.put(doc, path);
+                if (old != null) {
+                    docPaths.remove(old);
+                }
+                return doc;
+            }
+        });
+    }
+
+    /**
+     * 一个词的倒排表：只追加，写时复制
+     * 写者先写入元素、再写 size；读者先读 size、再读 docs，读到的数组中至少有 size 个有效元素
+     */
+    private static final class Postings {
+        private volatile int[] docs = new int[4];
+        private volatile int size;
+
+        synchronized void append(int[] add, int n) {
+            int s = size;
+            int[] d = docs;
+            if (s + n > d.length) {
+                d = Arrays.copyOf(d, Math.max(d.length * 2, s + n));
+                System.arraycopy(add, 0, d, s, n);
+                docs = d;
+            } else {
+                System.arraycopy(add, 0, d, s, n);
+            }
+            size = s + n;
+        }
+
+        int[] snapshot() {
+            int s = size;
+            return Arrays.copyOf(docs, s);
+        }
+    }
+
+    /**
+     * 一个索引线程攒下的倒排表：词的字节保存在 arena 中，开放寻址的哈希表 slots 保存词的编号 + 1
+     */
+    @NotThreadSafe
+    private static final class Partial {
+        private final byte[] token = new byte[MAX_TOKEN];
+        private int tokenLength;
+        private int tokenHash = FNV_OFFSET;
+        private boolean overlong;
+        /** 当前 UTF-8 字符还差几个字节，以及已经解码的部分 */
+        private int pendingBytes;
+        private int codePoint;
+
+        private byte[] arena;
+        private int arenaUsed;
+        private int[] slots;
+        private int[] hashes;
+        private int[] offsets;
+        private int[] lengths;
+        private int[] lastDoc;
+        int[][] postings;
+        int[] counts;
+        int terms;
+        int postingCount;
+
+        private int doc;
+        int[] pendingDocs = new int[16];
+        String[] pendingPaths = new String[16];
+        int pendingCount;
+        private ByteBuffer readBuffer;
+
+        Partial(int initialTerms) {
+            arena = new byte[initialTerms * 8];
+            slots = new int[Integer.highestOneBit(initialTerms) * 2];
+            hashes = new int[initialTerms];
+            offsets = new int[initialTerms];
+            lengths = new int[initialTerms];
+            lastDoc = new int[initialTerms];
+            postings = new int[initialTerms][];
+            counts = new int[initialTerms];
+        }
+
+        ByteBuffer readBuffer() {
+            if (readBuffer == null) {
+                readBuffer = ByteBuffer.allocateDirect(READ_BUFFER);
+            }
+            return readBuffer;
+        }
+
+        void startDocument(int doc) {
+            this.doc = doc;
+            resetToken();
+        }
+
+        void endDocument(String path) {
+            if (pendingCount == pendingDocs.length) {
+                pendingDocs = Arrays.copyOf(pendingDocs, pendingCount * 2);
+                pendingPaths = Arrays.copyOf(pendingPaths, pendingCount * 2);
+            }
+            pendingDocs[pendingCount] = doc;
+            pendingPaths[pendingCount] = path;
+            pendingCount++;
+        }
+
+        /** 扫描 buf 的 [position, limit)，不改变 position；一个 UTF-8 字符可以跨越两次 scan */
+        void scan(ByteBuffer buf) {
+            for (int i = buf.position(), n = buf.limit(); i < n; i++) {
+                byte b = buf.get(i);
+                if (b < 0) {
+                    scanNonAscii(b);
+                    continue;
+                }
+                if (pendingBytes > 0) {
+                    // 不完整的 UTF-8 序列
+                    resetToken();
+                }
+                if (b >= 'A' && b <= 'Z') {
+                    b += 'a' - 'A';
+                } else if (!((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9'))) {
+                    endToken();
+                    continue;
+                }
+                if (tokenLength < MAX_TOKEN) {
+                    token[tokenLength++] = b;
+                    tokenHash = (tokenHash ^ (b & 0xFF)) * FNV_PRIME;
+                } else {
+                    overlong = true;
+                }
+            }
+        }
+
+        /** 非 ASCII 字节：收集一个 UTF-8 字符的字节，字符是字母或数字时单独作为一个词 */
+        private void scanNonAscii(byte b) {
+            int lead = b & 0xFF;
+            if (lead >= 0xC0) {
+                // 前面的 ASCII 词结束，开始一个新字符
+                endToken();
+                pendingBytes = lead >= 0xF0 ? 3 : lead >= 0xE0 ? 2 : 1;
+                codePoint = lead & (0x3F >> pendingBytes);
+            } else if (pendingBytes == 0) {
+                // 多余的后续字节
+                endToken();
+                return;
+            } else {
+                codePoint = (codePoint << 6) | (lead & 0x3F);
+                pendingBytes--;
+            }
+            token[tokenLength++] = b;
+            tokenHash = (tokenHash ^ lead) * FNV_PRIME;
+            if (pendingBytes == 0) {
+                if (Character.isLetterOrDigit(codePoint)) {
+                    endToken();
+                } else {
+                    resetToken();
+                }
+            }
+        }
+
+        void endToken() {
+            if (tokenLength > 0 && !overlong && pendingBytes == 0) {
+                addPosting(termId());
+            }
+            resetToken();
+        }
+
+        private void resetToken() {
+            tokenLength = 0;
+            tokenHash = FNV_OFFSET;
+            overlong = false;
+            pendingBytes = 0;
+        }
+
+        /** 当前词的编号，没有时加入 */
+        private int termId() {
+            int mask = slots.length - 1;
+            for (int i = tokenHash & mask; ; i = (i + 1) & mask) {
+                int id = slots[i] - 1;
+                if (id < 0) {
+                    id = addTerm();
+                    slots[i] = id + 1;
+                    if (terms * 2 > slots.length) {
+                        rehash();
+                    }
+                    return id;
+                }
+                if (hashes[id] == tokenHash && lengths[id] == tokenLength && sameBytes(offsets[id])) {
+                    return id;
+                }
+            }
+        }
+
+        private boolean sameBytes(int offset) {
+            for (int i = 0; i < tokenLength; i++) {
+                if (arena[offset + i] != token[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int addTerm() {
+            int id = terms++;
+            if (id == hashes.length) {
+                int n = id * 2;
+                hashes = Arrays.copyOf(hashes, n);
+                offsets = Arrays.copyOf(offsets, n);
+                lengths = Arrays.copyOf(lengths, n);
+                lastDoc = Arrays.copyOf(lastDoc, n);
+                postings = Arrays.copyOf(postings, n);
+                counts = Arrays.copyOf(counts, n);
+            }
+            if (arenaUsed + tokenLength > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaUsed + tokenLength));
+            }
+            System.arraycopy(token, 0, arena, arenaUsed, tokenLength);
+            hashes[id] = tokenHash;
+            offsets[id] = arenaUsed;
+            lengths[id] = tokenLength;
+            lastDoc[id] = -1;
+            counts[id] = 0;
+            arenaUsed += tokenLength;
+            return id;
+        }
+
+        private void rehash() {
+            int[] newSlots = new int[slots.length * 2];
+            int mask = newSlots.length - 1;
+            for (int id = 0; id < terms; id++) {
+                int i = hashes[id] & mask;
+                while (newSlots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                newSlots[i] = id + 1;
+            }
+            slots = newSlots;
+        }
+
+        /** 每个文件在一个词的倒排表中只出现一次 */
+        private void addPosting(int id) {
+            if (lastDoc[id] == doc) {
+                return;
+            }
+            lastDoc[id] = doc;
+            int[] list = postings[id];
+            if (list == null) {
+                list = postings[id] = new int[4];
+            } else if (counts[id] == list.length) {
+                list = postings[id] = Arrays.copyOf(list, list.length * 2);
+            }
+            list[counts[id]++] = doc;
+            postingCount++;
+        }
+
+        String term(int id) {
+            return new String(arena, offsets[id], lengths[id], StandardCharsets.UTF_8);
+        }
+
+        /** 合并之后清空，数组留着下次使用 */
+        void reset() {
+            Arrays.fill(slots, 0);
+            Arrays.fill(pendingPaths, 0, pendingCount, null);
+            terms = 0;
+            arenaUsed = 0;
+            postingCount = 0;
+            pendingCount = 0;
+        }
+    }
+}
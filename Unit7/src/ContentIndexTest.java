@@ -0,0 +1,164 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ContentIndexingService / ContentIndex 的测试
+ *
+ * 1. 多个索引线程索引临时目录中的文件，同时有查询线程不停地查询：查询不抛异常，返回的文件数只增不减
+ * 2. 索引完成后：每个文件独有的词只查到这个文件；大小写、中文、多个词同时出现的查询结果正确；
+ *    大文件（映射到内存读取）末尾的词也能查到
+ * 3. 重新索引修改过的文件后，旧的内容查不到、新的内容能查到；删除的文件查不到，
+ *    索引之后、合并之前就被删除的文件合并之后也查不到，删除之后重新创建的文件能查到
+ * 4. 中文按字分词：很长的中文段落能查到，紧挨着中文标点的英文词也能查到
+ * 运行：java ContentIndexTest [文件数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class ContentIndexTest {
+    private static final FileFilter ALL = new FileFilter() {
+        @Override
+        public boolean accept(File pathname) {
+            return true;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int nFiles = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        File root = Files.createTempDirectory("ContentIndexTest").toFile();
+        try {
+            for (int i = 0; i < nFiles; i++) {
+                File dir = new File(root, "dir" + (i % 10));
+                dir.mkdir();
+                write(new File(dir, "file" + i + ".txt"), "Hello, World! common unique" + i
+                        + " group" + (i % 10) + " 中文 内容\n");
+            }
+            StringBuilder big = new StringBuilder();
+            while (big.length() < 1024 * 1024) {
+                big.append("filler text repeated many times ");
+            }
+            big.append("needle");
+            File bigFile = new File(root, "big.txt");
+            write(bigFile, big.toString());
+
+            final ContentIndexingService service = new ContentIndexingService(root, ALL, 2, 4);
+            final ContentIndex index = service.index();
+            final AtomicBoolean done = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread[] queries = new Thread[2];
+            for (int q = 0; q < queries.length; q++) {
+                queries[q] = new Thread() {
+                    @Override
+                    public void run() {
+                        int last = 0;
+                        try {
+                            while (!done.get()) {
+                                int n = index.search("common").size();
+                                if (n < last) {
+                                    throw new AssertionError("results went from " + last + " to " + n);
+                                }
+                                last = n;
+                                index.search("group3 hello");
+                            }
+                        } catch (Throwable t) {
+                            failure.set(t);
+                        }
+                    }
+                };
+                queries[q].start();
+            }
+            service.start();
+            service.awaitTermination();
+            done.set(true);
+            for (Thread q : queries) {
+                q.join();
+            }
+            if (failure.get() != null) {
+                throw new AssertionError("query failed", failure.get());
+            }
+
+            check("documents", index.documentCount(), nFiles + 1);
+            check("common", index.search("common").size(), nFiles);
+            check("HELLO world", index.search("HELLO world").size(), nFiles);
+            check("中文", index.search("中文").size(), nFiles);
+            check("group3 common", index.search("group3 common").size(), nFiles / 10);
+            check("group3 group4", index.search("group3 group4").size(), 0);
+            check("missing", index.search("missing").size(), 0);
+            List<String> unique = index.search("unique17");
+            File file17 = new File(root, "dir7/file17.txt");
+            if (unique.size() != 1 || !unique.get(0).equals(file17.getAbsolutePath())) {
+                throw new AssertionError("unique17: " + unique);
+            }
+            check("needle", index.search("needle").size(), 1);
+
+            // 重新索引修改过的文件；删除文件
+            write(file17, "rewritten");
+            index.add(file17);
+            index.flush();
+            check("unique17 after rewrite", index.search("unique17").size(), 0);
+            check("rewritten", index.search("rewritten").size(), 1);
+            check("common after rewrite", index.search("common").size(), nFiles - 1);
+            index.remove(bigFile);
+            check("needle after remove", index.search("needle").size(), 0);
+
+            // 还攒在 Partial 中时被删除：flush 之后也不能查到
+            File pending = new File(root, "pending.txt");
+            write(pending, "pendingword");
+            index.add(pending);
+            index.remove(pending);
+            index.flush();
+            check("pendingword after remove", index.search("pendingword").size(), 0);
+            // 删除之后重新创建、索引
+            write(pending, "pendingword again");
+            index.add(pending);
+            index.flush();
+            check("pendingword after re-add", index.search("pendingword again").size(), 1);
+
+            // 中文：每个字是一个词，标点是分隔符，长段落不会因为超过 MAX_TOKEN 而被丢弃
+            List<String> words = ContentIndex.tokenize("然后刷新。Hello world");
+            if (!words.toString().equals("[然, 后, 刷, 新, hello, world]")) {
+                throw new AssertionError("tokenize: " + words);
+            }
+            String run = "并发编程的核心是管理对共享和可变状态的访问线程安全性需要同步机制";
+            File chinese = new File(root, "chinese.txt");
+            write(chinese, "索引之后查询。" + run + "，然后刷新。hello world 结束\n");
+            int termsBefore = index.termCount();
+            index.add(chinese);
+            index.flush();
+            check("hello world with chinese", index.search("hello world").size(), nFiles);
+            check("刷新 hello", index.search("刷新 hello").size(), 1);
+            check("chinese run", index.search(run).size(), 1);
+            if (index.termCount() <= termsBefore) {
+                throw new AssertionError("no new terms from chinese text: " + index.termCount());
+            }
+
+            System.out.println(index.documentCount() + " documents, " + index.termCount() + " terms, PASS");
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static void check(String query, int actual, int expected) {
+        if (actual != expected) {
+            throw new AssertionError(query + ": " + actual + ", expected " + expected);
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
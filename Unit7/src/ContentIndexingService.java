@@ -0,0 +1,47 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+
+/**
+ * 把文件内容索引到 ContentIndex 中的 ParallelIndexingService，可以在索引的同时查询
+ *
+ * 每个索引线程把倒排表攒在线程私有的 Partial 中，队列暂时为空、线程退出时合并到共享的索引。
+ * ContentIndex 只在内存中：使用 FileStateIndex 时，应该是和这个 ContentIndex 一起新建的
+ * （例如 watch 模式下持续更新），否则上次索引过、没有变化的文件不会出现在 ContentIndex 中。
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class ContentIndexingService extends ParallelIndexingService {
+    private final ContentIndex index = new ContentIndex();
+
+    public ContentIndexingService(File root, FileFilter fileFilter, int nCrawlers, int nIndexers) {
+        super(root, fileFilter, nCrawlers, nIndexers);
+    }
+
+    public ContentIndexingService(File root, FileFilter fileFilter, int nCrawlers, int nIndexers,
+                                  FileStateIndex stateIndex, boolean watch) {
+        super(root, fileFilter, nCrawlers, nIndexers, stateIndex, watch);
+    }
+
+    public ContentIndex index() {
+        return index;
+    }
+
+    @Override
+    protected void indexFile(File file) {
+        try {
+            index.add(file);
+        } catch (IOException e) {
+            // 读取期间被删除、没有权限：不索引这个文件
+        }
+    }
+
+    @Override
+    protected void flushIndex() {
+        index.flush();
+    }
+
+    @Override
+    protected void fileDeleted(File file) {
+        index.remove(file);
+    }
+}
@@ -0,0 +1,337 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把 CrawlFrontier（见过的 URL、还没有爬取完成的 URL）保存到本地目录，重启后从上一次的状态继续爬取
+ *
+ * 目录中有两种文件：
+ * 1. journal-N：只追加的日志，记录 frontier 的每个变化。
+ *    'A' + URL 长度(int) + URL(UTF-8) + 优先级(int)：新加入的 URL；'D' + 指纹(long)：爬取完成的 URL
+ * 2. snapshot：检查点。MAGIC、之后的 journal 序号、见过的 URL 的指纹（个数 + long）、没有爬取完成的 URL（个数 + 同上）
+ * 检查点：在 frontier 的锁内切换到新的 journal 并取出快照，在锁外写入 snapshot.tmp、fsync、原子地替换 snapshot，
+ * 再删除旧的 journal。所以任何时候 snapshot + 它之后的 journal 都是完整的状态。
+ * 恢复：读 snapshot，再按顺序重放之后的 journal，最后一条记录不完整（写到一半时进程退出）就忽略。
+ * 爬取完成的 URL 不会再爬取；检查点时正在爬取的 URL 会重新爬取。
+ * journal 每 FLUSH_MILLIS 毫秒写到操作系统一次（进程崩溃最多丢失这段时间的记录，丢失的 'D' 记录对应的 URL 会重新爬取），
+ * 只有 snapshot 会 fsync。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class CrawlCheckpoint implements CrawlFrontier.Journal, Closeable {
+    private static final long MAGIC = 0x4352_4157_4C43_4B31L;
+    private static final String SNAPSHOT = "snapshot";
+    private static final String JOURNAL = "journal-";
+    private static final byte ADDED = 'A';
+    private static final byte DONE = 'D';
+    private static final long FLUSH_MILLIS = 1000;
+
+    private final File dir;
+    private final CrawlFrontier frontier;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "CrawlCheckpoint");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    /** 当前的 journal，写入失败后为 null，直到下一次检查点（快照包含了丢失的记录） */
+    @GuardedBy("this") private DataOutputStream journal;
+    @GuardedBy("this") private long journalSeq;
+    /** 最近一次写 journal 或者后台检查点的错误 */
+    @GuardedBy("this") private IOException error;
+    /** 检查点串行执行 */
+    private final Object checkpointLock = new Object();
+
+    private CrawlCheckpoint(File dir, CrawlFrontier frontier) {
+        this.dir = dir;
+        this.frontier = frontier;
+    }
+
+    /**
+     * 从目录中恢复 frontier（目录不存在时创建），之后 frontier 的变化记录到目录中，每隔 interval 做一次检查点
+     * @param frontier 新建的、还没有开始爬取的 frontier
+     */
+    public static CrawlCheckpoint open(File dir, CrawlFrontier frontier, long interval, TimeUnit unit)
+            throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        final CrawlCheckpoint cp = new CrawlCheckpoint(dir, frontier);
+        cp.recover();
+        frontier.setJournal(cp);
+        // 把恢复出来的状态写成一个检查点，删除重放过的 journal，下次重启只需要读 snapshot
+        cp.checkpoint();
+        cp.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                cp.flush();
+            }
+        }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        cp.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    cp.checkpoint();
+                } catch (IOException e) {
+                    cp.failed(e);
+                }
+            }
+        }, interval, interval, unit);
+        return cp;
+    }
+
+    /** 读 snapshot，重放之后的 journal，恢复到 frontier 中 */
+    private void recover() throws IOException {
+        UrlFingerprintSet seen = new UrlFingerprintSet(1024);
+        // 指纹 -> 没有爬取完成的 URL，按加入的顺序
+        Map<Long, CrawlFrontier.Entry> unfinished = new LinkedHashMap<Long, CrawlFrontier.Entry>();
+        long firstJournal = 0;
+        File snapshot = new File(dir, SNAPSHOT);
+        if (snapshot.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+            try {
+                if (in.readLong() != MAGIC) {
+                    throw new IOException(snapshot + " is not a crawl checkpoint");
+                }
+                firstJournal = in.readLong();
+                long n = in.readLong();
+                seen = new UrlFingerprintSet((int) Math.min(n, Integer.MAX_VALUE));
+                for (long i = 0; i < n; i++) {
+                    seen.add(in.readLong());
+                }
+                for (long i = in.readLong(); i > 0; i--) {
+                    CrawlFrontier.Entry e = readEntry(in);
+                    unfinished.put(e.fingerprint, e);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        long last = firstJournal - 1;
+        for (long seq : journalSeqs()) {
+            if (seq >= firstJournal) {
+                replay(new File(dir, JOURNAL + seq), seen, unfinished);
+            }
+            last = Math.max(last, seq);
+        }
+        synchronized (this) {
+            journalSeq = last;
+        }
+        frontier.restore(seen.toArray(), new ArrayList<CrawlFrontier.Entry>(unfinished.values()));
+    }
+
+    private static void replay(File file, UrlFingerprintSet seen, Map<Long, CrawlFrontier.Entry> unfinished)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (int type; (type = in.read()) != -1; ) {
+                if (type == ADDED) {
+                    CrawlFrontier.Entry e = readEntry(in);
+                    seen.add(e.fingerprint);
+                    unfinished.put(e.fingerprint, e);
+                } else if (type == DONE) {
+                    unfinished.remove(in.readLong());
+                } else {
+                    // 不完整的记录之后的内容
+                    break;
+                }
+            }
+        } catch (EOFException | MalformedURLException e) {
+            // 写到一半的最后一条记录
+        } finally {
+            in.close();
+        }
+    }
+
+    private static CrawlFrontier.Entry readEntry(DataInputStream in) throws IOException {
+        byte[] url = new byte[in.readInt()];
+        in.readFully(url);
+        return CrawlFrontier.Entry.restored(new String(url, StandardCharsets.UTF_8), in.readInt());
+    }
+
+    private static void writeEntry(DataOutputStream out, CrawlFrontier.Entry e) throws IOException {
+        byte[] url = e.url.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(url.length);
+        out.write(url);
+        out.writeInt(e.priority);
+    }
+
+    /** 按序号排列的 journal */
+    private long[] journalSeqs() {
+        String[] names = dir.list();
+        long[] seqs = new long[names == null ? 0 : names.length];
+        int n = 0;
+        for (int i = 0; i < seqs.length; i++) {
+            if (names[i].startsWith(JOURNAL)) {
+                try {
+                    seqs[n++] = Long.parseLong(names[i].substring(JOURNAL.length()));
+                } catch (NumberFormatException ignored) {
+                    n--;
+                }
+            }
+        }
+        seqs = Arrays.copyOf(seqs, n);
+        Arrays.sort(seqs);
+        return seqs;
+    }
+
+    // frontier 的锁内调用
+
+    @Override
+    public synchronized void added(CrawlFrontier.Entry e) {
+        if (journal != null) {
+            try {
+                journal.writeByte(ADDED);
+                writeEntry(journal, e);
+            } catch (IOException ex) {
+                journalFailed(ex);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void done(CrawlFrontier.Entry e) {
+        if (journal != null) {
+            try {
+                journal.writeByte(DONE);
+                journal.writeLong(e.fingerprint);
+            } catch (IOException ex) {
+                journalFailed(ex);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void journalFailed(IOException e) {
+        error = e;
+        try {
+            journal.close();
+        } catch (IOException ignored) {
+        }
+        journal = null;
+    }
+
+    /** 把 journal 缓冲的记录写到操作系统 */
+    public synchronized void flush() {
+        if (journal != null) {
+            try {
+                journal.flush();
+            } catch (IOException e) {
+                journalFailed(e);
+            }
+        }
+    }
+
+    /** 写一个检查点，之前的 journal 被删除 */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            final long[] seq = new long[1];
+            final IOException[] rotateError = new IOException[1];
+            CrawlFrontier.Snapshot snapshot = frontier.snapshot(new Runnable() {
+                public void run() {
+                    try {
+                        seq[0] = rotate();
+                    } catch (IOException e) {
+                        rotateError[0] = e;
+                    }
+                }
+            });
+            if (rotateError[0] != null) {
+                throw rotateError[0];
+            }
+            File tmp = new File(dir, SNAPSHOT + ".tmp");
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+                out.writeLong(MAGIC);
+                out.writeLong(seq[0]);
+                out.writeLong(snapshot.seen.length);
+                for (long fp : snapshot.seen) {
+                    out.writeLong(fp);
+                }
+                out.writeLong(snapshot.unfinished.size());
+                for (CrawlFrontier.Entry e : snapshot.unfinished) {
+                    writeEntry(out, e);
+                }
+                out.flush();
+                fos.getFD().sync();
+            } finally {
+                fos.close();
+            }
+            Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            for (long old : journalSeqs()) {
+                if (old < seq[0]) {
+                    Files.deleteIfExists(new File(dir, JOURNAL + old).toPath());
+                }
+            }
+            synchronized (this) {
+                if (journal != null) {
+                    error = null;
+                }
+            }
+        }
+    }
+
+    /** 关闭当前的 journal，之后的记录写到新的 journal，返回新的 journal 的序号 */
+    private synchronized long rotate() throws IOException {
+        if (journal != null) {
+            DataOutputStream old = journal;
+            journal = null;
+            old.close();
+        }
+        long seq = journalSeq + 1;
+        journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, JOURNAL + seq))));
+        journalSeq = seq;
+        return seq;
+    }
+
+    private synchronized void failed(IOException e) {
+        error = e;
+    }
+
+    /** 最近一次写 journal、后台检查点的错误，之后成功的检查点会清除它 */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    /** 停止后台检查点，写最后一个检查点，frontier 之后的变化不再记录 */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        try {
+            checkpoint();
+        } finally {
+            frontier.setJournal(null);
+            synchronized (this) {
+                if (journal != null) {
+                    journal.close();
+                    journal = null;
+                }
+            }
+        }
+    }
+}
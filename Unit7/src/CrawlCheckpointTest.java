@@ -0,0 +1,128 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CrawlCheckpoint 的测试：爬取一部分后关闭，用同一个检查点目录创建新的 WebCrawler 继续爬取
+ *
+ * 检查：
+ * 1. 重启后恢复出见过的 URL、没有爬取完成的 URL
+ * 2. 最后一个 journal 末尾有写到一半的记录（进程崩溃）时也能恢复
+ * 3. 爬取完成的页面不会再请求，只有关闭时正在爬取的页面（最多 maxInFlight 个）可能请求两次；所有页面都被请求到
+ * 4. 全部爬取完成后再重启，没有要爬取的 URL，不会发出请求
+ * 运行：java CrawlCheckpointTest
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class CrawlCheckpointTest {
+    private static final int PAGES = 150;
+    private static final int MAX_IN_FLIGHT = 3;
+
+    public static void main(String[] args) throws Exception {
+        File dir = Files.createTempDirectory("CrawlCheckpointTest").toFile();
+        WebCrawlerTest.StubServer a = new WebCrawlerTest.StubServer();
+        WebCrawlerTest.StubServer b = new WebCrawlerTest.StubServer();
+        a.peer = b;
+        b.peer = a;
+        try {
+            WebCrawler first = newCrawler(a.url(0), dir);
+            first.start();
+            Thread.sleep(300);
+            first.close();
+            long crawledBefore = first.crawledCount();
+            if (crawledBefore == 0 || first.getUnCrawled().isEmpty()) {
+                throw new AssertionError("crawled " + crawledBefore + " before close");
+            }
+            appendTornRecord(dir);
+
+            WebCrawler second = newCrawler(a.url(0), dir);
+            if (second.seenCount() != first.seenCount()) {
+                throw new AssertionError("seen " + second.seenCount() + " after restart, " + first.seenCount() + " before");
+            }
+            if (second.getUnCrawled().size() != first.getUnCrawled().size()) {
+                throw new AssertionError("pending " + second.getUnCrawled().size() + " after restart, "
+                        + first.getUnCrawled().size() + " before");
+            }
+            second.start();
+            if (!second.awaitTermination(60, TimeUnit.SECONDS)) {
+                throw new AssertionError("crawl did not finish after restart");
+            }
+            second.close();
+            int total = 0;
+            for (WebCrawlerTest.StubServer s : new WebCrawlerTest.StubServer[]{a, b}) {
+                for (int i = 0; i < PAGES; i++) {
+                    int n = s.requests.get(i);
+                    if (n < 1 || n > 2) {
+                        throw new AssertionError("page " + i + " requested " + n + " times");
+                    }
+                    total += n;
+                }
+            }
+            if (total > 2 * PAGES + MAX_IN_FLIGHT) {
+                throw new AssertionError(total + " requests for " + 2 * PAGES + " pages");
+            }
+
+            WebCrawler third = newCrawler(a.url(0), dir);
+            if (!third.getUnCrawled().isEmpty()) {
+                throw new AssertionError(third.getUnCrawled().size() + " pending after complete crawl");
+            }
+            third.start();
+            if (!third.awaitTermination(10, TimeUnit.SECONDS) || third.crawledCount() != 0) {
+                throw new AssertionError("crawled " + third.crawledCount() + " after complete crawl");
+            }
+            third.close();
+            System.out.println("crawled " + crawledBefore + " before restart, " + second.crawledCount() + " after, "
+                    + (total - 2 * PAGES) + " repeated, PASS");
+        } finally {
+            a.server.stop(0);
+            b.server.stop(0);
+            delete(dir);
+        }
+    }
+
+    private static WebCrawler newCrawler(URL start, File dir) throws IOException {
+        return new WebCrawler(start, MAX_IN_FLIGHT, 2, 10, TimeUnit.MILLISECONDS, dir, 50, TimeUnit.MILLISECONDS) {
+            @Override
+            protected List<URL> processPage(URL url) {
+                try {
+                    return WebCrawlerTest.links(url, WebCrawlerTest.fetch(url));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    /** 在最新的 journal 末尾加一条写到一半的记录 */
+    private static void appendTornRecord(File dir) throws IOException {
+        long lastSeq = -1;
+        for (String name : dir.list()) {
+            if (name.startsWith("journal-")) {
+                lastSeq = Math.max(lastSeq, Long.parseLong(name.substring("journal-".length())));
+            }
+        }
+        if (lastSeq < 0) {
+            throw new AssertionError("no journal in " + dir);
+        }
+        File last = new File(dir, "journal-" + lastSeq);
+        FileOutputStream out = new FileOutputStream(last, true);
+        try {
+            out.write(new byte[]{'A', 0, 0, 1});
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,451 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 爬虫的待爬取队列（frontier）
+ *
+ * 1. 每个主机一个队列，队列中按优先级（数字小的先爬取，相同时先进先出）排序
+ * 2. 礼貌：同一个主机同时最多 perHostConcurrency 个请求，两次请求开始的时间至少间隔 perHostDelay
+ * 3. 可以爬取的主机按各自队头的优先级排序，take() 取优先级最高的；还在间隔中的主机按可以爬取的时间排序
+ * 4. 全局最多 maxInFlight 个正在爬取的 URL
+ * 5. 去重：UrlFingerprintSet 只保存 URL 的指纹；队列满了（maxQueued）时新的 URL 被丢弃，不记录指纹，以后再遇到还能加入
+ * 没有排队的 URL、也没有正在爬取的 URL 时，爬取结束，take() 返回 null。
+ * 设置了 Journal 时（CrawlCheckpoint），新加入的 URL、爬取完成的 URL 在锁内依次记录下来。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class CrawlFrontier {
+    private static final int IDLE = 0;
+    private static final int READY = 1;
+    private static final int DELAYED = 2;
+
+    private final int maxInFlight;
+    private final int perHostConcurrency;
+    private final long perHostDelayNanos;
+    private final int maxQueued;
+    private final UrlFingerprintSet seen;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 主机的状态变化、有 URL 加入、爬取完成 */
+    private final Condition changed = lock.newCondition();
+    @GuardedBy("lock") private final Map<String, HostQueue> hosts = new HashMap<String, HostQueue>();
+    /** 可以爬取的主机，按队头的优先级排序 */
+    @GuardedBy("lock") private final PriorityQueue<HostQueue> ready = new PriorityQueue<HostQueue>(16, new Comparator<HostQueue>() {
+        @Override
+        public int compare(HostQueue a, HostQueue b) {
+            return ENTRY_ORDER.compare(a.key, b.key);
+        }
+    });
+    /** 还在间隔中的主机，按可以爬取的时间排序 */
+    @GuardedBy("lock") private final PriorityQueue<HostQueue> delayed = new PriorityQueue<HostQueue>(16, new Comparator<HostQueue>() {
+        @Override
+        public int compare(HostQueue a, HostQueue b) {
+            return Long.signum(a.readyAt - b.readyAt);
+        }
+    });
+    /** 正在爬取的 URL */
+    @GuardedBy("lock") private final Set<Entry> running = new HashSet<Entry>();
+    @GuardedBy("lock") private Journal journal;
+    @GuardedBy("lock") private int queued;
+    @GuardedBy("lock") private int inFlight;
+    @GuardedBy("lock") private long nextSeq;
+    @GuardedBy("lock") private long dropped;
+    /** 主机数超过这个值时删除空闲的主机 */
+    @GuardedBy("lock") private int evictThreshold = 1024;
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.priority != b.priority) {
+                return Integer.compare(a.priority, b.priority);
+            }
+            return Long.compare(a.seq, b.seq);
+        }
+    };
+
+    /**
+     * @param maxInFlight        全局最多同时爬取的 URL 数
+     * @param perHostConcurrency 同一个主机最多同时爬取的 URL 数
+     * @param perHostDelay       同一个主机两次请求之间的最小间隔
+     * @param maxQueued          最多排队的 URL 数
+     */
+    public CrawlFrontier(int maxInFlight, int perHostConcurrency, long perHostDelay, TimeUnit unit, int maxQueued) {
+        if (maxInFlight <= 0 || perHostConcurrency <= 0 || perHostDelay < 0 || maxQueued <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxInFlight = maxInFlight;
+        this.perHostConcurrency = perHostConcurrency;
+        this.perHostDelayNanos = unit.toNanos(perHostDelay);
+        this.maxQueued = maxQueued;
+        this.seen = new UrlFingerprintSet(Math.min(maxQueued, 1 << 20));
+    }
+
+    /** 去掉 #fragment，协议、主机名转成小写，去掉默认端口；不是 http/https 时返回 null */
+    static String normalize(URL url) {
+        String protocol = url.getProtocol().toLowerCase();
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+            return null;
+        }
+        int port = url.getPort() == url.getDefaultPort() ? -1 : url.getPort();
+        String file = url.getFile().isEmpty() ? "/" : url.getFile();
+        return protocol + "://" + url.getHost().toLowerCase() + (port == -1 ? "" : ":" + port) + file;
+    }
+
+    /**
+     * 加入一个 URL
+     * @param priority 数字小的先爬取
+     * @return 是新的 URL，并且加入了队列
+     */
+    public boolean add(URL url, int priority) {
+        String s = normalize(url);
+        if (s == null) {
+            return false;
+        }
+        long fp = UrlFingerprintSet.fingerprint(s);
+        // 大多数链接都已经见过，不需要加锁
+        if (seen.contains(fp)) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (queued >= maxQueued) {
+                dropped++;
+                return false;
+            }
+            if (!seen.add(fp)) {
+                return false;
+            }
+            Entry e = new Entry(s, host(url), priority, nextSeq++, fp);
+            enqueue(e);
+            if (journal != null) {
+                journal.added(e);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 取一个可以爬取的 URL：全局、它的主机都没有超过并发数，主机的间隔已经过了
+     * 爬取完成后必须调用 done()，没有完成（例如被中断）时调用 retry()
+     * @return 爬取结束时返回 null
+     */
+    public Entry take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                while (!delayed.isEmpty() && delayed.peek().readyAt - now <= 0) {
+                    HostQueue h = delayed.poll();
+                    h.state = IDLE;
+                    schedule(h, now);
+                }
+                if (inFlight < maxInFlight && !ready.isEmpty()) {
+                    HostQueue h = ready.poll();
+                    h.state = IDLE;
+                    Entry e = h.urls.poll();
+                    queued--;
+                    h.inFlight++;
+                    inFlight++;
+                    running.add(e);
+                    h.readyAt = now + perHostDelayNanos;
+                    schedule(h, now);
+                    return e;
+                }
+                if (queued == 0 && inFlight == 0) {
+                    // 爬取结束，叫醒其它等待的线程
+                    changed.signalAll();
+                    return null;
+                }
+                if (inFlight < maxInFlight && !delayed.isEmpty()) {
+                    changed.awaitNanos(delayed.peek().readyAt - now);
+                } else {
+                    changed.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** URL 爬取完成 */
+    public void done(Entry e) {
+        lock.lock();
+        try {
+            HostQueue h = hosts.get(e.host);
+            h.inFlight--;
+            inFlight--;
+            running.remove(e);
+            if (journal != null) {
+                journal.done(e);
+            }
+            reschedule(h);
+            if (hosts.size() > evictThreshold) {
+                evictIdleHosts(System.nanoTime());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** URL 没有爬取完成，放回队列，稍后再爬取 */
+    public void retry(Entry e) {
+        lock.lock();
+        try {
+            HostQueue h = hosts.get(e.host);
+            h.inFlight--;
+            inFlight--;
+            running.remove(e);
+            enqueue(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 排队的 URL，按主机分组、每个主机内按优先级排序 */
+    public List<Entry> pending() {
+        lock.lock();
+        try {
+            List<Entry> result = new ArrayList<Entry>(queued);
+            for (HostQueue h : hosts.values()) {
+                PriorityQueue<Entry> copy = new PriorityQueue<Entry>(h.urls);
+                while (!copy.isEmpty()) {
+                    result.add(copy.poll());
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 之后的变化记录到 journal 中 */
+    void setJournal(Journal journal) {
+        lock.lock();
+        try {
+            this.journal = journal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 检查点：在锁内运行 atCut（例如切换到新的 journal 文件），同时取出见过的 URL、没有爬取完成的 URL（排队的和正在爬取的），
+     * 快照正好对应 journal 中 atCut 之前的记录
+     */
+    Snapshot snapshot(Runnable atCut) {
+        lock.lock();
+        try {
+            atCut.run();
+            List<Entry> unfinished = new ArrayList<Entry>(queued + running.size());
+            unfinished.addAll(running);
+            for (HostQueue h : hosts.values()) {
+                unfinished.addAll(h.urls);
+            }
+            return new Snapshot(seen.toArray(), unfinished);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从检查点恢复，在 start 之前调用
+     * @param seenFingerprints 见过的 URL 的指纹
+     * @param unfinished       没有爬取完成的 URL，重新加入队列
+     */
+    void restore(long[] seenFingerprints, List<Entry> unfinished) {
+        lock.lock();
+        try {
+            for (long fp : seenFingerprints) {
+                seen.add(fp);
+            }
+            for (Entry e : unfinished) {
+                seen.add(e.fingerprint);
+                if (queued < maxQueued) {
+                    enqueue(new Entry(e.url, e.host, e.priority, nextSeq++, e.fingerprint));
+                } else {
+                    dropped++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queuedCount() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlightCount() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 见过的不同 URL 数 */
+    public long seenCount() {
+        return seen.size();
+    }
+
+    /** 队列满时丢弃的 URL 数 */
+    public long droppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按主机排队、限速用的键：小写的主机名，端口不是默认端口时加上端口，和 normalize() 的规则一致
+     * 不用 getAuthority()：http://a:80/、http://A/、http://user@a/ 是同一个主机，从检查点恢复的（规范化的）URL 也是
+     */
+    static String host(URL url) {
+        String host = url.getHost().toLowerCase();
+        int port = url.getPort() == url.getDefaultPort() ? -1 : url.getPort();
+        return port == -1 ? host : host + ":" + port;
+    }
+
+    @GuardedBy("lock")
+    private void enqueue(Entry e) {
+        HostQueue h = hosts.get(e.host);
+        if (h == null) {
+            h = new HostQueue();
+            hosts.put(e.host, h);
+        }
+        h.urls.add(e);
+        queued++;
+        if (h.state == READY && ENTRY_ORDER.compare(e, h.key) < 0) {
+            // 新的 URL 比这个主机原来的队头优先级高，重新排序（很少发生：新发现的链接通常优先级更低）
+            ready.remove(h);
+            h.state = IDLE;
+        }
+        reschedule(h);
+    }
+
+    @GuardedBy("lock")
+    private void reschedule(HostQueue h) {
+        schedule(h, System.nanoTime());
+        changed.signalAll();
+    }
+
+    /** 不在 ready、delayed 中的主机：有 URL、没有超过并发数时，放入 ready 或 delayed */
+    @GuardedBy("lock")
+    private void schedule(HostQueue h, long now) {
+        if (h.state != IDLE || h.urls.isEmpty() || h.inFlight >= perHostConcurrency) {
+            return;
+        }
+        if (h.readyAt - now <= 0) {
+            h.state = READY;
+            h.key = h.urls.peek();
+            ready.add(h);
+        } else {
+            h.state = DELAYED;
+            delayed.add(h);
+        }
+    }
+
+    /** 删除没有 URL、间隔已经过了的主机，主机数不会一直增长；剩下的主机数翻倍之后才再删除，平摊下来是 O(1) */
+    @GuardedBy("lock")
+    private void evictIdleHosts(long now) {
+        for (Iterator<HostQueue> it = hosts.values().iterator(); it.hasNext(); ) {
+            HostQueue h = it.next();
+            if (h.urls.isEmpty() && h.inFlight == 0 && h.state == IDLE && h.readyAt - now <= 0) {
+                it.remove();
+            }
+        }
+        evictThreshold = Math.max(1024, hosts.size() * 2);
+    }
+
+    /** 一个主机的队列 */
+    private static final class HostQueue {
+        final PriorityQueue<Entry> urls = new PriorityQueue<Entry>(16, ENTRY_ORDER);
+        int inFlight;
+        /** 下一次可以开始请求的时间 */
+        long readyAt = System.nanoTime();
+        int state = IDLE;
+        /** 放入 ready 时的队头 */
+        Entry key;
+    }
+
+    /** 记录 frontier 的变化，在 frontier 的锁内调用 */
+    interface Journal {
+        void added(Entry e);
+
+        void done(Entry e);
+    }
+
+    /** 检查点的内容 */
+    static final class Snapshot {
+        final long[] seen;
+        final List<Entry> unfinished;
+
+        Snapshot(long[] seen, List<Entry> unfinished) {
+            this.seen = seen;
+            this.unfinished = unfinished;
+        }
+    }
+
+    /** 一个待爬取的 URL */
+    @Immutable
+    public static final class Entry {
+        /** normalize() 之后的 URL */
+        public final String url;
+        public final String host;
+        public final int priority;
+        final long seq;
+        final long fingerprint;
+
+        Entry(String url, String host, int priority, long seq, long fingerprint) {
+            this.url = url;
+            this.host = host;
+            this.priority = priority;
+            this.seq = seq;
+            this.fingerprint = fingerprint;
+        }
+
+        /** 从检查点中读出的 URL */
+        static Entry restored(String url, int priority) throws MalformedURLException {
+            return new Entry(url, host(new URL(url)), priority, 0, UrlFingerprintSet.fingerprint(url));
+        }
+
+        public URL toURL() {
+            try {
+                return new URL(url);
+            } catch (MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return url + " (" + priority + ")";
+        }
+    }
+}
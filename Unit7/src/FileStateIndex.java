@@ -0,0 +1,312 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 持久化的文件状态索引：路径 -> (大小, 修改时间, 内容哈希)
+ *
+ * 增量索引时，爬虫用它判断文件是否需要重新索引：大小和修改时间都没变的文件不再放入队列；
+ * 索引线程计算内容哈希，哈希没变（只是 touch 了一下）的文件也不再重新索引。
+ * 1. 内存中：ConcurrentHashMap，查询不加锁
+ * 2. 磁盘上：只追加的记录日志，映射到内存，put / remove 只是一次内存复制，不需要 write 系统调用；
+ *    同一个路径的后一条记录覆盖前一条，删除写一条墓碑记录
+ * 3. 打开时顺序读出所有记录重建 ConcurrentHashMap；无效的记录比有效的记录多时，重写成只包含有效记录的新文件
+ * 每条记录先写内容、最后写长度，进程在写一条记录的中途退出时，这条记录的长度还是 0，重新打开时被忽略。
+ * 只有 force() / close() 之后才能保证断电不丢失。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class FileStateIndex implements Closeable {
+    private static final long MAGIC = 0x4653494458763031L;
+    /** 文件头：MAGIC */
+    private static final int HEADER = 8;
+    /** 记录：int 路径长度（负数为墓碑，0 为日志结尾）、long 大小、long 修改时间、long 哈希、UTF-8 路径 */
+    private static final int RECORD_HEADER = 4 + 8 + 8 + 8;
+    private static final int INITIAL_SIZE = 1024 * 1024;
+    private static final int HASH_CHUNK = 1 << 30;
+
+    private final File file;
+    private final ConcurrentHashMap<String, FileState> states = new ConcurrentHashMap<String, FileState>();
+    @GuardedBy("this") private FileChannel channel;
+    @GuardedBy("this") private MappedByteBuffer log;
+    /** 日志中的记录数（包括被覆盖的记录和墓碑） */
+    @GuardedBy("this") private int records;
+
+    /** 打开（不存在时创建）索引文件 */
+    public FileStateIndex(File file) throws IOException {
+        this.file = file;
+        synchronized (this) {
+            if (file.exists()) {
+                open();
+                load();
+                if (records - states.size() > states.size()) {
+                    rewrite();
+                }
+            } else {
+                rewrite();
+            }
+        }
+    }
+
+    /** 文件的状态，没有记录时返回 null */
+    public FileState get(String path) {
+        return states.get(path);
+    }
+
+    /** 所有路径（弱一致性的视图） */
+    public Set<String> paths() {
+        return states.keySet();
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    public synchronized void put(String path, long size, long mtime, long hash) {
+        FileState state = new FileState(size, mtime, hash);
+        append(path, false, state);
+        states.put(path, state);
+    }
+
+    /** @return 是否有这个路径的记录 */
+    public synchronized boolean remove(String path) {
+        if (states.remove(path) == null) {
+            return false;
+        }
+        append(path, true, new FileState(0, 0, 0));
+        return true;
+    }
+
+    /**
+     * 删除路径 dir 本身及其下所有文件的记录
+     * @return 被删除的路径
+     */
+    public synchronized List<String> removeUnder(String dir) {
+        List<String> removed = new ArrayList<String>();
+        String prefix = dir.endsWith(File.separator) ? dir : dir + File.separator;
+        for (String path : states.keySet()) {
+            if (path.equals(dir) || path.startsWith(prefix)) {
+                remove(path);
+                removed.add(path);
+            }
+        }
+        return removed;
+    }
+
+    /** fsync */
+    public synchronized void force() {
+        if (log != null) {
+            log.force();
+        }
+    }
+
+    /** 无效记录多时重写，否则 fsync 并把文件截断到实际写入的长度 */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (records - states.size() > states.size()) {
+            rewrite();
+        }
+        log.force();
+        channel.truncate(log.position());
+        channel.close();
+        channel = null;
+        log = null;
+    }
+
+    @GuardedBy("this")
+    private void append(String path, boolean tombstone, FileState state) {
+        if (log == null) {
+            throw new IllegalStateException("closed");
+        }
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER + bytes.length;
+        // 至少留 4 个字节的 0 作为日志结尾
+        ensureCapacity(size + 4);
+        int pos = log.position();
+        log.position(pos + 4);
+        log.putLong(state.size).putLong(state.mtime).putLong(state.hash).put(bytes);
+        // 最后写长度，这条记录才生效
+        log.putInt(pos, tombstone ? -bytes.length : bytes.length);
+        records++;
+    }
+
+    /** 日志的映射不够大时，映射一个更大的区域（文件随之变长） */
+    @GuardedBy("this")
+    private void ensureCapacity(int size) {
+        if (log.remaining() >= size) {
+            return;
+        }
+        int pos = log.position();
+        long newSize = Math.max((long) log.capacity() * 2, (long) pos + size);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException("file state index too large");
+        }
+        try {
+            log = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("cannot grow " + file, e);
+        }
+        log.position(pos);
+    }
+
+    @GuardedBy("this")
+    private void open() throws IOException {
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        long length = Math.max(channel.size(), INITIAL_SIZE);
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+    }
+
+    /** 顺序读出所有记录；position 停在日志结尾，之后从这里追加 */
+    @GuardedBy("this")
+    private void load() throws IOException {
+        if (log.getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException(file + " is not a file state index");
+        }
+        log.position(HEADER);
+        records = 0;
+        while (log.remaining() >= RECORD_HEADER + 4) {
+            int pos = log.position();
+            int length = log.getInt(pos);
+            int n = Math.abs(length);
+            if (length == 0 || n > log.remaining() - RECORD_HEADER) {
+                break;
+            }
+            long size = log.getLong(pos + 4);
+            long mtime = log.getLong(pos + 12);
+            long hash = log.getLong(pos + 20);
+            byte[] bytes = new byte[n];
+            log.position(pos + RECORD_HEADER);
+            log.get(bytes);
+            String path = new String(bytes, StandardCharsets.UTF_8);
+            if (length > 0) {
+                states.put(path, new FileState(size, mtime, hash));
+            } else {
+                states.remove(path);
+            }
+            records++;
+        }
+        // 清掉写到一半的记录，之后追加的短记录后面不会残留像是长度的字节
+        for (int i = log.position(); i < log.limit(); i++) {
+            if (log.get(i) != 0) {
+                log.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /** 把有效记录写到临时文件，再原子地替换索引文件 */
+    @GuardedBy("this")
+    private void rewrite() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            log = null;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+            out.writeLong(MAGIC);
+            for (Map.Entry<String, FileState> e : states.entrySet()) {
+                byte[] bytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+                FileState state = e.getValue();
+                out.writeInt(bytes.length);
+                out.writeLong(state.size);
+                out.writeLong(state.mtime);
+                out.writeLong(state.hash);
+                out.write(bytes);
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        records = states.size();
+        int end = (int) Files.size(file.toPath());
+        open();
+        log.position(end);
+    }
+
+    /**
+     * 文件内容的 64 位哈希，用于判断内容是否变化（不是加密哈希）
+     * 把文件映射到内存，每次处理 8 个字节
+     */
+    public static long hash(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            long h = 0x9E3779B97F4A7C15L ^ size;
+            for (long offset = 0; offset < size; offset += HASH_CHUNK) {
+                ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(HASH_CHUNK, size - offset));
+                while (buf.remaining() >= 8) {
+                    h = Long.rotateLeft(h ^ mix(buf.getLong()), 27) * 0x9E3779B97F4A7C15L + 0x52DCE729L;
+                }
+                while (buf.hasRemaining()) {
+                    h = Long.rotateLeft(h ^ mix(buf.get() & 0xFF), 11) * 0x9E3779B97F4A7C15L;
+                }
+            }
+            return mix(h);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static long mix(long x) {
+        x ^= x >>> 33;
+        x *= 0xFF51AFD7ED558CCDL;
+        x ^= x >>> 33;
+        x *= 0xC4CEB9FE1A85EC53L;
+        x ^= x >>> 33;
+        return x;
+    }
+
+    /** 一个文件被索引时的状态 */
+    @Immutable
+    public static final class FileState {
+        public final long size;
+        /** 修改时间（纳秒） */
+        public final long mtime;
+        public final long hash;
+
+        FileState(long size, long mtime, long hash) {
+            this.size = size;
+            this.mtime = mtime;
+            this.hash = hash;
+        }
+
+        /** 大小和修改时间都没变 */
+        public boolean matches(long size, long mtime) {
+            return this.size == size && this.mtime == mtime;
+        }
+    }
+}
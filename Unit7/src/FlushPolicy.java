@@ -0,0 +1,64 @@
+import net.jcip.annotations.Immutable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志线程什么时候把攒下的一批日志写出并 flush（组提交）；对 MappedLogSink 来说是什么时候 fsync
+ *
+ * 满足任意一个条件就提交：
+ * 1. 大小：攒下的字符数达到 maxChars（MappedLogSink 中是字节数）
+ * 2. 条数：攒下的日志条数达到 maxRecords
+ * 3. 时间：最早的一条日志已经等待了 maxDelay；maxDelay 为 0 时，缓存中的日志取完就提交
+ * Created by osys on 2022/08/28 21:48.
+ */
+@Immutable
+public final class FlushPolicy {
+    /** 缓存中的日志取完就提交，每批最多 64K 字符 */
+    public static final FlushPolicy GROUP_COMMIT = new FlushPolicy(64 * 1024, Integer.MAX_VALUE, 0, TimeUnit.MILLISECONDS);
+    /** 每条日志都提交，相当于 autoflush 的 PrintWriter */
+    public static final FlushPolicy EVERY_RECORD = new FlushPolicy(64 * 1024, 1, 0, TimeUnit.MILLISECONDS);
+    /** 从不主动提交：Writer 的字符数组满了才写出；MappedLogSink 只在切换分段时 fsync，其余交给操作系统 */
+    public static final FlushPolicy NEVER =
+            new FlushPolicy(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+    private final int maxChars;
+    private final int maxRecords;
+    private final long maxDelayNanos;
+
+    /**
+     * @param maxChars   每批最多的字符数
+     * @param maxRecords 每批最多的日志条数
+     * @param maxDelay   一条日志最多等待多久被提交
+     */
+    public FlushPolicy(int maxChars, int maxRecords, long maxDelay, TimeUnit unit) {
+        if (maxChars <= 0 || maxRecords <= 0 || maxDelay < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxChars = maxChars;
+        this.maxRecords = maxRecords;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    public int maxChars() {
+        return maxChars;
+    }
+
+    public int maxRecords() {
+        return maxRecords;
+    }
+
+    public long maxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    /** 按大小、条数是否应该提交 */
+    boolean isFull(int chars, int records) {
+        return chars >= maxChars || records >= maxRecords;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy{maxChars=" + maxChars + ", maxRecords=" + maxRecords + ", maxDelay="
+                + (maxDelayNanos == Long.MAX_VALUE ? "never" : TimeUnit.NANOSECONDS.toMillis(maxDelayNanos) + "ms") + "}";
+    }
+}
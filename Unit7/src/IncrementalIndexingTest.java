@@ -0,0 +1,206 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParallelIndexingService + FileStateIndex 增量索引的测试
+ *
+ * 1. 第一次索引所有文件；关闭、重新打开 FileStateIndex 之后再索引，没有文件被重新索引
+ * 2. 修改、touch、删除、新建一些文件之后再索引：只有修改和新建的文件被重新索引，
+ *    touch 过（修改时间变了、内容没变）的文件因为内容哈希相同不被重新索引，删除的文件被报告
+ * 3. 有目录打不开（没有权限）时，它下面的文件不被报告删除，也没有从 FileStateIndex 中去掉
+ * 4. watch 模式：爬取完成后新建、修改、删除文件，不需要重新爬取就被索引、报告
+ * 运行：java IncrementalIndexingTest
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class IncrementalIndexingTest {
+    private static final int DIRS = 20;
+    private static final int FILES_PER_DIR = 50;
+
+    private static final FileFilter ALL = new FileFilter() {
+        @Override
+        public boolean accept(File pathname) {
+            return true;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        File root = Files.createTempDirectory("IncrementalIndexingTest").toFile();
+        File indexFile = File.createTempFile("IncrementalIndexingTest", ".idx");
+        indexFile.delete();
+        try {
+            for (int d = 0; d < DIRS; d++) {
+                File dir = new File(root, "dir" + d);
+                dir.mkdir();
+                for (int i = 0; i < FILES_PER_DIR; i++) {
+                    write(new File(dir, "file" + i), "content " + d + " " + i);
+                }
+            }
+            int total = DIRS * FILES_PER_DIR;
+
+            Run run = new Run(root, indexFile);
+            check("first run indexed", run.indexed.size(), total);
+
+            run = new Run(root, indexFile);
+            check("second run indexed", run.indexed.size(), 0);
+            check("second run unchanged", (int) run.service.unchangedCount(), total);
+
+            File modified = new File(root, "dir0/file0");
+            write(modified, "modified content");
+            File touched = new File(root, "dir1/file1");
+            Files.setLastModifiedTime(touched.toPath(), FileTime.fromMillis(touched.lastModified() + 10000));
+            File deleted = new File(root, "dir2/file2");
+            deleted.delete();
+            File created = new File(root, "dir3/new");
+            write(created, "new file");
+            File deletedDir = new File(root, "dir4");
+            for (File f : deletedDir.listFiles()) {
+                f.delete();
+            }
+            deletedDir.delete();
+
+            run = new Run(root, indexFile);
+            check("third run indexed", run.indexed.size(), 2);
+            if (!run.indexed.contains(modified.getAbsolutePath()) || !run.indexed.contains(created.getAbsolutePath())) {
+                throw new AssertionError("third run indexed " + run.indexed);
+            }
+            check("third run deleted", run.deleted.size(), 1 + FILES_PER_DIR);
+            if (!run.deleted.contains(deleted.getAbsolutePath())) {
+                throw new AssertionError("third run deleted " + run.deleted);
+            }
+            check("third run unchanged", (int) run.service.unchangedCount(), total - FILES_PER_DIR - 2);
+
+            run = new Run(root, indexFile, "dir8");
+            check("unreadable run deleted", run.deleted.size(), 0);
+            run = new Run(root, indexFile);
+            check("run after unreadable indexed", run.indexed.size(), 0);
+            check("run after unreadable deleted", run.deleted.size(), 0);
+
+            testWatch(root, indexFile);
+            System.out.println("PASS");
+        } finally {
+            delete(root);
+            indexFile.delete();
+        }
+    }
+
+    private static void testWatch(File root, File indexFile) throws Exception {
+        final Set<String> indexed = ConcurrentHashMap.newKeySet();
+        final Set<String> deleted = ConcurrentHashMap.newKeySet();
+        final CountDownLatch crawled = new CountDownLatch(1);
+        FileStateIndex stateIndex = new FileStateIndex(indexFile);
+        ParallelIndexingService service = new ParallelIndexingService(root, ALL, 2, 2, stateIndex, true) {
+            @Override
+            protected void indexFile(File file) {
+                indexed.add(file.getPath());
+            }
+
+            @Override
+            protected void fileDeleted(File file) {
+                deleted.add(file.getPath());
+            }
+
+            @Override
+            protected void crawlCompleted() {
+                crawled.countDown();
+            }
+        };
+        service.start();
+        if (!crawled.await(30, TimeUnit.SECONDS)) {
+            throw new AssertionError("initial crawl did not complete");
+        }
+        check("watch initial crawl indexed", indexed.size(), 0);
+
+        File created = new File(root, "dir5/watched");
+        write(created, "created while watching");
+        File modified = new File(root, "dir6/file6");
+        write(modified, "modified while watching");
+        File newDir = new File(root, "newdir");
+        newDir.mkdir();
+        File inNewDir = new File(newDir, "file");
+        write(inNewDir, "in a new directory");
+        File removed = new File(root, "dir7/file7");
+        removed.delete();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!(indexed.contains(created.getAbsolutePath()) && indexed.contains(modified.getAbsolutePath())
+                && indexed.contains(inNewDir.getAbsolutePath()) && deleted.contains(removed.getAbsolutePath()))) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("watch mode saw indexed=" + indexed + " deleted=" + deleted);
+            }
+            Thread.sleep(50);
+        }
+        service.stop();
+        service.awaitTermination();
+        stateIndex.close();
+        System.out.println("watch: indexed " + indexed.size() + ", deleted " + deleted.size());
+    }
+
+    /** 用同一个 FileStateIndex 文件索引一遍 */
+    private static class Run {
+        final Set<String> indexed = ConcurrentHashMap.newKeySet();
+        final Set<String> deleted = ConcurrentHashMap.newKeySet();
+        final ParallelIndexingService service;
+
+        Run(File root, File indexFile) throws Exception {
+            this(root, indexFile, null);
+        }
+
+        /** @param unreadable 这个名字的目录打开时抛出 AccessDeniedException */
+        Run(File root, File indexFile, final String unreadable) throws Exception {
+            FileStateIndex stateIndex = new FileStateIndex(indexFile);
+            service = new ParallelIndexingService(root, ALL, 4, 4, stateIndex, false) {
+                @Override
+                protected void indexFile(File file) {
+                    indexed.add(file.getPath());
+                }
+
+                @Override
+                protected void fileDeleted(File file) {
+                    deleted.add(file.getPath());
+                }
+
+                @Override
+                protected DirectoryStream<Path> openDirectory(Path dir) throws IOException {
+                    if (unreadable != null && dir.getFileName().toString().equals(unreadable)) {
+                        throw new AccessDeniedException(dir.toString());
+                    }
+                    return super.openDirectory(dir);
+                }
+            };
+            service.start();
+            service.awaitTermination();
+            stateIndex.close();
+        }
+    }
+
+    private static void check(String what, int actual, int expected) {
+        if (actual != expected) {
+            throw new AssertionError(what + ": " + actual + ", expected " + expected);
+        }
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
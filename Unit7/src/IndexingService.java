@@ -1,5 +1,14 @@
 import java.io.File;
 import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -18,17 +27,8 @@ public class IndexingService {
     public IndexingService(File root, final FileFilter fileFilter) {
         this.root = root;
         this.queue = new LinkedBlockingQueue<File>(CAPACITY);
-        // 创建一个文件过滤器对象，该 root 下的所有文件，会被生产者以这过滤器为条件，将所有文件使用【文件爬虫】添加到队列中
-        this.fileFilter = new FileFilter() {
-            /**
-             * 测试指定的抽象路径名是否应包含在路径名列表中
-             * @param pathname 路径名
-             * @return true/false
-             */
-            public boolean accept(File pathname) {
-                return pathname.isDirectory() || fileFilter.accept(pathname);
-            }
-        };
+        // 该 root 下的所有文件，会被生产者以这过滤器为条件，使用【文件爬虫】添加到队列中（目录总是会被检索）
+        this.fileFilter = fileFilter;
     }
 
     /** 文件是否已经加入到队列中，false表示未加入 */
@@ -71,19 +71,37 @@ public class IndexingService {
 
         /**
          * 检索文件
+         * 用 DirectoryStream 逐个读取目录项，而不是 listFiles() 一次把整个目录读成数组，目录再大也只占用很少的内存；
+         * 每个目录项只读一次属性（类型），不用再调用 isDirectory()；
+         * 待检索的目录放在显式的栈中，而不是递归调用，目录再深也不会栈溢出。
+         * 不跟随符号链接，目录的符号链接不会导致循环。
          * @param root 文件/目录
          */
         private void crawl(File root) throws InterruptedException {
-            // 【文件集合 + 文件夹集合】 的 path
-            File[] entries = root.listFiles(fileFilter);
-            // 检索文件 path，并添加到队列中
-            if (entries != null) {
-                for (File entry : entries) {
-                    if (entry.isDirectory()) {
-                        crawl(entry);
-                    } else if (!alreadyIndexed(entry)) {
-                        queue.put(entry);
+            Deque<Path> dirs = new ArrayDeque<Path>();
+            dirs.push(root.toPath());
+            while (!dirs.isEmpty()) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(dirs.pop())) {
+                    for (Path entry : entries) {
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        } catch (IOException e) {
+                            // 读取目录之后被删除了
+                            continue;
+                        }
+                        if (attrs.isDirectory()) {
+                            dirs.push(entry);
+                        } else {
+                            File file = entry.toFile();
+                            if (fileFilter.accept(file) && !alreadyIndexed(file)) {
+                                // 边读取目录边放入队列
+                                queue.put(file);
+                            }
+                        }
                     }
+                } catch (IOException | DirectoryIteratorException e) {
+                    // 没有权限、目录被删除：跳过这个目录（和 listFiles() 返回 null 一样）
                 }
             }
         }
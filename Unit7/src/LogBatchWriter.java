@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 日志线程的批量写出：把 LogRecordBuffer 中的 UTF-8 记录解码后攒在一个字符数组中，
+ * 按 FlushPolicy 一次 write 整批日志再 flush（组提交），而不是每行一次 println、一次 flush
+ *
+ * 解码器、字符数组都是重复使用的，处理记录时不分配对象。只由日志线程（消费者）使用。
+ * Created by osys on 2022/08/28 21:48.
+ */
+class LogBatchWriter extends LogSink {
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+    /** 字符数组最大的初始大小，maxChars 很大时（例如 FlushPolicy.NEVER）不预先分配那么多 */
+    private static final int MAX_INITIAL_BATCH = 1 << 20;
+
+    private final Writer out;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** 攒下的一批日志 */
+    private CharBuffer batch;
+
+    LogBatchWriter(Writer out, FlushPolicy policy) {
+        super(policy);
+        this.out = out;
+        this.batch = CharBuffer.allocate(Math.min(policy.maxChars(), MAX_INITIAL_BATCH));
+    }
+
+    @Override
+    int write(ByteBuffer record) {
+        // UTF-8 解码后的字符数不超过字节数
+        int needed = record.remaining() + LINE_SEPARATOR.length;
+        if (batch.remaining() < needed) {
+            commit();
+            if (batch.capacity() < needed) {
+                // 一条记录比整个数组还大，换一个放得下的数组
+                batch = CharBuffer.allocate(needed);
+            }
+        }
+        int start = batch.position();
+        decoder.reset();
+        decoder.decode(record, batch, true);
+        decoder.flush(batch);
+        batch.put(LINE_SEPARATOR);
+        return batch.position() - start;
+    }
+
+    /** 一次写出攒下的日志，再 flush */
+    @Override
+    void doCommit() {
+        try {
+            out.write(batch.array(), 0, batch.position());
+            out.flush();
+        } catch (IOException e) {
+            setError();
+        } finally {
+            batch.clear();
+        }
+    }
+
+    @Override
+    void doClose() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            setError();
+        }
+    }
+}
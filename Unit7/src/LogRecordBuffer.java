@@ -0,0 +1,443 @@
+import net.jcip.annotations.ThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 堆外的有界日志记录缓存：多个生产者、一个消费者（MPSC）的字节环形缓存
+ *
+ * LinkedBlockingQueue<String> 中每条日志都是一个 String 加一个链表节点，日志很多时给年轻代 GC 带来很大压力。
+ * 这里把日志直接编码成 UTF-8，写入一块 ByteBuffer.allocateDirect 分配的堆外内存，记录格式：
+ *     [int 长度][UTF-8 字节][填充到 ALIGNMENT 的整数倍]
+ * 1. 生产者：CAS 推进 tail，抢到一段连续的空间，写入长度和内容，再把这段空间的提交标记设为 RECORD
+ *    记录放不下缓存末尾剩余的空间时，连同末尾一起抢占，末尾标记为 PADDING，记录写到缓存开头
+ * 2. 消费者（只有一个）：从 head 开始，按顺序 CAS 推进 head 取得已提交的记录，处理完再清除提交标记，一次可以取走所有已提交的记录
+ *    生产者也可以用 discardOldest 以同样的方式取走最早的记录并丢弃
+ * 3. 记录被取走时可能还在被读取，所以生产者不是看 head，而是看 released 判断空间：
+ *    清除提交标记的线程按顺序把 released 推进到所有已经处理完的记录之后
+ *    head 追上 tail 时不能再看提交标记：缓存正好写满时，index(head) 处是还在被处理、没有释放的那条记录的标记
+ * 提交标记的 volatile 写、读保证了记录内容的可见性；写入、读取记录本身不需要加锁，也不分配对象。
+ * 超过 maxRecordLength() 的日志被截断（不会截断在多字节字符的中间）。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class LogRecordBuffer {
+    /** 记录的对齐字节数，每 ALIGNMENT 字节对应一个提交标记 */
+    static final int ALIGNMENT = 16;
+    /** 记录头（长度）的字节数 */
+    static final int HEADER_LENGTH = 4;
+    /** park 之前自旋重试的次数 */
+    private static final int SPIN_TRIES = 64;
+
+    /** 提交标记：未提交、记录、缓存末尾的填充 */
+    private static final int EMPTY = 0;
+    private static final int RECORD = 1;
+    private static final int PADDING = 2;
+
+    private static final AtomicLongFieldUpdater<LogRecordBuffer> HEAD =
+            AtomicLongFieldUpdater.newUpdater(LogRecordBuffer.class, "head");
+    private static final AtomicLongFieldUpdater<LogRecordBuffer> RELEASED =
+            AtomicLongFieldUpdater.newUpdater(LogRecordBuffer.class, "released");
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final int maxRecordLength;
+    private final AtomicIntegerArray commits;
+
+    /** 生产者抢占的位置 */
+    private final AtomicLong tail = new AtomicLong();
+    /** 消费者读取的位置，由消费者（和调用 discardOldest 的生产者）CAS 推进 */
+    private volatile long head;
+    /** head 之前已经处理完、可以被生产者覆盖的位置 */
+    private volatile long released;
+    /** 消费者读取记录用的视图，只由消费者访问 */
+    private final ByteBuffer readView;
+
+    /** 等待空间的生产者、等待记录的消费者 */
+    private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+    private volatile Thread waitingConsumer;
+
+    /**
+     * @param capacity 缓存的字节数，向上取整到 ALIGNMENT 的整数倍
+     */
+    public LogRecordBuffer(int capacity) {
+        if (capacity < 2 * ALIGNMENT) {
+            throw new IllegalArgumentException("capacity < " + 2 * ALIGNMENT);
+        }
+        this.capacity = align(capacity);
+        this.buffer = ByteBuffer.allocateDirect(this.capacity);
+        this.readView = buffer.duplicate();
+        this.commits = new AtomicIntegerArray(this.capacity / ALIGNMENT);
+        // 不超过一半容量：即使要连同缓存末尾一起抢占，也总能在缓存变空后放下
+        this.maxRecordLength = this.capacity / 2 - HEADER_LENGTH;
+    }
+
+    /** 消费者处理一条记录 */
+    public interface RecordHandler {
+        /**
+         * @param record 记录的 UTF-8 内容，在 position 和 limit 之间；只在本次调用中有效，不能保存
+         */
+        void onRecord(ByteBuffer record);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** 单条记录内容的最大字节数，更长的日志被截断 */
+    public int maxRecordLength() {
+        return maxRecordLength;
+    }
+
+    /** 已使用的字节数，包括记录头和填充（并发修改时是近似值） */
+    public int usedBytes() {
+        long h = released;
+        long t = tail.get();
+        return (int) Math.max(0, Math.min(t - h, capacity));
+    }
+
+    /** 是否没有可读取的记录（还没有提交的记录不算） */
+    public boolean isEmpty() {
+        long h = head;
+        return h == tail.get() || commits.get(index(h) / ALIGNMENT) == EMPTY;
+    }
+
+    /** 是否所有已经申请了空间的记录都被取走了（包括还在写入、没有提交的记录） */
+    public boolean isDrained() {
+        return head == tail.get();
+    }
+
+    /**
+     * 写入一条日志，不阻塞
+     * @return 空间不足时返回 false
+     */
+    public boolean offer(CharSequence msg) {
+        int chars = fittingChars(msg, maxRecordLength);
+        int length = utf8Length(msg, chars);
+        int size = align(HEADER_LENGTH + length);
+        while (true) {
+            long t = tail.get();
+            int offset = index(t);
+            boolean wrap = offset + size > capacity;
+            int claim = wrap ? capacity - offset + size : size;
+            if (t + claim - released > capacity) {
+                return false;
+            }
+            if (tail.compareAndSet(t, t + claim)) {
+                if (wrap) {
+                    // 填充的长度记为 -1，推进 released 时用来区分记录和填充
+                    buffer.putInt(offset, -1);
+                    commits.set(offset / ALIGNMENT, PADDING);
+                    offset = 0;
+                }
+                buffer.putInt(offset, length);
+                encodeUtf8(msg, chars, offset + HEADER_LENGTH);
+                commits.set(offset / ALIGNMENT, RECORD);
+                signalConsumer();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 写入一条日志，空间不足时等待
+     */
+    public void put(CharSequence msg) throws InterruptedException {
+        offerNanos(msg, Long.MAX_VALUE);
+    }
+
+    /**
+     * 写入一条日志，空间不足时最多等待 timeout
+     * @return 超时时返回 false
+     */
+    public boolean offer(CharSequence msg, long timeout, TimeUnit unit) throws InterruptedException {
+        return offerNanos(msg, unit.toNanos(timeout));
+    }
+
+    private boolean offerNanos(CharSequence msg, long nanos) throws InterruptedException {
+        long deadline = nanos == Long.MAX_VALUE ? 0 : System.nanoTime() + nanos;
+        for (int tries = 0; !offer(msg); tries++) {
+            long remaining = nanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (tries < SPIN_TRIES) {
+                Thread.yield();
+            } else if (awaitSpace(msg, remaining)) {
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 丢弃最早的一条已提交的记录，给新的日志腾出空间；可以由生产者调用
+     * @return 丢弃的记录数：最早的记录还没有提交（或缓存为空）时返回 0
+     */
+    public int discardOldest() {
+        while (true) {
+            long h = head;
+            if (h == tail.get()) {
+                return 0;
+            }
+            int offset = index(h);
+            int commit = commits.get(offset / ALIGNMENT);
+            if (commit == EMPTY) {
+                return 0;
+            }
+            if (HEAD.compareAndSet(this, h, h + sizeAt(offset))) {
+                release(offset);
+                if (commit == RECORD) {
+                    return 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按写入的顺序处理已提交的记录，只能由消费者线程调用
+     * @param maxRecords 最多处理的记录数
+     * @return 处理的记录数（不包括同时被 discardOldest 丢弃的记录）
+     */
+    public int drain(RecordHandler handler, int maxRecords) {
+        long start = head;
+        int n = 0;
+        try {
+            while (n < maxRecords) {
+                long h = head;
+                if (h == tail.get()) {
+                    break;
+                }
+                int offset = index(h);
+                int commit = commits.get(offset / ALIGNMENT);
+                if (commit == EMPTY) {
+                    break;
+                }
+                int length = buffer.getInt(offset);
+                // 先用 CAS 取得这条记录，和丢弃最早记录的生产者竞争；释放之前，生产者不会覆盖这段空间
+                if (!HEAD.compareAndSet(this, h, h + sizeAt(offset))) {
+                    continue;
+                }
+                try {
+                    if (commit == RECORD) {
+                        readView.clear();
+                        readView.position(offset + HEADER_LENGTH).limit(offset + HEADER_LENGTH + length);
+                        handler.onRecord(readView);
+                        n++;
+                    }
+                } finally {
+                    release(offset);
+                }
+            }
+        } finally {
+            if (head != start) {
+                signalAll(waitingProducers);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 等待可读取的记录，只能由消费者线程调用
+     */
+    public void awaitRecords() throws InterruptedException {
+        awaitRecordsNanos(Long.MAX_VALUE);
+    }
+
+    /**
+     * 等待可读取的记录，只能由消费者线程调用
+     * @return 超时时返回 false
+     */
+    public boolean awaitRecords(long timeout, TimeUnit unit) throws InterruptedException {
+        return awaitRecordsNanos(unit.toNanos(timeout));
+    }
+
+    private boolean awaitRecordsNanos(long nanos) throws InterruptedException {
+        long deadline = nanos == Long.MAX_VALUE ? 0 : System.nanoTime() + nanos;
+        for (int tries = 0; isEmpty(); tries++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = nanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (tries < SPIN_TRIES) {
+                Thread.yield();
+                continue;
+            }
+            // 登记之后再检查一次，避免错过登记之前发出的 unpark
+            waitingConsumer = Thread.currentThread();
+            try {
+                if (isEmpty()) {
+                    if (remaining == Long.MAX_VALUE) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                }
+            } finally {
+                waitingConsumer = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 登记到等待队列后再尝试写入一次，避免错过登记之前消费者发出的 unpark
+     * @return 这次尝试写入成功时返回 true
+     */
+    private boolean awaitSpace(CharSequence msg, long nanos) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        waitingProducers.add(current);
+        try {
+            if (offer(msg)) {
+                return true;
+            }
+            if (nanos == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, nanos);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            return false;
+        } finally {
+            waitingProducers.remove(current);
+        }
+    }
+
+    /** msg 截断、编码后的记录内容；会分配 byte[]，只在溢出等不频繁的情况下使用 */
+    byte[] encode(CharSequence msg) {
+        int chars = fittingChars(msg, maxRecordLength);
+        return msg.subSequence(0, chars).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** offset 处的记录（或填充）占用的字节数 */
+    private int sizeAt(int offset) {
+        int length = buffer.getInt(offset);
+        return length < 0 ? capacity - offset : align(HEADER_LENGTH + length);
+    }
+
+    /**
+     * offset 处已经取走的记录处理完了：清除提交标记，再把 released 推进到所有处理完的记录之后。
+     * 取走的顺序和处理完的顺序可能不同（消费者和丢弃最早记录的生产者），released 只越过连续的、已清除标记的记录
+     */
+    private void release(int offset) {
+        commits.set(offset / ALIGNMENT, EMPTY);
+        while (true) {
+            long r = released;
+            if (r >= head) {
+                return;
+            }
+            int o = index(r);
+            if (commits.get(o / ALIGNMENT) != EMPTY) {
+                // 还在被读取，由处理它的线程继续推进
+                return;
+            }
+            RELEASED.compareAndSet(this, r, r + sizeAt(o));
+        }
+    }
+
+    private void signalConsumer() {
+        Thread consumer = waitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private static void signalAll(Queue<Thread> waiters) {
+        for (Thread waiter; (waiter = waiters.poll()) != null; ) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    private int index(long pos) {
+        return (int) (pos % capacity);
+    }
+
+    private static int align(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /** msg 的前多少个字符编码后不超过 maxBytes 字节（不拆开代理对） */
+    private static int fittingChars(CharSequence msg, int maxBytes) {
+        int bytes = 0;
+        int n = msg.length();
+        for (int i = 0; i < n; i++) {
+            char c = msg.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(msg.charAt(i + 1))) {
+                if (bytes + 4 > maxBytes) {
+                    return i;
+                }
+                bytes += 4;
+                i++;
+                continue;
+            }
+            int width = c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            if (bytes + width > maxBytes) {
+                return i;
+            }
+            bytes += width;
+        }
+        return n;
+    }
+
+    /** msg 的前 chars 个字符编码成 UTF-8 后的字节数 */
+    static int utf8Length(CharSequence msg, int chars) {
+        int bytes = 0;
+        for (int i = 0; i < chars; i++) {
+            char c = msg.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(msg.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /** 把 msg 的前 chars 个字符编码成 UTF-8，从 offset 开始写入缓存；不成对的代理字符写成 U+FFFD */
+    private void encodeUtf8(CharSequence msg, int chars, int offset) {
+        int p = offset;
+        for (int i = 0; i < chars; i++) {
+            char c = msg.charAt(i);
+            if (c < 0x80) {
+                buffer.put(p++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(p++, (byte) (0xC0 | c >> 6));
+                buffer.put(p++, (byte) (0x80 | c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < chars && Character.isLowSurrogate(msg.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, msg.charAt(++i));
+                    buffer.put(p++, (byte) (0xF0 | cp >> 18));
+                    buffer.put(p++, (byte) (0x80 | cp >> 12 & 0x3F));
+                    buffer.put(p++, (byte) (0x80 | cp >> 6 & 0x3F));
+                    buffer.put(p++, (byte) (0x80 | cp & 0x3F));
+                } else {
+                    // 替换字符 U+FFFD，占 3 个字节，和 utf8Length 的计算一致
+                    buffer.put(p++, (byte) 0xEF);
+                    buffer.put(p++, (byte) 0xBF);
+                    buffer.put(p++, (byte) 0xBD);
+                }
+            } else {
+                buffer.put(p++, (byte) (0xE0 | c >> 12));
+                buffer.put(p++, (byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put(p++, (byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+}
@@ -1,48 +1,125 @@
-import net.jcip.annotations.GuardedBy;
-
-import java.io.PrintWriter;
 import java.io.Writer;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * 日志先编码成 UTF-8 记录写入堆外的 LogRecordBuffer，由日志线程批量取出，按 FlushPolicy 组提交到 LogSink
+ * （Writer，或者直接追加 UTF-8 记录的内存映射文件 MappedLogSink）
+ *
+ * 关闭标记和预留的日志条数放在同一个 AtomicLong 中（最高位是关闭标记，其余是条数），
+ * log 用一次 CAS 同时完成"检查是否已关闭"和"预留一条"，不需要加锁。
+ * 缓存已满时按 OverflowStrategy 处理：等待、丢弃或写入溢出文件。
  * Created by osys on 2022/08/28 21:48.
  */
 public class LogService {
-    private final BlockingQueue<String> queue;
+    /** 默认的缓存字节数 */
+    private static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    /** state 的关闭标记 */
+    private static final long SHUTDOWN = Long.MIN_VALUE;
+
+    private final LogRecordBuffer queue;
     private final LoggerThread loggerThread;
-    private final PrintWriter writer;
-    @GuardedBy("this")
-    private boolean isShutdown;
-    @GuardedBy("this")
-    private int reservations;
+    private final LogSink sink;
+    private final OverflowStrategy overflow;
+    /** 关闭标记 | 已预留、还没有被日志线程写出的日志条数 */
+    private final AtomicLong state = new AtomicLong();
 
     public LogService(Writer writer) {
-        this.queue = new LinkedBlockingQueue<String>();
+        this(writer, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity 缓存的字节数，缓存满时 log 阻塞
+     */
+    public LogService(Writer writer, int capacity) {
+        this(writer, capacity, FlushPolicy.GROUP_COMMIT);
+    }
+
+    /**
+     * @param capacity    缓存的字节数，缓存满时 log 阻塞
+     * @param flushPolicy 日志线程什么时候写出并 flush
+     */
+    public LogService(Writer writer, int capacity, FlushPolicy flushPolicy) {
+        this(writer, capacity, flushPolicy, OverflowStrategy.block());
+    }
+
+    /**
+     * @param capacity    缓存的字节数
+     * @param flushPolicy 日志线程什么时候写出并 flush
+     * @param overflow    缓存已满时怎么处理新的日志
+     */
+    public LogService(Writer writer, int capacity, FlushPolicy flushPolicy, OverflowStrategy overflow) {
+        this(new LogBatchWriter(writer, flushPolicy), capacity, overflow);
+    }
+
+    /**
+     * @param sink     日志写到哪里，以及什么时候提交
+     * @param capacity 缓存的字节数
+     * @param overflow 缓存已满时怎么处理新的日志
+     */
+    public LogService(LogSink sink, int capacity, OverflowStrategy overflow) {
+        this.queue = new LogRecordBuffer(capacity);
+        this.overflow = overflow.bind();
+        this.sink = sink;
         this.loggerThread = new LoggerThread();
-        this.writer = new PrintWriter(writer);
     }
 
     public void start() {
         loggerThread.start();
     }
 
+    /** 等待日志线程写完 stop() 之前的日志、关闭 LogSink */
+    public void awaitTermination() throws InterruptedException {
+        loggerThread.join();
+    }
+
     public void stop() {
-        synchronized (this) {
-            isShutdown = true;
-        }
+        long s;
+        do {
+            s = state.get();
+        } while (!state.compareAndSet(s, s | SHUTDOWN));
         loggerThread.interrupt();
     }
 
     /** 生产 */
     public void log(String msg) throws InterruptedException {
-        synchronized (this) {
-            if (isShutdown) {
+        long s;
+        do {
+            s = state.get();
+            if ((s & SHUTDOWN) != 0) {
                 throw new IllegalStateException("LogService Is Shut Down");
             }
-            ++ reservations;
+        } while (!state.compareAndSet(s, s + 1));
+        int released = 1;
+        try {
+            // 丢弃的日志不会由日志线程写出，取消它们的预留
+            released = overflow.offer(queue, msg);
+        } finally {
+            // 等待空间时被中断，也要取消预留，否则日志线程会一直等这一条
+            if (released != 0) {
+                state.addAndGet(-released);
+            }
         }
-        queue.put(msg);
+    }
+
+    /** 已预留、还没有被日志线程写出的日志条数（包括溢出文件中的） */
+    public long pendingCount() {
+        return state.get() & ~SHUTDOWN;
+    }
+
+    /** 缓存中已使用的字节数 */
+    public int bufferedBytes() {
+        return queue.usedBytes();
+    }
+
+    /** 因为缓存已满被丢弃的日志条数 */
+    public long droppedCount() {
+        return overflow.droppedCount();
+    }
+
+    /** 写入溢出文件的日志条数 */
+    public long spilledCount() {
+        return overflow.spilledCount();
     }
 
     /** 消费 */
@@ -51,24 +128,23 @@ public class LogService {
             try {
                 while (true) {
                     try {
-                        synchronized (LogService.this) {
-                            if (!isShutdown || reservations != 0) {
-                                // 队列中存在消息，LogService 未关闭
-                            } else {
-                                break;
-                            }
+                        if (state.get() == SHUTDOWN) {
+                            // LogService 已关闭，预留的日志都已写出
+                            break;
+                        }
+                        // 消费：缓存为空时先重放溢出的日志，否则一次取走所有已提交的记录
+                        int n = overflow.replay(queue, sink);
+                        if (n == 0) {
+                            n = sink.drainFrom(queue);
                         }
-                        // 消费
-                        String msg = queue.take();
-                        synchronized (LogService.this) {
-                            --reservations;
+                        if (n > 0) {
+                            state.addAndGet(-n);
                         }
-                        writer.println(msg);
                     } catch (InterruptedException e) {
                     }
                 }
             } finally {
-                writer.close();
+                sink.close();
             }
         }
     }
@@ -0,0 +1,115 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较不同 LogSink、FlushPolicy 下 LogService 的吞吐量
+ *
+ * 多个生产者同时写日志，日志线程写入临时目录中的文件：
+ * 1. Writer：没有 BufferedWriter，每次 flush 都是一次 write 系统调用
+ * 2. MappedLogSink：直接复制到内存映射的分段，FlushPolicy 决定 fsync 的频率
+ * 计时从第一条 log 开始，到 stop() 之后日志线程写完、关闭文件为止。
+ * 运行：java LogServiceBenchmark [生产者数] [每个生产者的日志条数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class LogServiceBenchmark {
+    private static final int CAPACITY = 4 * 1024 * 1024;
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** 在目录 dir 中创建被测试的 LogSink */
+    private abstract static class SinkFactory {
+        final String name;
+
+        SinkFactory(String name) {
+            this.name = name;
+        }
+
+        abstract LogSink newSink(File dir) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nProducers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        SinkFactory[] sinks = {
+                writer(FlushPolicy.EVERY_RECORD),
+                writer(new FlushPolicy(64 * 1024, 100, 0, TimeUnit.MILLISECONDS)),
+                writer(FlushPolicy.GROUP_COMMIT),
+                writer(new FlushPolicy(256 * 1024, Integer.MAX_VALUE, 10, TimeUnit.MILLISECONDS)),
+                mapped(FlushPolicy.NEVER),
+                mapped(new FlushPolicy(Integer.MAX_VALUE, Integer.MAX_VALUE, 1, TimeUnit.SECONDS)),
+                mapped(new FlushPolicy(1024 * 1024, Integer.MAX_VALUE, 100, TimeUnit.MILLISECONDS)),
+        };
+        for (SinkFactory sink : sinks) {
+            // 预热一次，再测量一次
+            run(sink, nProducers, perProducer / 10);
+            long nanos = run(sink, nProducers, perProducer);
+            long total = (long) nProducers * perProducer;
+            System.out.printf("%-96s %10.0f lines/s%n", sink.name, total * 1e9 / nanos);
+        }
+    }
+
+    private static SinkFactory writer(final FlushPolicy policy) {
+        return new SinkFactory("Writer " + policy) {
+            @Override
+            LogSink newSink(File dir) throws IOException {
+                return new LogBatchWriter(new OutputStreamWriter(
+                        new FileOutputStream(new File(dir, "app.log")), StandardCharsets.UTF_8), policy);
+            }
+        };
+    }
+
+    private static SinkFactory mapped(final FlushPolicy policy) {
+        return new SinkFactory("MappedLogSink fsync " + policy) {
+            @Override
+            LogSink newSink(File dir) throws IOException {
+                return new MappedLogSink(dir, "app", SEGMENT_SIZE, policy);
+            }
+        };
+    }
+
+    /**
+     * @return 运行时间 ns
+     */
+    private static long run(SinkFactory factory, int nProducers, final int perProducer) throws Exception {
+        File dir = Files.createTempDirectory("LogServiceBenchmark").toFile();
+        try {
+            final LogService service = new LogService(factory.newSink(dir), CAPACITY, OverflowStrategy.block());
+            service.start();
+            final CountDownLatch startGate = new CountDownLatch(1);
+            final CountDownLatch endGate = new CountDownLatch(nProducers);
+            for (int p = 0; p < nProducers; p++) {
+                final String prefix = "producer-" + p + " GET /index.html 200 ";
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            startGate.await();
+                            for (int i = 0; i < perProducer; i++) {
+                                service.log(prefix + i);
+                            }
+                        } catch (InterruptedException ignored) {
+                        } finally {
+                            endGate.countDown();
+                        }
+                    }
+                }.start();
+            }
+            long start = System.nanoTime();
+            startGate.countDown();
+            endGate.await();
+            service.stop();
+            service.awaitTermination();
+            return System.nanoTime() - start;
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * LogService（LogRecordBuffer）的并发正确性压力测试
+ *
+ * 多个生产者各自按顺序写入 "生产者编号 序号 内容"，内容的长度随机，包含中文和代理对（emoji），
+ * 缓存很小，经常写满、绕回缓存开头。日志线程写出的每一行都要检查：
+ * 1. 内容和写入的完全一致（UTF-8 编码、解码正确）
+ * 2. 同一个生产者的日志按序号顺序出现，不丢失、不重复
+ * 3. stop() 之后 log 抛出 IllegalStateException，stop() 之前写入的日志全部写出后才关闭 writer
+ * 4. 超长的日志被截断，但不会截断在字符中间
+ *
+ * 运行：java LogServiceStressTest [生产者数] [每个生产者的日志条数] [缓存字节数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class LogServiceStressTest {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789 并发编程实战日志😀";
+
+    public static void main(String[] args) throws Exception {
+        int nProducers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+
+        final CheckingWriter out = new CheckingWriter(nProducers);
+        final LogService service = new LogService(out, capacity);
+        service.start();
+
+        final CountDownLatch endGate = new CountDownLatch(nProducers);
+        long start = System.nanoTime();
+        for (int p = 0; p < nProducers; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            service.log(message(producer, i));
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            }.start();
+        }
+        endGate.await();
+        service.stop();
+        try {
+            service.log("after stop");
+            throw new AssertionError("log after stop() should be refused");
+        } catch (IllegalStateException expected) {
+        }
+        out.closed.await();
+        long elapsed = System.nanoTime() - start;
+
+        if (out.failure != null) {
+            throw out.failure;
+        }
+        for (int p = 0; p < nProducers; p++) {
+            if (out.next[p] != perProducer) {
+                throw new AssertionError("producer " + p + ": " + out.next[p] + " of " + perProducer + " lines written");
+            }
+        }
+        long total = (long) nProducers * perProducer;
+        System.out.printf("%d lines, %.0f lines/s%n", total, total * 1e9 / elapsed);
+
+        checkTruncation();
+        System.out.println("PASS");
+    }
+
+    /** 第 producer 个生产者的第 i 条日志，内容由 (producer, i) 决定 */
+    static String message(int producer, int i) {
+        StringBuilder sb = new StringBuilder().append(producer).append(' ').append(i).append(' ');
+        long seed = producer * 1_000_003L + i;
+        int length = (int) ((seed * 31 + 7) % 97);
+        for (int k = 0; k < length; k++) {
+            int c = (int) ((seed + k * 13) % (ALPHABET.length() - 1));
+            if (Character.isLowSurrogate(ALPHABET.charAt(c))) {
+                c--;
+            }
+            sb.append(ALPHABET.charAt(c));
+            if (Character.isHighSurrogate(ALPHABET.charAt(c))) {
+                sb.append(ALPHABET.charAt(c + 1));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** 超长的日志被截断到 maxRecordLength() 字节以内，代理对不会被拆开 */
+    private static void checkTruncation() throws InterruptedException {
+        LogRecordBuffer buffer = new LogRecordBuffer(256);
+        StringBuilder sb = new StringBuilder("x");
+        while (sb.length() < 1000) {
+            sb.append("😀");
+        }
+        buffer.put(sb);
+        final StringBuilder line = new StringBuilder();
+        buffer.drain(new LogRecordBuffer.RecordHandler() {
+            @Override
+            public void onRecord(ByteBuffer record) {
+                line.append(StandardCharsets.UTF_8.decode(record));
+            }
+        }, 1);
+        int max = buffer.maxRecordLength();
+        if (line.length() == 0 || LogRecordBuffer.utf8Length(line, line.length()) > max
+                || !sb.toString().startsWith(line.toString()) || line.indexOf("\uFFFD") >= 0) {
+            throw new AssertionError("bad truncation: " + line);
+        }
+    }
+
+    /** 按行检查日志线程写出的内容 */
+    private static class CheckingWriter extends Writer {
+        final int[] next;
+        final CountDownLatch closed = new CountDownLatch(1);
+        private final StringBuilder line = new StringBuilder();
+        volatile Error failure;
+
+        CheckingWriter(int nProducers) {
+            this.next = new int[nProducers];
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                if (c == '\n') {
+                    checkLine(line.toString());
+                    line.setLength(0);
+                } else if (c != '\r') {
+                    line.append(c);
+                }
+            }
+        }
+
+        private void checkLine(String s) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                int sp1 = s.indexOf(' ');
+                int sp2 = s.indexOf(' ', sp1 + 1);
+                int producer = Integer.parseInt(s.substring(0, sp1));
+                int i = Integer.parseInt(s.substring(sp1 + 1, sp2));
+                if (i != next[producer]) {
+                    throw new AssertionError("producer " + producer + ": expected " + next[producer] + ", got " + i);
+                }
+                if (!s.equals(message(producer, i))) {
+                    throw new AssertionError("corrupted line: " + s);
+                }
+                next[producer]++;
+            } catch (Error e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new AssertionError("unparsable line: " + s);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志线程把 LogRecordBuffer 中的记录写到哪里，以及按 FlushPolicy 什么时候提交（flush 或 fsync）
+ *
+ * 子类实现 write（追加一条记录）、doCommit（提交）、doClose（关闭）。只由日志线程使用。
+ * 写出时的 IOException 不会抛出（和 PrintWriter 一样），checkError() 返回 true。
+ * Created by osys on 2022/08/28 21:48.
+ */
+public abstract class LogSink implements LogRecordBuffer.RecordHandler {
+    private final FlushPolicy policy;
+    /** 上次提交之后追加的记录数、大小 */
+    private int records;
+    private int size;
+    /** 上次提交之后第一条记录追加的时间 */
+    private long firstRecordNanos;
+    private boolean error;
+
+    protected LogSink(FlushPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * 追加一条记录
+     * @param record UTF-8 内容，在 position 和 limit 之间
+     * @return 追加的大小（字符数或字节数），用于 FlushPolicy 的大小条件
+     */
+    abstract int write(ByteBuffer record);
+
+    /** 提交上次提交之后追加的记录 */
+    abstract void doCommit();
+
+    abstract void doClose();
+
+    @Override
+    public final void onRecord(ByteBuffer record) {
+        int n = write(record);
+        if (records++ == 0) {
+            firstRecordNanos = System.nanoTime();
+        }
+        size += n;
+        if (policy.isFull(size, records)) {
+            commit();
+        }
+    }
+
+    /**
+     * 等待并取出 buffer 中的所有记录，到了 FlushPolicy 规定的时间就提交
+     * @return 取出的记录数
+     */
+    final int drainFrom(LogRecordBuffer buffer) throws InterruptedException {
+        long wait = nanosUntilCommit();
+        if (wait <= 0) {
+            commit();
+            wait = Long.MAX_VALUE;
+        }
+        if (wait == Long.MAX_VALUE) {
+            buffer.awaitRecords();
+        } else if (!buffer.awaitRecords(wait, TimeUnit.NANOSECONDS)) {
+            commit();
+            return 0;
+        }
+        return buffer.drain(this, Integer.MAX_VALUE);
+    }
+
+    final void commit() {
+        if (records == 0) {
+            return;
+        }
+        try {
+            doCommit();
+        } finally {
+            records = 0;
+            size = 0;
+        }
+    }
+
+    /** 提交剩下的记录并关闭 */
+    final void close() {
+        try {
+            commit();
+        } finally {
+            doClose();
+        }
+    }
+
+    /** 是否出现过 IOException */
+    public boolean checkError() {
+        return error;
+    }
+
+    final void setError() {
+        error = true;
+    }
+
+    /** 距离按时间提交还有多久；没有待提交的记录，或者不按时间提交时返回 Long.MAX_VALUE */
+    private long nanosUntilCommit() {
+        if (records == 0 || policy.maxDelayNanos() == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return policy.maxDelayNanos() - (System.nanoTime() - firstRecordNanos);
+    }
+}
@@ -1,18 +1,16 @@
-import java.io.PrintWriter;
 import java.io.Writer;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Created by osys on 2022/08/28 21:48.
  */
 public class LogWriter {
-    private final BlockingQueue<String> queue;
+    private final LogRecordBuffer queue;
     private final LoggerThread logger;
-    private static final int CAPACITY = 1000;
+    /** 缓存的字节数 */
+    private static final int CAPACITY = 64 * 1024;
 
     public LogWriter(Writer writer) {
-        this.queue = new LinkedBlockingQueue<String>(CAPACITY);
+        this.queue = new LogRecordBuffer(CAPACITY);
         this.logger = new LoggerThread(writer);
     }
 
@@ -28,16 +26,16 @@ public class LogWriter {
      * 日记线程 class
      */
     private class LoggerThread extends Thread {
-        private final PrintWriter writer;
+        private final LogSink writer;
 
         public LoggerThread(Writer writer) {
-            this.writer = new PrintWriter(writer, true);
+            this.writer = new LogBatchWriter(writer, FlushPolicy.GROUP_COMMIT);
         }
 
         public void run() {
             try {
                 while (true) {
-                    writer.println(queue.take());
+                    writer.drainFrom(queue);
                 }
             } catch (InterruptedException ignored) {
             } finally {
@@ -1,20 +1,27 @@
-import java.io.PrintWriter;
 import java.io.Writer;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Created by osys on 2022/08/28 21:48.
  */
 public class LogWriter2 {
-    private final BlockingQueue<String> queue;
+    private final LogRecordBuffer queue;
     private final LoggerThread2 logger;
-    private static final int CAPACITY = 1000;
+    private final OverflowStrategy overflow;
+    /** 缓存的字节数 */
+    private static final int CAPACITY = 64 * 1024;
 
     private boolean isShutdownRequested = false;
 
     public LogWriter2(Writer writer) {
-        this.queue = new LinkedBlockingQueue<String>(CAPACITY);
+        this(writer, OverflowStrategy.block());
+    }
+
+    /**
+     * @param overflow 缓存已满时怎么处理新的日志
+     */
+    public LogWriter2(Writer writer, OverflowStrategy overflow) {
+        this.queue = new LogRecordBuffer(CAPACITY);
+        this.overflow = overflow.bind();
         this.logger = new LoggerThread2(writer);
     }
 
@@ -23,14 +30,23 @@ public class LogWriter2 {
     }
 
     public void log(String msg) throws InterruptedException {
-        queue.put(msg);
         if (!isShutdownRequested) {
-            queue.put(msg);
+            overflow.offer(queue, msg);
         } else {
             throw new IllegalStateException("logger is shut down");
         }
     }
 
+    /** 缓存中已使用的字节数 */
+    public int bufferedBytes() {
+        return queue.usedBytes();
+    }
+
+    /** 因为缓存已满被丢弃的日志条数 */
+    public long droppedCount() {
+        return overflow.droppedCount();
+    }
+
     public void setShutdownStatus(boolean status) {
         this.isShutdownRequested = status;
     }
@@ -39,16 +55,18 @@ public class LogWriter2 {
      * 日记线程 class
      */
     private class LoggerThread2 extends Thread {
-        private final PrintWriter writer;
+        private final LogSink writer;
 
         public LoggerThread2(Writer writer) {
-            this.writer = new PrintWriter(writer, true);
+            this.writer = new LogBatchWriter(writer, FlushPolicy.GROUP_COMMIT);
         }
 
         public void run() {
             try {
                 while (true) {
-                    writer.println(queue.take());
+                    if (overflow.replay(queue, writer) == 0) {
+                        writer.drainFrom(queue);
+                    }
                 }
             } catch (InterruptedException ignored) {
             } finally {
@@ -0,0 +1,259 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把 LogRecordBuffer 中已经编码好的 UTF-8 记录直接复制到内存映射的日志文件中，每条记录后面加一个 '\n'
+ *
+ * 不需要 Writer 的字符集编码（记录已经是 UTF-8），也没有 write 系统调用，只是一次内存复制。
+ * 1. 分段：日志写入 dir/name-000001.log、name-000002.log……每个分段 segmentSize 字节，写满了切换到下一个分段
+ * 2. 预分配：后台线程提前创建下一个分段，设置文件长度、映射到内存，并逐页写入 0，
+ *    让分配磁盘空间、缺页中断都发生在后台，而不是日志线程切换分段的时候
+ * 3. fsync：按 FlushPolicy（大小按字节计算）调用 MappedByteBuffer.force()，在性能和持久性之间取舍；
+ *    切换分段（和关闭）时，后台线程 force 旧的分段，再把文件截断到实际写入的长度
+ * 预分配失败（例如磁盘满了）时 checkError() 返回 true，没有分段可写的日志被丢弃，计入 droppedCount()；
+ * 之后的每条日志都会检查下一个分段是否已经分配好，分配成功后继续写入。
+ * 只由日志线程使用（后台线程只访问它创建的、或者交给它收尾的分段）。
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class MappedLogSink extends LogSink {
+    private static final int PAGE_SIZE = 4096;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private final File dir;
+    private final String name;
+    private final int segmentSize;
+    /** 预分配下一个分段、收尾旧的分段 */
+    private final ExecutorService background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "MappedLogSink-preallocator");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private int nextIndex;
+    /** 当前分段，分配失败时为 null（直到下一个分段分配成功，日志被丢弃） */
+    private Segment current;
+    private Future<Segment> next;
+    /** 没有分段可写而丢弃的日志条数，只由日志线程修改 */
+    private volatile long dropped;
+
+    /**
+     * @param dir         日志目录，已有的分段不会被覆盖，从编号最大的分段之后继续
+     * @param name        分段文件名的前缀
+     * @param segmentSize 每个分段的字节数
+     * @param syncPolicy  什么时候 fsync
+     */
+    public MappedLogSink(File dir, String name, int segmentSize, FlushPolicy syncPolicy) throws IOException {
+        super(syncPolicy);
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize < " + MIN_SEGMENT_SIZE);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        this.dir = dir;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.nextIndex = lastSegmentIndex() + 1;
+        this.current = Segment.allocate(segmentFile(nextIndex++), segmentSize);
+        this.next = preallocate();
+    }
+
+    /** 第 index 个分段的文件 */
+    public File segmentFile(int index) {
+        return new File(dir, String.format("%s-%06d.log", name, index));
+    }
+
+    @Override
+    int write(ByteBuffer record) {
+        int size = record.remaining() + 1;
+        if (current == null || current.map.remaining() < size) {
+            roll();
+        }
+        if (current == null) {
+            dropped++;
+            return 0;
+        }
+        MappedByteBuffer map = current.map;
+        if (map.remaining() < size) {
+            // 一条记录比整个分段还大，截断
+            record.limit(record.position() + map.remaining() - 1);
+            size = map.remaining();
+        }
+        map.put(record);
+        map.put((byte) '\n');
+        return size;
+    }
+
+    @Override
+    void doCommit() {
+        if (current != null) {
+            current.map.force();
+        }
+    }
+
+    @Override
+    void doClose() {
+        if (current != null) {
+            // 也交给后台线程：日志线程可能带着 stop() 的中断状态，FileChannel 会因为中断而关闭
+            finishInBackground(current);
+            current = null;
+        }
+        // 等待后台线程收尾所有分段，删除预分配了但没有用到的分段
+        background.shutdown();
+        try {
+            Segment unused = awaitNext();
+            unused.discard();
+            if (!background.awaitTermination(1, TimeUnit.MINUTES)) {
+                setError();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ignored) {
+        }
+    }
+
+    /** 没有分段可写而丢弃的日志条数 */
+    public long droppedCount() {
+        return dropped;
+    }
+
+    /** 切换到预分配好的下一个分段，旧的分段交给后台线程收尾 */
+    private void roll() {
+        Segment old = current;
+        if (old == null && !next.isDone()) {
+            // 上一次分配失败，重新分配的分段还没有好：不阻塞日志线程，这条日志被丢弃
+            return;
+        }
+        try {
+            current = awaitNext();
+        } catch (ExecutionException e) {
+            setError();
+            current = null;
+        }
+        next = preallocate();
+        if (old != null) {
+            finishInBackground(old);
+        }
+    }
+
+    private void finishInBackground(final Segment segment) {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                segment.finish();
+            }
+        });
+    }
+
+    /** 等待预分配的分段；日志线程被中断（stop）时也要等到，保留中断状态 */
+    private Segment awaitNext() throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return next.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Future<Segment> preallocate() {
+        final File file = segmentFile(nextIndex++);
+        return background.submit(new Callable<Segment>() {
+            @Override
+            public Segment call() throws IOException {
+                return Segment.allocate(file, segmentSize);
+            }
+        });
+    }
+
+    /** 目录中已有分段的最大编号，没有时返回 0 */
+    private int lastSegmentIndex() {
+        int last = 0;
+        String[] names = dir.list();
+        if (names != null) {
+            for (String s : names) {
+                if (s.startsWith(name + "-") && s.endsWith(".log")) {
+                    try {
+                        last = Math.max(last, Integer.parseInt(s.substring(name.length() + 1, s.length() - 4)));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        return last;
+    }
+
+    /** 一个映射到内存的分段 */
+    private static final class Segment {
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer map;
+
+        private Segment(File file, FileChannel channel, MappedByteBuffer map) {
+            this.file = file;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        /** 创建分段文件，映射到内存，逐页写入 0，让磁盘空间、物理内存提前分配好 */
+        static Segment allocate(File file, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(size);
+                FileChannel channel = raf.getChannel();
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                for (int i = 0; i < size; i += PAGE_SIZE) {
+                    map.put(i, (byte) 0);
+                }
+                return new Segment(file, channel, map);
+            } catch (IOException e) {
+                raf.close();
+                file.delete();
+                throw e;
+            }
+        }
+
+        /** fsync，把文件截断到实际写入的长度，关闭文件 */
+        void finish() {
+            map.force();
+            try {
+                // 映射还没有被回收，有的平台（Windows）不允许截断，这时文件末尾保留 0
+                channel.truncate(map.position());
+            } catch (IOException ignored) {
+            }
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        /** 关闭并删除没有用到的分段 */
+        void discard() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            file.delete();
+        }
+    }
+}
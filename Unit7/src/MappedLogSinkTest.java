@@ -0,0 +1,165 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogService + MappedLogSink 的正确性测试
+ *
+ * 多个生产者写入带中文的日志，分段很小，会切换很多次分段。日志线程结束后按编号读出所有分段，检查：
+ * 1. 同一个生产者的日志按顺序出现，内容完全一致，不丢失、不重复
+ * 2. 分段被截断到实际写入的长度（末尾没有预分配留下的 0）
+ * 3. 预分配了但没有用到的分段被删除；再次打开同一个目录时，从最后一个分段之后继续编号
+ * 4. 一个分段分配失败之后，后面的分段分配成功时继续写入，期间丢弃的日志计入 droppedCount()
+ * 运行：java MappedLogSinkTest [生产者数] [每个生产者的日志条数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class MappedLogSinkTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int nProducers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        final int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        File dir = Files.createTempDirectory("MappedLogSinkTest").toFile();
+        try {
+            runOnce(dir, nProducers, perProducer);
+            int segments = segmentFiles(dir).length;
+            check(dir, nProducers, perProducer);
+            if (segments < 10) {
+                throw new AssertionError("expected many segments, got " + segments);
+            }
+
+            // 同一个目录再写一次：新的分段接在后面，原有的分段不变
+            runOnce(dir, 1, 10);
+            File[] files = segmentFiles(dir);
+            if (files.length != segments + 1) {
+                throw new AssertionError(files.length + " segments after reopening, expected " + (segments + 1));
+            }
+            System.out.println(segments + " segments, PASS");
+        } finally {
+            delete(dir);
+        }
+
+        File failing = Files.createTempDirectory("MappedLogSinkTest").toFile();
+        try {
+            checkRecovery(failing, perProducer);
+        } finally {
+            delete(failing);
+        }
+    }
+
+    /** 第三个分段的位置上是一个目录（第一个分段写满时才会预分配它），预分配失败；之后的分段正常分配 */
+    private static void checkRecovery(File dir, int lines) throws Exception {
+        MappedLogSink sink = new MappedLogSink(dir, "app", SEGMENT_SIZE, FlushPolicy.NEVER);
+        File blocked = sink.segmentFile(3);
+        if (!blocked.mkdir()) {
+            throw new AssertionError("cannot create " + blocked);
+        }
+        LogService service = new LogService(sink, 64 * 1024, OverflowStrategy.block());
+        service.start();
+        for (int i = 0; i < lines; i++) {
+            service.log(line(0, i));
+        }
+        service.stop();
+        service.awaitTermination();
+
+        long written = 0;
+        int last = -1;
+        for (File f : segmentFiles(dir)) {
+            if (f.isDirectory()) {
+                continue;
+            }
+            for (String s : new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8).split("\n")) {
+                int i = Integer.parseInt(s.split(" ")[1]);
+                if (i <= last || !s.equals(line(0, i))) {
+                    throw new AssertionError(f + ": " + s + " after line " + last);
+                }
+                last = i;
+                written++;
+            }
+        }
+        if (!sink.checkError() || sink.droppedCount() == 0) {
+            throw new AssertionError("failed preallocation not reported: dropped " + sink.droppedCount());
+        }
+        if (last != lines - 1 || written + sink.droppedCount() != lines) {
+            throw new AssertionError("written " + written + " dropped " + sink.droppedCount() + " of " + lines
+                    + ", last line " + last);
+        }
+        System.out.println("recovered after a failed segment, dropped " + sink.droppedCount() + ", PASS");
+    }
+
+    private static void delete(File dir) {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static void runOnce(File dir, int nProducers, final int perProducer) throws Exception {
+        MappedLogSink sink = new MappedLogSink(dir, "app", SEGMENT_SIZE,
+                new FlushPolicy(SEGMENT_SIZE / 4, Integer.MAX_VALUE, 10, TimeUnit.MILLISECONDS));
+        final LogService service = new LogService(sink, 64 * 1024, OverflowStrategy.block());
+        service.start();
+        final CountDownLatch endGate = new CountDownLatch(nProducers);
+        for (int p = 0; p < nProducers; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < perProducer; i++) {
+                            service.log(line(producer, i));
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            }.start();
+        }
+        endGate.await();
+        service.stop();
+        service.awaitTermination();
+        if (sink.checkError()) {
+            throw new AssertionError("sink reported an I/O error");
+        }
+    }
+
+    static String line(int producer, int i) {
+        return producer + " " + i + " 日志内容 log line";
+    }
+
+    private static void check(File dir, int nProducers, int perProducer) throws IOException {
+        int[] next = new int[nProducers];
+        for (File f : segmentFiles(dir)) {
+            byte[] bytes = Files.readAllBytes(f.toPath());
+            if (bytes.length == 0 || bytes[bytes.length - 1] != '\n') {
+                throw new AssertionError(f + " is not truncated to its last line");
+            }
+            for (String s : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+                int sp = s.indexOf(' ');
+                int producer = Integer.parseInt(s.substring(0, sp));
+                int i = Integer.parseInt(s.substring(sp + 1, s.indexOf(' ', sp + 1)));
+                if (i != next[producer] || !s.equals(line(producer, i))) {
+                    throw new AssertionError(f + ": expected " + line(producer, next[producer]) + ", got " + s);
+                }
+                next[producer]++;
+            }
+        }
+        for (int p = 0; p < nProducers; p++) {
+            if (next[p] != perProducer) {
+                throw new AssertionError("producer " + p + ": " + next[p] + " of " + perProducer + " lines");
+            }
+        }
+    }
+
+    /** 按编号排序的分段文件 */
+    private static File[] segmentFiles(File dir) {
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,269 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LogRecordBuffer 写满（磁盘慢，日志线程跟不上）时怎么处理新的日志
+ *
+ * 1. block：一直等待空间（默认，和 BlockingQueue.put 一样）
+ * 2. dropNewest：丢弃新的日志
+ * 3. dropOldest：丢弃缓存中最早的日志，给新的日志腾出空间
+ * 4. sample：缓存超过一半时，每 n 条日志只保留一条，其余丢弃
+ * 5. blockWithTimeout：最多等待一段时间，超时就丢弃新的日志
+ * 6. spillTo：写入溢出文件，日志线程取完缓存中的日志后，再从溢出文件中读出来重放
+ * 每种策略都记录丢弃的日志条数。策略有自己的状态（计数、溢出文件），每个 LogService 使用自己的实例。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public abstract class OverflowStrategy {
+    /** discardOldest 遇到还没有提交的最早记录时，重试的次数 */
+    private static final int SPIN_TRIES = 64;
+
+    final LongAdder dropped = new LongAdder();
+    private final AtomicBoolean bound = new AtomicBoolean();
+
+    public static OverflowStrategy block() {
+        return new OverflowStrategy() {
+            @Override
+            int offer(LogRecordBuffer buffer, CharSequence msg) throws InterruptedException {
+                buffer.put(msg);
+                return 0;
+            }
+        };
+    }
+
+    public static OverflowStrategy dropNewest() {
+        return new OverflowStrategy() {
+            @Override
+            int offer(LogRecordBuffer buffer, CharSequence msg) {
+                if (buffer.offer(msg)) {
+                    return 0;
+                }
+                dropped.increment();
+                return 1;
+            }
+        };
+    }
+
+    public static OverflowStrategy dropOldest() {
+        return new OverflowStrategy() {
+            @Override
+            int offer(LogRecordBuffer buffer, CharSequence msg) {
+                int discarded = 0;
+                for (int tries = 0; !buffer.offer(msg); ) {
+                    int n = buffer.discardOldest();
+                    if (n == 0) {
+                        if (++tries > SPIN_TRIES) {
+                            // 最早的记录一直没有提交，放弃新的日志
+                            discarded++;
+                            break;
+                        }
+                        Thread.yield();
+                    }
+                    discarded += n;
+                }
+                dropped.add(discarded);
+                return discarded;
+            }
+        };
+    }
+
+    /**
+     * @param oneIn 缓存超过一半时，每 oneIn 条日志保留一条
+     */
+    public static OverflowStrategy sample(final int oneIn) {
+        if (oneIn <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new OverflowStrategy() {
+            private final AtomicLong counter = new AtomicLong();
+
+            @Override
+            int offer(LogRecordBuffer buffer, CharSequence msg) {
+                if (buffer.usedBytes() < buffer.capacity() / 2) {
+                    if (buffer.offer(msg)) {
+                        return 0;
+                    }
+                } else if (counter.getAndIncrement() % oneIn == 0 && buffer.offer(msg)) {
+                    return 0;
+                }
+                dropped.increment();
+                return 1;
+            }
+        };
+    }
+
+    public static OverflowStrategy blockWithTimeout(final long timeout, final TimeUnit unit) {
+        return new OverflowStrategy() {
+            @Override
+            int offer(LogRecordBuffer buffer, CharSequence msg) throws InterruptedException {
+                if (buffer.offer(msg, timeout, unit)) {
+                    return 0;
+                }
+                dropped.increment();
+                return 1;
+            }
+        };
+    }
+
+    /**
+     * @param file 溢出文件，原有的内容会被覆盖
+     */
+    public static OverflowStrategy spillTo(File file) {
+        return new Spill(file);
+    }
+
+    /** 因为缓存已满被丢弃的日志条数 */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    /** 写入溢出文件的日志条数 */
+    public long spilledCount() {
+        return 0;
+    }
+
+    /** 一个策略只能给一个 LogService 使用 */
+    final OverflowStrategy bind() {
+        if (!bound.compareAndSet(false, true)) {
+            throw new IllegalStateException("OverflowStrategy is already in use");
+        }
+        return this;
+    }
+
+    /**
+     * 写入一条日志
+     * @return 不会由日志线程写出的日志条数：丢弃的 msg 本身，或者为它腾出空间而丢弃的旧日志
+     */
+    abstract int offer(LogRecordBuffer buffer, CharSequence msg) throws InterruptedException;
+
+    /**
+     * 日志线程调用：缓存中的日志都取完（包括还没有提交的）之后，把溢出的日志交给 handler
+     * @return 溢出文件中的日志条数（包括读取失败而丢失的）
+     */
+    int replay(LogRecordBuffer buffer, LogRecordBuffer.RecordHandler handler) {
+        return 0;
+    }
+
+    /**
+     * 写入溢出文件的日志
+     *
+     * 一旦开始溢出，之后的日志都写入溢出文件（保证同一个线程写的日志仍然有序），
+     * 直到日志线程取完缓存、重放完溢出文件，才重新写入缓存。
+     * 重放时，日志线程在锁内把溢出文件换成新的，在锁外读取，生产者可以继续写入新的溢出文件。
+     */
+    private static final class Spill extends OverflowStrategy {
+        private final File file;
+        private final File replayFile;
+        private final LongAdder spilled = new LongAdder();
+        private volatile boolean spilling;
+        @GuardedBy("this")
+        private DataOutputStream out;
+        /** 当前溢出文件中的日志条数 */
+        @GuardedBy("this")
+        private int records;
+        /** 重放时读取记录用的缓存，只由日志线程访问 */
+        private ByteBuffer record;
+
+        Spill(File file) {
+            this.file = file;
+            this.replayFile = new File(file.getPath() + ".replay");
+        }
+
+        @Override
+        public long spilledCount() {
+            return spilled.sum();
+        }
+
+        @Override
+        int offer(LogRecordBuffer buffer, CharSequence msg) {
+            if (!spilling && buffer.offer(msg)) {
+                return 0;
+            }
+            synchronized (this) {
+                if (!spilling) {
+                    // 日志线程可能刚刚结束溢出，再试一次缓存
+                    if (buffer.offer(msg)) {
+                        return 0;
+                    }
+                    spilling = true;
+                }
+                try {
+                    if (out == null) {
+                        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                    }
+                    byte[] bytes = buffer.encode(msg);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                    records++;
+                    spilled.increment();
+                    return 0;
+                } catch (IOException e) {
+                    dropped.increment();
+                    return 1;
+                }
+            }
+        }
+
+        @Override
+        int replay(LogRecordBuffer buffer, LogRecordBuffer.RecordHandler handler) {
+            if (!spilling) {
+                return 0;
+            }
+            int n;
+            synchronized (this) {
+                // 在锁内检查：没有提交的记录也要等它写入、被取走，否则它会排在溢出文件中更晚的日志之后
+                if (!buffer.isDrained()) {
+                    return 0;
+                }
+                if (records == 0) {
+                    spilling = false;
+                    return 0;
+                }
+                n = records;
+                records = 0;
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                    // 没有写出的记录在重放时读不到，算作丢弃
+                }
+                out = null;
+                if (!file.renameTo(replayFile)) {
+                    replayFile.delete();
+                    file.renameTo(replayFile);
+                }
+            }
+            if (record == null) {
+                record = ByteBuffer.allocate(buffer.maxRecordLength());
+            }
+            int replayed = 0;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(replayFile)))) {
+                for (; replayed < n; replayed++) {
+                    int length = in.readInt();
+                    in.readFully(record.array(), 0, length);
+                    record.clear().limit(length);
+                    handler.onRecord(record);
+                }
+            } catch (IOException ignored) {
+                // 读不出来的记录算作丢弃
+            } finally {
+                replayFile.delete();
+            }
+            dropped.add(n - replayed);
+            return n;
+        }
+    }
+}
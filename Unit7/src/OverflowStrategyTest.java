@@ -0,0 +1,162 @@
+import java.io.File;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 日志线程写得很慢（每次 write 都 sleep）时，各种 OverflowStrategy 的行为
+ *
+ * 对每种策略检查：
+ * 1. 写出的日志条数 + 丢弃的条数 == 写入的条数，stop() 之后 pendingCount() == 0
+ * 2. 同一个生产者的日志按顺序写出（丢弃的日志留下空缺，但不会乱序、重复）
+ * 3. 除了 block，其它策略丢弃了日志；spill 不丢弃日志，全部从溢出文件重放
+ * 4. dropOldest 用很小的缓存和定长的日志：缓存正好写满、日志线程还在处理最早的记录时，生产者不能丢弃这条记录，
+ *    日志线程之后也不会卡住
+ * 并输出生产者单次 log 的最长耗时：非阻塞的策略不受磁盘慢的影响。
+ * 运行：java OverflowStrategyTest [生产者数] [每个生产者的日志条数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class OverflowStrategyTest {
+    private static final int CAPACITY = 4096;
+    /** 定长日志的缓存：正好放下 4 条（每条 4 字节长度 + 8 字节内容，对齐到 16 字节） */
+    private static final int SMALL_CAPACITY = 64;
+
+    public static void main(String[] args) throws Exception {
+        int nProducers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int perProducer = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        File spill = File.createTempFile("OverflowStrategyTest", ".spill");
+        spill.deleteOnExit();
+
+        run("block", OverflowStrategy.block(), nProducers, perProducer, false);
+        run("dropNewest", OverflowStrategy.dropNewest(), nProducers, perProducer, true);
+        run("dropOldest", OverflowStrategy.dropOldest(), nProducers, perProducer, true);
+        run("sample(10)", OverflowStrategy.sample(10), nProducers, perProducer, true);
+        run("blockWithTimeout(1ms)", OverflowStrategy.blockWithTimeout(1, TimeUnit.MILLISECONDS),
+                nProducers, perProducer, true);
+        run("spillTo", OverflowStrategy.spillTo(spill), nProducers, perProducer, false);
+        run("dropOldest(full ring)", OverflowStrategy.dropOldest(), SMALL_CAPACITY, FlushPolicy.EVERY_RECORD,
+                true, nProducers, perProducer, true);
+        System.out.println("PASS");
+    }
+
+    private static void run(String name, OverflowStrategy overflow, int nProducers, int perProducer,
+                            boolean expectDrops) throws Exception {
+        run(name, overflow, CAPACITY, FlushPolicy.GROUP_COMMIT, false, nProducers, perProducer, expectDrops);
+    }
+
+    /** @param fixedLength 日志是否定长（生产者编号 + 6 位的序号） */
+    private static void run(String name, OverflowStrategy overflow, int capacity, FlushPolicy flushPolicy,
+                            final boolean fixedLength, int nProducers, final int perProducer,
+                            boolean expectDrops) throws Exception {
+        final SlowWriter out = new SlowWriter(nProducers);
+        final LogService service = new LogService(out, capacity, flushPolicy, overflow);
+        service.start();
+        final CountDownLatch endGate = new CountDownLatch(nProducers);
+        final AtomicLong maxLatency = new AtomicLong();
+        for (int p = 0; p < nProducers; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        long max = 0;
+                        for (int i = 0; i < perProducer; i++) {
+                            long start = System.nanoTime();
+                            service.log(fixedLength ? String.format("%d %06d", producer, i) : producer + " " + i);
+                            max = Math.max(max, System.nanoTime() - start);
+                        }
+                        long m;
+                        while ((m = maxLatency.get()) < max && !maxLatency.compareAndSet(m, max)) {
+                        }
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        endGate.countDown();
+                    }
+                }
+            }.start();
+        }
+        endGate.await();
+        long droppedBeforeStop = service.droppedCount();
+        service.stop();
+        if (!out.closed.await(1, TimeUnit.MINUTES)) {
+            throw new AssertionError(name + ": log thread did not finish, written " + out.lines
+                    + ", pendingCount " + service.pendingCount());
+        }
+
+        if (out.failure != null) {
+            throw out.failure;
+        }
+        long total = (long) nProducers * perProducer;
+        long dropped = service.droppedCount();
+        if (out.lines + dropped != total) {
+            throw new AssertionError(name + ": written " + out.lines + " + dropped " + dropped + " != " + total);
+        }
+        if (service.pendingCount() != 0) {
+            throw new AssertionError(name + ": pendingCount " + service.pendingCount() + " after stop");
+        }
+        if (expectDrops != (droppedBeforeStop > 0)) {
+            throw new AssertionError(name + ": dropped " + droppedBeforeStop);
+        }
+        System.out.printf("%-22s written %7d  dropped %7d  spilled %7d  max log() latency %8.2f ms%n",
+                name, out.lines, dropped, service.spilledCount(), maxLatency.get() / 1e6);
+    }
+
+    /** 每次 write 都 sleep 的 writer，检查每个生产者的日志有序 */
+    private static class SlowWriter extends Writer {
+        final int[] last;
+        final CountDownLatch closed = new CountDownLatch(1);
+        private final StringBuilder line = new StringBuilder();
+        volatile long lines;
+        volatile Error failure;
+
+        SlowWriter(int nProducers) {
+            this.last = new int[nProducers];
+            Arrays.fill(last, -1);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                // 保留中断状态：stop() 通过中断唤醒日志线程
+                Thread.currentThread().interrupt();
+            }
+            for (int i = off; i < off + len; i++) {
+                char c = cbuf[i];
+                if (c == '\n') {
+                    checkLine(line.toString());
+                    line.setLength(0);
+                } else if (c != '\r') {
+                    line.append(c);
+                }
+            }
+        }
+
+        private void checkLine(String s) {
+            try {
+                int sp = s.indexOf(' ');
+                int producer = Integer.parseInt(s.substring(0, sp));
+                int i = Integer.parseInt(s.substring(sp + 1));
+                if (i <= last[producer] && failure == null) {
+                    failure = new AssertionError("producer " + producer + ": " + i + " after " + last[producer]);
+                }
+                last[producer] = i;
+            } catch (RuntimeException e) {
+                failure = new AssertionError("corrupted line: " + s);
+            }
+            lines++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,488 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 多个爬虫、多个索引线程的 IndexingService
+ *
+ * IndexingService 只有一个 CrawlerThread、一个 IndexerThread，文件树很大时单线程的爬虫是瓶颈。
+ * 1. 爬虫：每个目录是 ForkJoinPool 中的一个任务（CountedCompleter），子目录 fork 成新的任务，
+ *    空闲的工作线程从其它线程的任务队列中窃取任务；不 join 子任务，所有子任务完成时根任务自动完成，目录再深也不会栈溢出
+ * 2. 索引：nIndexers 个 IndexerThread 从同一个有界队列中取文件
+ * 3. 终止：根任务完成（或 stop() 取消爬取、所有爬虫任务结束）之后，协调线程放入 nIndexers 个药丸，
+ *    每个索引线程取到一个药丸就退出，所以每个索引线程正好取到一个药丸
+ * 4. 去重：alreadyIndexed 用并发的 Set 记录已经放入队列的文件，同一个文件（例如通过不同的路径名）只索引一次
+ * 每个目录用 DirectoryStream 逐项读取，边读边放入队列；每个目录项只读一次属性，不跟随符号链接。
+ *
+ * 增量索引（有 FileStateIndex 时）：
+ * 1. 爬虫只把新文件、大小或修改时间变了的文件放入队列
+ * 2. 索引线程计算内容哈希，哈希变了才调用 indexFile，然后更新 FileStateIndex
+ * 3. 完整地爬取一遍之后，FileStateIndex 中有、这一遍没有遇到的文件已经被删除，调用 fileDeleted；
+ *    没有权限等原因打不开的目录、读不了属性的目录项下面的文件不算被删除（只是这一遍没有看到），留到下次爬取
+ * 4. watch 模式：爬取完成后不放药丸，用 WatchService 监视所有目录，文件变化时放入队列，直到 stop()
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class ParallelIndexingService {
+    private static final int CAPACITY = 1000;
+    private static final File POISON = new File("");
+
+    /** 规范化的绝对路径，DirectoryStream 读出的目录项也都是规范化的绝对路径 */
+    private final Path root;
+    /** 只用于文件，目录总是会被爬取 */
+    private final FileFilter fileFilter;
+    private final BlockingQueue<File> queue = new LinkedBlockingQueue<File>(CAPACITY);
+    private final ForkJoinPool crawlerPool;
+    private final CrawlCoordinator coordinator = new CrawlCoordinator();
+    private final IndexerThread[] indexers;
+    /** 这一遍爬取中已经遇到的文件 */
+    private final Set<String> indexed = ConcurrentHashMap.newKeySet();
+    /** 这一遍爬取中没有读成功的目录、目录项，它们下面的文件不报告删除 */
+    private final Set<String> unreadable = ConcurrentHashMap.newKeySet();
+    /** 上次索引时的文件状态，null 表示每次都索引所有文件 */
+    private final FileStateIndex stateIndex;
+    private final boolean watch;
+    /** 只在 watch 模式下使用，由协调线程创建 */
+    private volatile WatchService watcher;
+    private volatile boolean cancelled;
+
+    private final LongAdder directories = new LongAdder();
+    private final LongAdder queuedFiles = new LongAdder();
+    private final LongAdder indexedFiles = new LongAdder();
+    private final LongAdder unchangedFiles = new LongAdder();
+    private final LongAdder deletedFiles = new LongAdder();
+
+    /**
+     * @param nCrawlers 爬虫（ForkJoinPool 工作线程）数
+     * @param nIndexers 索引线程数
+     */
+    public ParallelIndexingService(File root, FileFilter fileFilter, int nCrawlers, int nIndexers) {
+        this(root, fileFilter, nCrawlers, nIndexers, null, false);
+    }
+
+    /**
+     * @param stateIndex 上次索引时的文件状态，只索引新的、变化了的文件；由调用者打开，awaitTermination() 之后关闭
+     * @param watch      爬取完成后持续监视文件变化，直到 stop()
+     */
+    public ParallelIndexingService(File root, FileFilter fileFilter, int nCrawlers, int nIndexers,
+                                   FileStateIndex stateIndex, boolean watch) {
+        if (nIndexers <= 0 || (watch && stateIndex == null)) {
+            throw new IllegalArgumentException();
+        }
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.fileFilter = fileFilter;
+        this.stateIndex = stateIndex;
+        this.watch = watch;
+        this.crawlerPool = new ForkJoinPool(nCrawlers);
+        this.indexers = new IndexerThread[nIndexers];
+        for (int i = 0; i < nIndexers; i++) {
+            indexers[i] = new IndexerThread();
+        }
+    }
+
+    public void start() {
+        coordinator.start();
+        for (IndexerThread indexer : indexers) {
+            indexer.start();
+        }
+    }
+
+    /** 停止爬取（和监视）；已经放入队列的文件仍然会被索引 */
+    public void stop() {
+        cancelled = true;
+        coordinator.interrupt();
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        for (IndexerThread indexer : indexers) {
+            indexer.join();
+        }
+    }
+
+    /** 已爬取的目录数 */
+    public long directoryCount() {
+        return directories.sum();
+    }
+
+    /** 放入队列的文件数 */
+    public long queuedCount() {
+        return queuedFiles.sum();
+    }
+
+    /** 已索引的文件数 */
+    public long indexedCount() {
+        return indexedFiles.sum();
+    }
+
+    /** 没有变化、不需要重新索引的文件数（大小和修改时间没变，或者内容哈希没变） */
+    public long unchangedCount() {
+        return unchangedFiles.sum();
+    }
+
+    /** 被删除的文件数 */
+    public long deletedCount() {
+        return deletedFiles.sum();
+    }
+
+    /**
+     * 文件是否已经放入过队列，没有的话记录下来
+     * 用规范化的绝对路径去重：a/./b 和 a/b 是同一个文件
+     */
+    protected boolean alreadyIndexed(File f) {
+        return !indexed.add(f.toPath().toAbsolutePath().normalize().toString());
+    }
+
+    /** 处理文件，由索引线程调用 */
+    protected void indexFile(File file) {
+    }
+
+    /** 索引线程在队列暂时为空时、退出之前调用，子类在这里把线程私有的部分索引合并到共享的索引 */
+    protected void flushIndex() {
+    }
+
+    /** 上次索引过的文件被删除了，由协调线程或索引线程调用 */
+    protected void fileDeleted(File file) {
+    }
+
+    /** 打开一个目录逐项读取，由爬虫调用 */
+    protected DirectoryStream<Path> openDirectory(Path dir) throws IOException {
+        return Files.newDirectoryStream(dir);
+    }
+
+    /** 完整地爬取了一遍（并报告了删除的文件），由协调线程调用；被 stop() 取消的爬取不算 */
+    protected void crawlCompleted() {
+    }
+
+    /**
+     * 协调线程：提交根目录的爬虫任务，等待它完成（或被 stop() 中断）；watch 模式下接着监视文件变化。最后放入药丸
+     */
+    private class CrawlCoordinator extends Thread {
+        public void run() {
+            try {
+                if (watch) {
+                    watcher = FileSystems.getDefault().newWatchService();
+                }
+                crawlAll();
+                if (watch) {
+                    watchChanges();
+                }
+            } catch (InterruptedException e) {
+                // stop()
+            } catch (ExecutionException | IOException e) {
+                // 爬取失败，不再爬取，已经放入队列的文件仍然会被索引
+                cancelled = true;
+            } finally {
+                if (watcher != null) {
+                    try {
+                        watcher.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+                // 中断阻塞在 put 上的爬虫，等所有爬虫任务都结束，之后不会再有文件放到药丸后面
+                crawlerPool.shutdownNow();
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        if (crawlerPool.awaitTermination(1, TimeUnit.SECONDS)) {
+                            break;
+                        }
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                for (int i = 0; i < indexers.length; ) {
+                    try {
+                        // 将药丸添加到队列中，每个索引线程一个
+                        queue.put(POISON);
+                        i++;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /** 完整地爬取一遍，报告这一遍没有遇到的文件 */
+    private void crawlAll() throws InterruptedException, ExecutionException {
+        indexed.clear();
+        unreadable.clear();
+        crawlerPool.submit(new CrawlTask(null, root)).get();
+        if (cancelled) {
+            return;
+        }
+        if (stateIndex != null) {
+            String prefix = root.toString() + File.separator;
+            for (String path : stateIndex.paths()) {
+                if ((path.equals(root.toString()) || path.startsWith(prefix)) && !indexed.contains(path)
+                        && !underUnreadable(path)) {
+                    deleted(path);
+                }
+            }
+        }
+        crawlCompleted();
+    }
+
+    /** path 本身或它的某个上级目录这一遍没有读成功 */
+    private boolean underUnreadable(String path) {
+        if (unreadable.isEmpty()) {
+            return false;
+        }
+        for (Path p = Paths.get(path); p != null && p.startsWith(root); p = p.getParent()) {
+            if (unreadable.contains(p.toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 监视文件变化，直到被 stop() 中断
+     * 新建、修改的文件放入队列；新建的目录提交爬虫任务（同时开始监视它）；删除的文件、目录报告删除；
+     * 事件太多丢失了（OVERFLOW）时，重新完整地爬取一遍
+     */
+    private void watchChanges() throws InterruptedException, ExecutionException {
+        while (true) {
+            WatchKey key = watcher.take();
+            Path dir = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                WatchEvent.Kind<?> kind = event.kind();
+                if (kind == StandardWatchEventKinds.OVERFLOW) {
+                    crawlAll();
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                if (kind == StandardWatchEventKinds.ENTRY_DELETE) {
+                    for (String path : stateIndex.removeUnder(child.toString())) {
+                        reportDeleted(path);
+                    }
+                    continue;
+                }
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    // 已经又被删除了，会有 ENTRY_DELETE 事件
+                    continue;
+                }
+                if (attrs.isDirectory()) {
+                    if (kind == StandardWatchEventKinds.ENTRY_CREATE) {
+                        crawlerPool.execute(new CrawlTask(null, child));
+                    }
+                } else {
+                    File file = child.toFile();
+                    if (fileFilter.accept(file) && changed(child, attrs)) {
+                        indexed.add(child.toString());
+                        put(file);
+                        queuedFiles.increment();
+                    }
+                }
+            }
+            key.reset();
+        }
+    }
+
+    /** 和 FileStateIndex 中的记录相比，大小或修改时间是否变了 */
+    private boolean changed(Path file, BasicFileAttributes attrs) {
+        if (stateIndex == null) {
+            return true;
+        }
+        FileStateIndex.FileState state = stateIndex.get(file.toString());
+        if (state != null && state.matches(attrs.size(), mtime(attrs))) {
+            unchangedFiles.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private static long mtime(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private void deleted(String path) {
+        if (stateIndex.remove(path)) {
+            reportDeleted(path);
+        }
+    }
+
+    private void reportDeleted(String path) {
+        indexed.remove(path);
+        deletedFiles.increment();
+        fileDeleted(new File(path));
+    }
+
+    /**
+     * 爬取一个目录：子目录 fork 成新的任务，文件放入队列
+     * 每个任务在完成时调用 tryComplete()，父任务的所有子任务都完成时，父任务也完成
+     */
+    private class CrawlTask extends CountedCompleter<Void> {
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+
+        CrawlTask(CrawlTask parent, Path dir) {
+            super(parent);
+            this.dir = dir;
+        }
+
+        @Override
+        public void compute() {
+            if (!cancelled) {
+                WatchService w = watcher;
+                if (w != null) {
+                    // 先注册再读取目录，读取期间的变化也不会错过
+                    try {
+                        dir.register(w, StandardWatchEventKinds.ENTRY_CREATE,
+                                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    } catch (IOException ignored) {
+                        // 超过了系统的监视数量限制等：这个目录只在 OVERFLOW 重新爬取时才会更新
+                    }
+                }
+                try (DirectoryStream<Path> entries = openDirectory(dir)) {
+                    directories.increment();
+                    for (Path entry : entries) {
+                        if (cancelled) {
+                            break;
+                        }
+                        crawl(entry);
+                    }
+                } catch (NoSuchFileException e) {
+                    // 目录被删除：下面的文件确实被删除了，照常报告
+                } catch (IOException | DirectoryIteratorException e) {
+                    // 没有权限、读到一半出错：跳过这个目录，但不能认为下面的文件都被删除了
+                    unreadable.add(dir.toString());
+                } catch (InterruptedException e) {
+                    // 被 shutdownNow() 中断：不再爬取
+                    cancelled = true;
+                }
+            }
+            tryComplete();
+        }
+
+        private void crawl(Path entry) throws InterruptedException {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                // 读取目录之后被删除了
+                return;
+            } catch (IOException e) {
+                unreadable.add(entry.toString());
+                return;
+            }
+            if (attrs.isDirectory()) {
+                addToPendingCount(1);
+                new CrawlTask(this, entry).fork();
+            } else {
+                File file = entry.toFile();
+                if (fileFilter.accept(file) && !alreadyIndexed(file) && changed(entry, attrs)) {
+                    put(file);
+                    queuedFiles.increment();
+                }
+            }
+        }
+    }
+
+    /** 队列满时阻塞，告诉 ForkJoinPool 当前工作线程被阻塞，必要时补充线程，其它任务不会因此饿死 */
+    private void put(final File file) throws InterruptedException {
+        if (queue.offer(file)) {
+            return;
+        }
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean done;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                if (!done) {
+                    queue.put(file);
+                    done = true;
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return done || (done = queue.offer(file));
+            }
+        });
+    }
+
+    /**
+     * 消费者：处理队列中的文件，直到遇到药丸
+     */
+    private class IndexerThread extends Thread {
+        public void run() {
+            try {
+                while (true) {
+                    File file = queue.poll();
+                    if (file == null) {
+                        // 暂时没有文件了，先让已经索引的文件可以被查询到
+                        flushIndex();
+                        file = queue.take();
+                    }
+                    if (file == POISON) {
+                        break;
+                    }
+                    if (stateIndex == null) {
+                        indexFile(file);
+                        indexedFiles.increment();
+                    } else {
+                        reindex(file);
+                    }
+                }
+            } catch (InterruptedException consumed) {
+            } finally {
+                flushIndex();
+            }
+        }
+
+        /** 内容哈希变了才重新索引，然后记录文件的新状态 */
+        private void reindex(File file) {
+            Path path = file.toPath();
+            BasicFileAttributes attrs;
+            long hash;
+            try {
+                // 先读属性再读内容：读内容期间文件又被修改的话，下次爬取时修改时间不一致，会再索引一次
+                attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                hash = FileStateIndex.hash(path);
+            } catch (NoSuchFileException e) {
+                deleted(path.toString());
+                return;
+            } catch (IOException e) {
+                // 暂时读不了，不记录状态，下次爬取时再试
+                return;
+            }
+            FileStateIndex.FileState old = stateIndex.get(path.toString());
+            if (old == null || old.hash != hash) {
+                indexFile(file);
+                indexedFiles.increment();
+            } else {
+                unchangedFiles.increment();
+            }
+            stateIndex.put(path.toString(), attrs.size(), mtime(attrs), hash);
+        }
+    }
+}
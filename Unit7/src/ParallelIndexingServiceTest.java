@@ -0,0 +1,140 @@
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelIndexingService 的正确性测试
+ *
+ * 在临时目录中生成一棵目录树，多个爬虫、多个索引线程索引它，检查：
+ * 1. 每个被 FileFilter 接受的文件正好被索引一次，其它文件不被索引
+ * 2. 爬取完成后所有索引线程都能退出（每个索引线程取到一个药丸）
+ * 3. 索引很慢、队列满、爬虫阻塞时 stop()，所有线程仍然能退出，已经放入队列的文件都被索引
+ * 运行：java ParallelIndexingServiceTest [爬虫数] [索引线程数]
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class ParallelIndexingServiceTest {
+    private static final int DEPTH = 3;
+    private static final int FANOUT = 8;
+    private static final int FILES_PER_DIR = 20;
+
+    private static final FileFilter TXT = new FileFilter() {
+        @Override
+        public boolean accept(File pathname) {
+            return pathname.getName().endsWith(".txt");
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int nCrawlers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int nIndexers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        File root = Files.createTempDirectory("ParallelIndexingServiceTest").toFile();
+        try {
+            int expected = createTree(root, DEPTH);
+            testComplete(root, expected, nCrawlers, nIndexers);
+            testStop(root, nCrawlers, nIndexers);
+            System.out.println(expected + " files, PASS");
+        } finally {
+            delete(root);
+        }
+    }
+
+    private static void testComplete(File root, int expected, int nCrawlers, int nIndexers) throws Exception {
+        final ConcurrentMap<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+        ParallelIndexingService service = new ParallelIndexingService(root, TXT, nCrawlers, nIndexers) {
+            @Override
+            protected void indexFile(File file) {
+                AtomicInteger count = counts.putIfAbsent(file.getPath(), new AtomicInteger(1));
+                if (count != null) {
+                    count.incrementAndGet();
+                }
+            }
+        };
+        long start = System.nanoTime();
+        service.start();
+        awaitTermination(service);
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        if (counts.size() != expected || service.indexedCount() != expected || service.queuedCount() != expected) {
+            throw new AssertionError("indexed " + counts.size() + " distinct files, " + service.indexedCount()
+                    + " total, " + service.queuedCount() + " queued; expected " + expected);
+        }
+        for (Map.Entry<String, AtomicInteger> e : counts.entrySet()) {
+            if (!e.getKey().endsWith(".txt") || e.getValue().get() != 1) {
+                throw new AssertionError(e.getKey() + " indexed " + e.getValue() + " times");
+            }
+        }
+        System.out.println(service.directoryCount() + " directories, " + expected + " files in " + millis + "ms");
+    }
+
+    private static void testStop(File root, int nCrawlers, int nIndexers) throws Exception {
+        ParallelIndexingService service = new ParallelIndexingService(root, TXT, nCrawlers, nIndexers) {
+            @Override
+            protected void indexFile(File file) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        service.start();
+        Thread.sleep(100);
+        service.stop();
+        awaitTermination(service);
+        if (service.indexedCount() != service.queuedCount()) {
+            throw new AssertionError(service.queuedCount() + " queued but " + service.indexedCount() + " indexed");
+        }
+        System.out.println("stopped after " + service.indexedCount() + " files");
+    }
+
+    /** 在另一个线程中等待，超时说明有索引线程没有取到药丸 */
+    private static void awaitTermination(final ParallelIndexingService service) throws InterruptedException {
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    service.awaitTermination();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(60000);
+        if (waiter.isAlive()) {
+            throw new AssertionError("indexers did not terminate");
+        }
+    }
+
+    /** 每个目录下 FILES_PER_DIR 个 .txt 文件、一个 .bin 文件和 FANOUT 个子目录；返回 .txt 文件数 */
+    private static int createTree(File dir, int depth) throws IOException {
+        int count = 0;
+        for (int i = 0; i < FILES_PER_DIR; i++) {
+            new File(dir, "file" + i + ".txt").createNewFile();
+            count++;
+        }
+        new File(dir, "skip.bin").createNewFile();
+        if (depth > 0) {
+            for (int i = 0; i < FANOUT; i++) {
+                File sub = new File(dir, "dir" + i);
+                sub.mkdir();
+                count += createTree(sub, depth - 1);
+            }
+        }
+        return count;
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
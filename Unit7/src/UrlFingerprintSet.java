@@ -0,0 +1,148 @@
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * 已经见过的 URL：只保存 URL 的 64 位指纹，不保存 URL 本身
+ *
+ * ConcurrentMap<URL, Boolean> 每个 URL 要几百字节（URL 对象、字符串、Node），百万个 URL 就是几百 MB；
+ * 这里每个 URL 只占一个 long（开放寻址，装载因子 0.75 时约 11 字节）。
+ * 两个不同的 URL 指纹相同的概率：一百万个 URL 时约 3e-8，相同时后一个 URL 被当作已经见过。
+ * 分成 SEGMENTS 段，每段一把锁，按指纹的高位选段。
+ * Created by osys on 2022/08/28 21:48.
+ */
+@ThreadSafe
+public class UrlFingerprintSet {
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = 64 - 6;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /** @param expected 预计的 URL 数，用来确定初始容量 */
+    public UrlFingerprintSet(int expected) {
+        int perSegment = Math.max(16, Integer.highestOneBit(Math.max(1, expected / SEGMENTS * 4 / 3)) * 2);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /** URL 的 64 位指纹（FNV-1a 再混合一次），不会是 0 */
+    public static long fingerprint(String url) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            h = (h ^ url.charAt(i)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    /** @return 之前没有这个指纹 */
+    public boolean add(long fingerprint) {
+        return segmentFor(fingerprint).add(fingerprint);
+    }
+
+    public boolean contains(long fingerprint) {
+        return segmentFor(fingerprint).contains(fingerprint);
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment s : segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    /** 所有指纹（弱一致性：和 add 同时调用时，可能包含也可能不包含同时加入的指纹） */
+    public long[] toArray() {
+        long[] result = new long[(int) size()];
+        int n = 0;
+        for (Segment s : segments) {
+            long[] fps = s.toArray();
+            if (n + fps.length > result.length) {
+                result = Arrays.copyOf(result, (n + fps.length) * 2);
+            }
+            System.arraycopy(fps, 0, result, n, fps.length);
+            n += fps.length;
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private Segment segmentFor(long fingerprint) {
+        return segments[(int) (fingerprint >>> SEGMENT_SHIFT)];
+    }
+
+    /** 一段：开放寻址的 long 数组，0 表示空位 */
+    private static final class Segment {
+        @GuardedBy("this") private long[] table;
+        @GuardedBy("this") private int size;
+
+        Segment(int capacity) {
+            table = new long[capacity];
+        }
+
+        synchronized boolean add(long fp) {
+            int mask = table.length - 1;
+            for (int i = (int) fp & mask; ; i = (i + 1) & mask) {
+                if (table[i] == fp) {
+                    return false;
+                }
+                if (table[i] == 0) {
+                    table[i] = fp;
+                    if (++size > table.length / 4 * 3) {
+                        resize();
+                    }
+                    return true;
+                }
+            }
+        }
+
+        synchronized boolean contains(long fp) {
+            int mask = table.length - 1;
+            for (int i = (int) fp & mask; ; i = (i + 1) & mask) {
+                if (table[i] == fp) {
+                    return true;
+                }
+                if (table[i] == 0) {
+                    return false;
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] toArray() {
+            long[] result = new long[size];
+            int n = 0;
+            for (long fp : table) {
+                if (fp != 0) {
+                    result[n++] = fp;
+                }
+            }
+            return result;
+        }
+
+        @GuardedBy("this")
+        private void resize() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            int mask = table.length - 1;
+            for (long fp : old) {
+                if (fp != 0) {
+                    int i = (int) fp & mask;
+                    while (table[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = fp;
+                }
+            }
+        }
+    }
+}
@@ -1,164 +1,189 @@
 import net.jcip.annotations.GuardedBy;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.AbstractExecutorService;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * 网络爬虫
  *
- *
+ * 不再为每个链接提交一个任务到无界的 newCachedThreadPool（大网站上会创建几千个线程，seen 无限增长），
+ * 而是固定 maxInFlight 个工作线程，每个线程循环地从 CrawlFrontier 中取 URL、爬取、把新的链接加入 CrawlFrontier：
+ * 1. 线程数固定，同时爬取的 URL 数不超过 maxInFlight
+ * 2. 每个主机的并发数、请求间隔由 CrawlFrontier 控制，优先级由 priority() 决定（默认按深度，广度优先）
+ * 3. 见过的 URL 只保存 64 位指纹
+ * stop() 时，正在爬取、被中断的 URL 放回 CrawlFrontier，再次 start() 时继续爬取。
+ * 指定了检查点目录时，frontier 保存在目录中（CrawlCheckpoint），进程重启后用同一个目录创建 WebCrawler，
+ * 从上一次的状态继续爬取，已经爬取完成的页面不会再爬取；close() 写最后一个检查点。
  * Created by osys on 2022/08/28 21:48.
  */
-public abstract class WebCrawler {
-    /** 线程池：关闭该线程池，能获得正在执行的线程任务 */
-    private volatile TrackingExecutor exec;
-    /** 要爬取的 url */
-    @GuardedBy("this")
-    private final Set<URL> urlsToCrawl = new HashSet<URL>();
-    /** 已经爬取的 */
-    private final ConcurrentMap<URL, Boolean> seen = new ConcurrentHashMap<>();
+public abstract class WebCrawler implements Closeable {
     private static final long TIMEOUT = 500;
     private static final TimeUnit UNIT = MILLISECONDS;
+    private static final int MAX_QUEUED = 10_000_000;
+
+    /** 待爬取的 url、已经见过的 url */
+    private final CrawlFrontier frontier;
+    private final int nThreads;
+    /** 没有指定检查点目录时为 null */
+    private final CrawlCheckpoint checkpoint;
+    /** 工作线程 */
+    @GuardedBy("this")
+    private ExecutorService exec;
+    private final LongAdder crawled = new LongAdder();
+    private final LongAdder failed = new LongAdder();
 
+    /** 最多同时爬取 16 个 url，每个主机最多 2 个，同一个主机两次请求至少间隔 500ms */
     public WebCrawler(URL startUrl) {
-        urlsToCrawl.add(startUrl);
+        this(startUrl, 16, 2, TIMEOUT, UNIT);
+    }
+
+    /**
+     * @param maxInFlight        工作线程数，也是同时爬取的 url 数
+     * @param perHostConcurrency 同一个主机最多同时爬取的 url 数
+     * @param perHostDelay       同一个主机两次请求之间的最小间隔
+     */
+    public WebCrawler(URL startUrl, int maxInFlight, int perHostConcurrency, long perHostDelay, TimeUnit unit) {
+        this.frontier = new CrawlFrontier(maxInFlight, perHostConcurrency, perHostDelay, unit, MAX_QUEUED);
+        this.nThreads = maxInFlight;
+        this.checkpoint = null;
+        frontier.add(startUrl, 0);
+    }
+
+    /**
+     * 从检查点目录恢复（目录为空时从 startUrl 开始），每隔 checkpointInterval 写一个检查点
+     * @param checkpointDir 检查点目录，同一时间只能由一个 WebCrawler 使用
+     */
+    public WebCrawler(URL startUrl, int maxInFlight, int perHostConcurrency, long perHostDelay, TimeUnit unit,
+                      File checkpointDir, long checkpointInterval, TimeUnit checkpointUnit) throws IOException {
+        this.frontier = new CrawlFrontier(maxInFlight, perHostConcurrency, perHostDelay, unit, MAX_QUEUED);
+        this.nThreads = maxInFlight;
+        this.checkpoint = CrawlCheckpoint.open(checkpointDir, frontier, checkpointInterval, checkpointUnit);
+        // 恢复出来的 frontier 已经见过 startUrl 时忽略
+        frontier.add(startUrl, 0);
     }
 
     public synchronized void start() {
-        exec = new TrackingExecutor(Executors.newCachedThreadPool());
-        for (URL url : urlsToCrawl) {
-            submitCrawlTask(url);
+        exec = Executors.newFixedThreadPool(nThreads);
+        for (int i = 0; i < nThreads; i++) {
+            exec.execute(new CrawlWorker());
         }
-        urlsToCrawl.clear();
+        // 工作线程在爬取结束时退出，线程池随之终止
+        exec.shutdown();
     }
 
-    /** 关闭线程池，将正在执行的爬虫程序对应的 url 保存起来到【urlsToCrawl】对象中 */
+    /** 中断工作线程，正在爬取的 url 放回 frontier */
     public synchronized void stop() throws InterruptedException {
         try {
-            saveUnCrawled(exec.shutdownNow());
-            if (exec.awaitTermination(TIMEOUT, UNIT)) {
-                saveUnCrawled(exec.getCancelledTasks());
-            }
+            exec.shutdownNow();
+            exec.awaitTermination(TIMEOUT, UNIT);
         } finally {
             exec = null;
         }
     }
 
-    private void saveUnCrawled(List<Runnable> unCrawled) {
-        for (Runnable task : unCrawled) {
-            urlsToCrawl.add(((CrawlTask) task).getPage());
+    /** 停止爬取（如果正在爬取），写最后一个检查点 */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (exec != null) {
+                stop();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
         }
     }
 
-    /** 启动爬虫task，爬取url */
-    private void submitCrawlTask(URL u) {
-        exec.execute(new CrawlTask(u));
-    }
-
-    /** 爬虫 */
-    private class CrawlTask implements Runnable {
-        private final URL url;
-
-        CrawlTask(URL url) {
-            this.url = url;
+    /** 写一个检查点，没有指定检查点目录时什么都不做 */
+    public void checkpoint() throws IOException {
+        if (checkpoint != null) {
+            checkpoint.checkpoint();
         }
+    }
 
-        private int count = 1;
-
-        /** 已经爬取的 url */
-        boolean alreadyCrawled() {
-            return seen.putIfAbsent(url, true) != null;
+    /** 等待爬取结束（没有待爬取的 url，也没有正在爬取的 url） */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        ExecutorService e;
+        synchronized (this) {
+            e = exec;
         }
+        return e == null || e.awaitTermination(timeout, unit);
+    }
 
+    /** 还没有爬取的 url */
+    public List<CrawlFrontier.Entry> getUnCrawled() {
+        return frontier.pending();
+    }
 
-        void markUnCrawled() {
-            seen.remove(url);
-            System.out.printf("marking %s unCrawled%n", url);
-        }
+    /** 已爬取的 url 数 */
+    public long crawledCount() {
+        return crawled.sum();
+    }
 
-        /** 爬取 */
-        public void run() {
-            for (URL link : processPage(url)) {
-                if (Thread.currentThread().isInterrupted()) {
-                    return;
-                }
-                submitCrawlTask(link);
-            }
-        }
+    /** processPage 抛出异常的 url 数 */
+    public long failedCount() {
+        return failed.sum();
+    }
 
-        public URL getPage() {
-            return url;
-        }
+    /** 见过的不同 url 数 */
+    public long seenCount() {
+        return frontier.seenCount();
     }
 
+    /** 处理页面，返回页面中的链接 */
     protected abstract List<URL> processPage(URL url);
 
-    private class TrackingExecutor extends AbstractExecutorService {
-        private final ExecutorService exec;
-
-        /** 正在执行，且为完成的 runnable */
-        private final Set<Runnable> tasksCancelledAtShutdown = Collections.synchronizedSet(new HashSet<Runnable>());
-
-        public TrackingExecutor(ExecutorService exec) {
-            this.exec = exec;
-        }
-
-        public void shutdown() {
-            exec.shutdown();
-        }
-
-        public List<Runnable> shutdownNow() {
-            return exec.shutdownNow();
-        }
-
-        public boolean isShutdown() {
-            return exec.isShutdown();
-        }
-
-        public boolean isTerminated() {
-            return exec.isTerminated();
-        }
-
-        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
-            return exec.awaitTermination(timeout, unit);
-        }
+    /**
+     * 链接的优先级，数字小的先爬取
+     * @param parentPriority 链接所在页面的优先级
+     */
+    protected int priority(URL link, int parentPriority) {
+        return parentPriority + 1;
+    }
 
-        public List<Runnable> getCancelledTasks() {
-            if (!exec.isTerminated()) {
-                throw new IllegalStateException("线程池未关闭");
+    /** 工作线程：从 frontier 中取 url 爬取，直到爬取结束或者被中断 */
+    private class CrawlWorker implements Runnable {
+        public void run() {
+            try {
+                CrawlFrontier.Entry entry;
+                while ((entry = frontier.take()) != null) {
+                    crawl(entry);
+                }
+            } catch (InterruptedException ignored) {
+                // stop()
             }
-            return new ArrayList<Runnable>(tasksCancelledAtShutdown);
         }
 
-        public void execute(final Runnable runnable) {
-            exec.execute(new Runnable() {
-                public void run() {
-                    try {
-                        runnable.run();
-                    } finally {
-                        // 线程池关闭，且当前线程被标志为中断状态，那么将当前线程添加到 set 集合中
-                        if (isShutdown() && Thread.currentThread().isInterrupted()) {
-                            tasksCancelledAtShutdown.add(runnable);
-                        }
+        private void crawl(CrawlFrontier.Entry entry) {
+            try {
+                for (URL link : processPage(entry.toURL())) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
                     }
+                    frontier.add(link, priority(link, entry.priority));
                 }
-            });
+            } catch (RuntimeException e) {
+                failed.increment();
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // 被 stop() 中断，页面可能没有处理完，下次 start() 时重新爬取
+                frontier.retry(entry);
+            } else {
+                crawled.increment();
+                frontier.done(entry);
+            }
         }
     }
-
 }
-
-
-
@@ -0,0 +1,275 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * WebCrawler + CrawlFrontier 的测试，爬取进程内的 HTTP 桩服务器
+ *
+ * 两个桩服务器（两个主机），每个服务器有 PAGES 个页面，页面 i 链接到 2i+1、2i+2、首页（重复的链接）和另一个服务器的页面 i。
+ * 检查：
+ * 1. 每个页面正好被请求一次
+ * 2. 同一个服务器同时处理的请求数不超过 perHostConcurrency，请求的速率不超过每 perHostDelay 一个（允许一些误差）
+ * 3. 所有服务器同时处理的请求数不超过 maxInFlight
+ * 4. stop() 之后再 start()，继续爬取剩下的页面，所有页面都被请求到
+ * 5. 写不写默认端口、大小写、用户信息不同的 URL，以及从检查点恢复的 URL，属于同一个主机队列
+ * 运行：java WebCrawlerTest
+ * Created by osys on 2022/08/28 21:48.
+ */
+public class WebCrawlerTest {
+    private static final int PAGES = 150;
+    private static final int MAX_IN_FLIGHT = 3;
+    private static final int PER_HOST = 2;
+    private static final long DELAY_MILLIS = 10;
+    private static final long LATENCY_MILLIS = 15;
+    private static final int WINDOW = 10;
+    private static final Pattern HREF = Pattern.compile("href=\"([^\"]+)\"");
+
+    /** 所有服务器同时处理的请求数 */
+    static final AtomicInteger globalActive = new AtomicInteger();
+    static final AtomicInteger globalMax = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        StubServer a = new StubServer();
+        StubServer b = new StubServer();
+        a.peer = b;
+        b.peer = a;
+        try {
+            WebCrawler crawler = newCrawler(a.url(0));
+            crawler.start();
+            if (!crawler.awaitTermination(60, TimeUnit.SECONDS)) {
+                throw new AssertionError("crawl did not finish");
+            }
+            for (StubServer s : new StubServer[]{a, b}) {
+                s.checkEachPageOnce();
+                s.checkPoliteness();
+            }
+            if (globalMax.get() > MAX_IN_FLIGHT) {
+                throw new AssertionError("global concurrency " + globalMax.get() + " > " + MAX_IN_FLIGHT);
+            }
+            check("crawled", crawler.crawledCount(), 2 * PAGES);
+            check("seen", crawler.seenCount(), 2 * PAGES);
+            System.out.println("crawled " + crawler.crawledCount() + " pages, max per host " + a.max.get() + "/"
+                    + b.max.get() + ", min gap " + a.minGapMillis() + "/" + b.minGapMillis() + "ms");
+
+            testStopAndRestart();
+            testHostKey();
+            System.out.println("PASS");
+        } finally {
+            a.server.stop(0);
+            b.server.stop(0);
+        }
+    }
+
+    private static void testStopAndRestart() throws Exception {
+        StubServer a = new StubServer();
+        StubServer b = new StubServer();
+        a.peer = b;
+        b.peer = a;
+        try {
+            WebCrawler crawler = newCrawler(a.url(0));
+            crawler.start();
+            Thread.sleep(300);
+            crawler.stop();
+            int remaining = crawler.getUnCrawled().size();
+            if (remaining == 0) {
+                throw new AssertionError("nothing left after stop()");
+            }
+            crawler.start();
+            if (!crawler.awaitTermination(60, TimeUnit.SECONDS)) {
+                throw new AssertionError("crawl did not finish after restart");
+            }
+            for (StubServer s : new StubServer[]{a, b}) {
+                for (int i = 0; i < PAGES; i++) {
+                    // 被中断的请求可能已经到达服务器，重新爬取时会再请求一次
+                    int n = s.requests.get(i);
+                    if (n < 1 || n > 1 + MAX_IN_FLIGHT) {
+                        throw new AssertionError("page " + i + " requested " + n + " times");
+                    }
+                }
+            }
+            System.out.println("stopped with " + remaining + " queued, resumed to " + crawler.crawledCount());
+        } finally {
+            a.server.stop(0);
+            b.server.stop(0);
+        }
+    }
+
+    private static WebCrawler newCrawler(URL start) {
+        return new WebCrawler(start, MAX_IN_FLIGHT, PER_HOST, DELAY_MILLIS, TimeUnit.MILLISECONDS) {
+            @Override
+            protected List<URL> processPage(URL url) {
+                try {
+                    return links(url, fetch(url));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    static String fetch(URL url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        InputStream in = conn.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = in.read(buf)) > 0; ) {
+                out.write(buf, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void testHostKey() throws Exception {
+        String[] sameHost = {"http://example.com/a", "http://Example.COM:80/b", "http://user@example.com/c"};
+        for (String s : sameHost) {
+            URL url = new URL(s);
+            checkHost(s, CrawlFrontier.host(url), "example.com");
+            checkHost(s + " restored", CrawlFrontier.Entry.restored(CrawlFrontier.normalize(url), 0).host, "example.com");
+        }
+        checkHost("non-default port", CrawlFrontier.host(new URL("http://example.com:8080/")), "example.com:8080");
+        checkHost("https default port", CrawlFrontier.host(new URL("https://example.com:443/")), "example.com");
+    }
+
+    private static void checkHost(String what, String actual, String expected) {
+        if (!actual.equals(expected)) {
+            throw new AssertionError(what + ": host " + actual + ", expected " + expected);
+        }
+    }
+
+    static List<URL> links(URL base, String html) throws MalformedURLException {
+        List<URL> links = new ArrayList<URL>();
+        Matcher m = HREF.matcher(html);
+        while (m.find()) {
+            links.add(new URL(base, m.group(1)));
+        }
+        return links;
+    }
+
+    private static void check(String what, long actual, long expected) {
+        if (actual != expected) {
+            throw new AssertionError(what + ": " + actual + ", expected " + expected);
+        }
+    }
+
+    /** 进程内的 HTTP 服务器，记录每个页面的请求次数、并发数、请求开始的时间 */
+    static final class StubServer implements HttpHandler {
+        final HttpServer server;
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final AtomicIntegerArray requests = new AtomicIntegerArray(PAGES);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+        final List<Long> starts = new ArrayList<Long>();
+        volatile StubServer peer;
+
+        StubServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", this);
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        URL url(int page) throws MalformedURLException {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/page/" + page);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            synchronized (starts) {
+                starts.add(System.nanoTime());
+            }
+            updateMax(max, active.incrementAndGet());
+            updateMax(globalMax, globalActive.incrementAndGet());
+            boolean counted = true;
+            try {
+                String path = exchange.getRequestURI().getPath();
+                int page = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+                requests.incrementAndGet(page);
+                Thread.sleep(LATENCY_MILLIS);
+                StringBuilder html = new StringBuilder("<html><body>");
+                for (int link : new int[]{2 * page + 1, 2 * page + 2, 0}) {
+                    if (link < PAGES) {
+                        html.append("<a href=\"/page/").append(link).append("#top\">").append(link).append("</a>");
+                    }
+                }
+                html.append("<a href=\"").append(peer.url(page)).append("\">peer</a></body></html>");
+                byte[] body = html.toString().getBytes(StandardCharsets.UTF_8);
+                // 发送响应之前就不再计数：客户端收到响应后马上发出下一个请求，可能早于 finally
+                active.decrementAndGet();
+                globalActive.decrementAndGet();
+                counted = false;
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (counted) {
+                    active.decrementAndGet();
+                    globalActive.decrementAndGet();
+                }
+            }
+        }
+
+        private static void updateMax(AtomicInteger max, int value) {
+            int m;
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+            }
+        }
+
+        void checkEachPageOnce() {
+            for (int i = 0; i < PAGES; i++) {
+                if (requests.get(i) != 1) {
+                    throw new AssertionError("page " + i + " requested " + requests.get(i) + " times");
+                }
+            }
+        }
+
+        void checkPoliteness() {
+            if (max.get() > PER_HOST) {
+                throw new AssertionError("host concurrency " + max.get() + " > " + PER_HOST);
+            }
+            // 请求到达服务器的时间有抖动，单个间隔可能比 perHostDelay 短，检查每 WINDOW 个连续请求的时间跨度
+            synchronized (starts) {
+                for (int i = 0; i + WINDOW <= starts.size(); i++) {
+                    long span = starts.get(i + WINDOW - 1) - starts.get(i);
+                    if (span < TimeUnit.MILLISECONDS.toNanos(DELAY_MILLIS * (WINDOW - 2))) {
+                        throw new AssertionError(WINDOW + " requests within " + TimeUnit.NANOSECONDS.toMillis(span) + "ms");
+                    }
+                }
+            }
+        }
+
+        long minGapMillis() {
+            synchronized (starts) {
+                long min = Long.MAX_VALUE;
+                for (int i = 1; i < starts.size(); i++) {
+                    min = Math.min(min, starts.get(i) - starts.get(i - 1));
+                }
+                return TimeUnit.NANOSECONDS.toMillis(min);
+            }
+        }
+    }
+}